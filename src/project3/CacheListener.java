@@ -0,0 +1,27 @@
+package project3;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Interface for a client that caches the values it reads. Clients subscribe with the participants
+ * to be told which keys have been changed, so that they drop the cached values of those keys
+ * instead of serving them stale.
+ */
+public interface CacheListener extends Remote {
+  /**
+   * Time in milliseconds that a subscription lasts for. Clients renew their subscription well
+   * before it runs out, and don't use the values they cache once it has run out, since they might
+   * not have been told about some of the keys that were committed since.
+   */
+  long LEASE_MILLIS = 15000;
+
+  /**
+   * Method that is called by a participant after it has committed changes to keys.
+   *
+   * @param keys The keys whose values were changed or deleted.
+   * @throws RemoteException in case of any errors while interaction between the server/client.
+   */
+  void invalidate(List<String> keys) throws RemoteException;
+}
@@ -0,0 +1,135 @@
+package project3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Class that assigns keys to members with consistent hashing. Every member is placed at many
+ * points on a ring of 64-bit hashes, and a key belongs to the first members that are found going
+ * clockwise from the hash of the key. Adding or removing a member only moves the keys next to its
+ * points, and the many points per member spread the keys evenly. The ring is never changed once it
+ * is built, so it can be read by many threads without locking.
+ *
+ * @param <T> The type of the members.
+ */
+public class HashRing<T> {
+  private static final int POINTS_PER_MEMBER = 64;
+
+  private final Map<String, T> members;
+  private final NavigableMap<Long, String> points;
+  private final int replicationFactor;
+
+  /**
+   * Constructor to build the ring.
+   *
+   * @param members           The members by their unique names (eg: host:port).
+   * @param replicationFactor Number of members that each key belongs to. If there are fewer
+   *                          members, each key belongs to all of them.
+   * @throws IllegalArgumentException if the replication factor is less than 1.
+   */
+  public HashRing(Map<String, T> members, int replicationFactor) {
+    if (replicationFactor < 1) {
+      throw new IllegalArgumentException("Replication factor must be at least 1.");
+    }
+    this.members = Collections.unmodifiableMap(new LinkedHashMap<>(members));
+    this.points = new TreeMap<>();
+    this.replicationFactor = replicationFactor;
+    for (String name : members.keySet()) {
+      for (int i = 0; i < POINTS_PER_MEMBER; i++) {
+        points.put(hash(name + "#" + i), name);
+      }
+    }
+  }
+
+  /**
+   * Method to get the names of the members that a key belongs to.
+   *
+   * @param key The key.
+   * @return The names of the members, the first of which is the key's primary owner.
+   */
+  public List<String> getOwners(String key) {
+    int count = Math.min(replicationFactor, members.size());
+    List<String> owners = new ArrayList<>(count);
+    if (count == 0) {
+      return owners;
+    }
+
+    long hash = hash(key);
+    for (String name : points.tailMap(hash, true).values()) {
+      if (!owners.contains(name) && owners.add(name) && owners.size() == count) {
+        return owners;
+      }
+    }
+    for (String name : points.headMap(hash, false).values()) {
+      if (!owners.contains(name) && owners.add(name) && owners.size() == count) {
+        return owners;
+      }
+    }
+    return owners;
+  }
+
+  /**
+   * Method to get the members that a key belongs to.
+   *
+   * @param key The key.
+   * @return The members, the first of which is the key's primary owner.
+   */
+  public List<T> getReplicas(String key) {
+    List<String> owners = getOwners(key);
+    List<T> replicas = new ArrayList<>(owners.size());
+    for (String name : owners) {
+      replicas.add(members.get(name));
+    }
+    return replicas;
+  }
+
+  /**
+   * Method to check if a key belongs to a member.
+   *
+   * @param key  The key.
+   * @param name Name of the member.
+   * @return true if the member is one of the key's replicas, false otherwise.
+   */
+  public boolean isOwner(String key, String name) {
+    return getOwners(key).contains(name);
+  }
+
+  /**
+   * Method to get all the members of the ring.
+   *
+   * @return The members by their names.
+   */
+  public Map<String, T> getMembers() {
+    return members;
+  }
+
+  /**
+   * Method to get the number of members that each key belongs to.
+   *
+   * @return The replication factor.
+   */
+  public int getReplicationFactor() {
+    return replicationFactor;
+  }
+
+  private static long hash(String s) {
+    // 64-bit FNV-1a, followed by the murmur3 finalizer so that similar strings spread out
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
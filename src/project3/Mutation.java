@@ -0,0 +1,230 @@
+package project3;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Class that represents a single change to the key-value store which is carried out on all servers
+ * through the 2 phase commit protocol. A mutation either puts a value for a key or deletes the key,
+ * in which case it holds no value.
+ *
+ * <p>A mutation can also change a key based on its current value, by setting a new value only if
+ * the current one is as expected, adding to a number or appending to the value. Such a mutation is
+ * resolved by every participant when it prepares, which turns it into a plain put of the new value
+ * or makes the participant vote to abort, so the value can't change between the read and the
+ * write.
+ *
+ * <p>A put can carry the time at which the key expires, after which every participant treats the
+ * key as deleted on its own.
+ */
+public class Mutation implements Serializable {
+  private static final long serialVersionUID = 2L;
+
+  private final Kind kind;
+  private final String key;
+  private final String value;
+  private final String expectedValue;
+  private final long expiresAt;
+
+  /**
+   * Enum of all the kinds of changes that a mutation can make.
+   */
+  public enum Kind {
+    PUT, DELETE, COMPARE_AND_SET, INCREMENT, APPEND
+  }
+
+  private Mutation(Kind kind, String key, String value, String expectedValue, long expiresAt) {
+    this.kind = kind;
+    this.key = key;
+    this.value = value;
+    this.expectedValue = expectedValue;
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * Method to create a mutation that inserts/replaces the value of a key.
+   *
+   * @param key   Key to insert/replace the value of.
+   * @param value Value of the key.
+   * @return The mutation.
+   */
+  public static Mutation put(String key, String value) {
+    return new Mutation(Kind.PUT, key, value, null, 0);
+  }
+
+  /**
+   * Method to create a mutation that inserts/replaces the value of a key which expires later.
+   *
+   * @param key       Key to insert/replace the value of.
+   * @param value     Value of the key.
+   * @param expiresAt Time in milliseconds since the epoch at which the key expires, or 0 if it
+   *                  never does.
+   * @return The mutation.
+   */
+  public static Mutation put(String key, String value, long expiresAt) {
+    return new Mutation(Kind.PUT, key, value, null, expiresAt);
+  }
+
+  /**
+   * Method to create a mutation that deletes a key.
+   *
+   * @param key Key to delete.
+   * @return The mutation.
+   */
+  public static Mutation delete(String key) {
+    return new Mutation(Kind.DELETE, key, null, null, 0);
+  }
+
+  /**
+   * Method to create a mutation that replaces the value of a key only if it is the expected one.
+   *
+   * @param key           Key to replace the value of.
+   * @param expectedValue Value that the key must have.
+   * @param value         New value of the key.
+   * @return The mutation.
+   */
+  public static Mutation compareAndSet(String key, String expectedValue, String value) {
+    return new Mutation(Kind.COMPARE_AND_SET, key, value, expectedValue, 0);
+  }
+
+  /**
+   * Method to create a mutation that adds to the number that a key holds. A key that doesn't exist
+   * counts as 0.
+   *
+   * @param key   Key to add to.
+   * @param delta Number to add, which may be negative.
+   * @return The mutation.
+   */
+  public static Mutation increment(String key, long delta) {
+    return new Mutation(Kind.INCREMENT, key, Long.toString(delta), null, 0);
+  }
+
+  /**
+   * Method to create a mutation that appends to the value of a key. A key that doesn't exist is
+   * created with the appended value.
+   *
+   * @param key   Key to append to.
+   * @param value Value to append.
+   * @return The mutation.
+   */
+  public static Mutation append(String key, String value) {
+    return new Mutation(Kind.APPEND, key, value, null, 0);
+  }
+
+  /**
+   * Method to get the kind of change that the mutation makes.
+   *
+   * @return The kind of change.
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Method to get the key that the mutation changes.
+   *
+   * @return The key.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Method to get the new value of the key. For an increment this is the number to add, and for an
+   * append it is the value to append.
+   *
+   * @return The value, or null if the mutation deletes the key.
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Method to get the value that a compare-and-set expects the key to have.
+   *
+   * @return The expected value, or null if the mutation is not a compare-and-set.
+   */
+  public String getExpectedValue() {
+    return expectedValue;
+  }
+
+  /**
+   * Method to get the time at which the key that the mutation puts expires.
+   *
+   * @return Time in milliseconds since the epoch, or 0 if the key never expires.
+   */
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  /**
+   * Method to check whether the mutation deletes the key.
+   *
+   * @return true if the mutation deletes the key, false otherwise.
+   */
+  public boolean isDelete() {
+    return kind == Kind.DELETE;
+  }
+
+  /**
+   * Method to check whether the mutation can be applied without knowing the current value of the
+   * key.
+   *
+   * @return true if the mutation is a put or a delete, false otherwise.
+   */
+  public boolean isResolved() {
+    return kind == Kind.PUT || kind == Kind.DELETE;
+  }
+
+  /**
+   * Method to turn the mutation into one that can be applied without knowing the current value of
+   * the key. A compare-and-set replaces the key like a put, so the key stops expiring, while an
+   * increment or append keeps the time at which the key expires.
+   *
+   * @param currentValue     The current value of the key, or null if the key doesn't exist.
+   * @param currentExpiresAt Time at which the key currently expires, or 0 if it never does.
+   * @return A put or delete that has the same effect, or null if the mutation can't be applied to
+   *         the current value (eg: it is not the expected one, or not a number).
+   */
+  public Mutation resolve(String currentValue, long currentExpiresAt) {
+    switch (kind) {
+      case COMPARE_AND_SET:
+        return Objects.equals(currentValue, expectedValue) ? put(key, value) : null;
+
+      case INCREMENT:
+        try {
+          long current = currentValue == null ? 0 : Long.parseLong(currentValue);
+          return put(key, Long.toString(Math.addExact(current, Long.parseLong(value))),
+                  currentExpiresAt);
+        } catch (NumberFormatException | ArithmeticException e) {
+          return null;
+        }
+
+      case APPEND:
+        return put(key, currentValue == null ? value : currentValue + value, currentExpiresAt);
+
+      default:
+        return this;
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (kind) {
+      case DELETE:
+        return "DELETE " + key;
+
+      case COMPARE_AND_SET:
+        return "CAS " + key + " " + expectedValue + " " + value;
+
+      case INCREMENT:
+        return "INCR " + key + " " + value;
+
+      case APPEND:
+        return "APPEND " + key + " " + value;
+
+      default:
+        return "PUT " + key + " " + value + (expiresAt == 0 ? "" : " until " + expiresAt);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package project3;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helper class that holds the optional cli arguments of a program. Optional arguments come after
+ * all the required ones and are of the form --name=value (or just --name for a flag that is
+ * turned on).
+ */
+public class Options {
+  private final Map<String, String> values;
+
+  private Options() {
+    this.values = new HashMap<>();
+  }
+
+  /**
+   * Method to parse the optional arguments out of the cli arguments of a program.
+   *
+   * @param args       String array for command line arguments passed when running the program.
+   * @param positional Number of required arguments that come before the optional ones.
+   * @return The parsed options.
+   * @throws IllegalArgumentException if an optional argument is not of the form --name=value.
+   */
+  public static Options parse(String[] args, int positional) {
+    Options options = new Options();
+    for (int i = positional; i < args.length; i++) {
+      String arg = args[i];
+      if (!arg.startsWith("--") || arg.length() == 2) {
+        throw new IllegalArgumentException("Invalid option " + arg + ". Must be --name=value.");
+      }
+
+      int separatorIndex = arg.indexOf('=');
+      if (separatorIndex == -1) {
+        options.values.put(arg.substring(2), "true");
+      } else {
+        options.values.put(arg.substring(2, separatorIndex), arg.substring(separatorIndex + 1));
+      }
+    }
+    return options;
+  }
+
+  /**
+   * Method to get the value of an option.
+   *
+   * @param name         Name of the option without the leading --.
+   * @param defaultValue Value to return if the option was not specified.
+   * @return The value of the option.
+   */
+  public String get(String name, String defaultValue) {
+    return values.getOrDefault(name, defaultValue);
+  }
+
+  /**
+   * Method to get the value of an option that has to be a number.
+   *
+   * @param name         Name of the option without the leading --.
+   * @param defaultValue Value to return if the option was not specified.
+   * @return The value of the option.
+   * @throws IllegalArgumentException if the value of the option is not a number.
+   */
+  public long getLong(String name, long defaultValue) {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Option --" + name + " must be a number.");
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package project3;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Class that represents a request from the client as a typed object, so the server can dispatch it
+ * without parsing a String. Keys and values are kept as they are, so unlike the tab separated
+ * format they may contain tabs.
+ */
+public class Request implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final Pattern SEPARATOR = Pattern.compile("\t+");
+
+  private final Operation operation;
+  private final List<String> keys;
+  private final List<String> values;
+
+  /**
+   * Enum of all the operations that a request can ask for.
+   */
+  public enum Operation {
+    GET, PUT, DELETE, MGET, MPUT, MDELETE, STOP, SCAN, PREFIX, CAS, INCR, APPEND
+  }
+
+  /**
+   * Constructor to initialize a request.
+   *
+   * @param operation The operation that the request asks for.
+   * @param keys      The keys that the request deals with.
+   * @param values    The values of the keys, for PUT and MPUT requests, followed by the time to live
+   *                  in seconds for a PUT whose key expires. For a CAS request the new
+   *                  value followed by the expected one, for an INCR request the number to add
+   *                  and for an APPEND request the value to append. Empty otherwise.
+   */
+  public Request(Operation operation, List<String> keys, List<String> values) {
+    this.operation = operation;
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /**
+   * Method to create a GET request.
+   *
+   * @param key Key to retrieve the value of.
+   * @return The request.
+   */
+  public static Request get(String key) {
+    return new Request(Operation.GET, List.of(key), List.of());
+  }
+
+  /**
+   * Method to create a PUT request.
+   *
+   * @param key   Key to insert/replace the value of.
+   * @param value Value of the key.
+   * @return The request.
+   */
+  public static Request put(String key, String value) {
+    return new Request(Operation.PUT, List.of(key), List.of(value));
+  }
+
+  /**
+   * Method to create a DELETE request.
+   *
+   * @param key Key to delete.
+   * @return The request.
+   */
+  public static Request delete(String key) {
+    return new Request(Operation.DELETE, List.of(key), List.of());
+  }
+
+  /**
+   * Method to parse a request from the tab separated format that the client's users type in (eg:
+   * PUT \t key \t value). The regex for the separator is compiled only once.
+   *
+   * @param command The request as a tab separated String.
+   * @return The request.
+   * @throws IllegalArgumentException if the request is not valid.
+   */
+  public static Request parse(String command) {
+    String[] req = SEPARATOR.split(command.trim());
+    Operation operation;
+    try {
+      operation = Operation.valueOf(req[0].toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid request. Must be GET, PUT, DELETE, MGET, MPUT, MDELETE, SCAN, PREFIX, CAS, INCR, APPEND or STOP only.");
+    }
+
+    List<String> args = Arrays.asList(req).subList(1, req.length);
+    switch (operation) {
+      case GET:
+      case DELETE:
+        validateRequest(req, 2);
+        return new Request(operation, List.of(req[1]), List.of());
+
+      case PUT:
+        // the time to live is optional
+        if (req.length != 4) {
+          validateRequest(req, 3);
+          return new Request(operation, List.of(req[1]), List.of(req[2]));
+        }
+        long ttlSeconds;
+        try {
+          ttlSeconds = Long.parseLong(req[3]);
+        } catch (NumberFormatException e) {
+          ttlSeconds = 0;
+        }
+        if (ttlSeconds <= 0) {
+          throw new IllegalArgumentException("Invalid time to live " + req[3] + " with PUT request. Must be a positive number of seconds.");
+        }
+        return new Request(operation, List.of(req[1]), List.of(req[2], req[3]));
+
+      case CAS:
+        validateRequest(req, 4);
+        // the new value comes first, so getValue returns it like for a PUT
+        return new Request(operation, List.of(req[1]), List.of(req[3], req[2]));
+
+      case INCR:
+        // the number to add is optional
+        if (req.length != 3) {
+          validateRequest(req, 2);
+        }
+        String delta = req.length == 3 ? req[2] : "1";
+        try {
+          Long.parseLong(delta);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid number " + delta + " with INCR request.");
+        }
+        return new Request(operation, List.of(req[1]), List.of(delta));
+
+      case APPEND:
+        validateRequest(req, 3);
+        return new Request(operation, List.of(req[1]), List.of(req[2]));
+
+      case SCAN:
+        // the end of the range is optional
+        if (req.length != 3) {
+          validateRequest(req, 2);
+        }
+        return new Request(operation, new ArrayList<>(args), List.of());
+
+      case PREFIX:
+        validateRequest(req, 2);
+        return new Request(operation, List.of(req[1]), List.of());
+
+      case MGET:
+        validateBatchRequest(req, 1);
+        return new Request(operation, new ArrayList<>(args), List.of());
+
+      case MDELETE:
+        validateBatchRequest(req, 1);
+        return new Request(operation, new ArrayList<>(new LinkedHashSet<>(args)), List.of());
+
+      case MPUT:
+        validateBatchRequest(req, 2);
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < args.size(); i += 2) {
+          entries.put(args.get(i), args.get(i + 1));
+        }
+        return new Request(operation, new ArrayList<>(entries.keySet()),
+                new ArrayList<>(entries.values()));
+
+      default:
+        validateRequest(req, 1);
+        return new Request(operation, List.of(), List.of());
+    }
+  }
+
+  /**
+   * Method to get the operation that the request asks for.
+   *
+   * @return The operation.
+   */
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /**
+   * Method to get the key of a request that deals with a single key.
+   *
+   * @return The key.
+   */
+  public String getKey() {
+    return keys.get(0);
+  }
+
+  /**
+   * Method to get the first key of the range that a SCAN or PREFIX request reads.
+   *
+   * @return The first key of the range.
+   */
+  public String getRangeStart() {
+    return keys.get(0);
+  }
+
+  /**
+   * Method to get the end of the range that a SCAN or PREFIX request reads. The range holds the
+   * keys that are smaller than the end.
+   *
+   * @return The end of the range, or null if the range goes on to the last key.
+   */
+  public String getRangeEnd() {
+    if (operation == Operation.PREFIX) {
+      return endOfPrefix(keys.get(0));
+    }
+    return keys.size() > 1 ? keys.get(1) : null;
+  }
+
+  /**
+   * Method to get the smallest key that is greater than every key that starts with a prefix.
+   *
+   * @param prefix The prefix.
+   * @return The key, or null if there is no such key.
+   */
+  public static String endOfPrefix(String prefix) {
+    StringBuilder end = new StringBuilder(prefix);
+    while (end.length() > 0) {
+      char last = end.charAt(end.length() - 1);
+      if (last != Character.MAX_VALUE) {
+        end.setCharAt(end.length() - 1, (char) (last + 1));
+        return end.toString();
+      }
+      end.setLength(end.length() - 1);
+    }
+    return null;
+  }
+
+  /**
+   * Method to get the smallest key that is greater than the given key, which is where the next
+   * page of a scan starts after a page that ended with the given key.
+   *
+   * @param key The key.
+   * @return The next key.
+   */
+  public static String nextKey(String key) {
+    return key + '\0';
+  }
+
+  /**
+   * Method to get the value of a PUT, CAS or APPEND request, or the number to add of an INCR
+   * request.
+   *
+   * @return The value.
+   */
+  public String getValue() {
+    return values.get(0);
+  }
+
+  /**
+   * Method to get the number of seconds after which the key of a PUT request expires.
+   *
+   * @return The time to live in seconds, or 0 if the key never expires.
+   */
+  public long getTtlSeconds() {
+    return operation == Operation.PUT && values.size() > 1 ? Long.parseLong(values.get(1)) : 0;
+  }
+
+  /**
+   * Method to get the value that a CAS request expects the key to have.
+   *
+   * @return The expected value.
+   */
+  public String getExpectedValue() {
+    return values.get(1);
+  }
+
+  /**
+   * Method to get all the keys that the request deals with.
+   *
+   * @return The keys.
+   */
+  public List<String> getKeys() {
+    return Collections.unmodifiableList(keys);
+  }
+
+  /**
+   * Method to get all the values of a PUT or MPUT request, in the same order as the keys.
+   *
+   * @return The values.
+   */
+  public List<String> getValues() {
+    return Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Method to get the key-value pairs of an MPUT request.
+   *
+   * @return The key-value pairs in the order of the keys.
+   */
+  public Map<String, String> getEntries() {
+    Map<String, String> entries = new LinkedHashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      entries.put(keys.get(i), values.get(i));
+    }
+    return entries;
+  }
+
+  @Override
+  public String toString() {
+    return operation + " " + keys + (values.isEmpty() ? "" : " " + values);
+  }
+
+  private static void validateRequest(String[] req, int len) {
+    if (req.length != len) {
+      String msg = "Invalid number of arguments with " + req[0] + " request. Must be exactly " + (len - 1);
+      throw new IllegalArgumentException(msg);
+    }
+  }
+
+  private static void validateBatchRequest(String[] req, int argsPerKey) {
+    int len = req.length - 1;
+    if (len == 0 || len % argsPerKey != 0) {
+      String msg = "Invalid number of arguments with " + req[0] + " request. Must be a non-zero multiple of " + argsPerKey;
+      throw new IllegalArgumentException(msg);
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package project3;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper class that encodes requests and responses in a compact binary format, so they can be sent
+ * over a plain socket without Java serialization. A request is one byte for the operation followed
+ * by the keys and the values, and a response is one byte for success followed by the text and the
+ * values. Every list starts with its size as an int and every String is its length in UTF-8 bytes
+ * as an int (-1 for null) followed by the bytes, so nothing is ever split on a separator.
+ */
+public class RequestCodec {
+  private static final Request.Operation[] OPERATIONS = Request.Operation.values();
+
+  /**
+   * Method to get the number of bytes that a request takes up once it is encoded.
+   *
+   * @param request The request.
+   * @return The number of bytes.
+   */
+  public static int sizeOf(Request request) {
+    return 1 + sizeOf(request.getKeys()) + sizeOf(request.getValues());
+  }
+
+  /**
+   * Method to encode a request into a buffer.
+   *
+   * @param request The request.
+   * @param buffer  The buffer to write to. It must have at least sizeOf(request) bytes remaining.
+   */
+  public static void encode(Request request, ByteBuffer buffer) {
+    buffer.put((byte) request.getOperation().ordinal());
+    putStrings(buffer, request.getKeys());
+    putStrings(buffer, request.getValues());
+  }
+
+  /**
+   * Method to decode a request from a buffer.
+   *
+   * @param buffer The buffer to read from.
+   * @return The request.
+   * @throws IllegalArgumentException if the buffer doesn't hold a valid request.
+   */
+  public static Request decode(ByteBuffer buffer) {
+    try {
+      int operation = buffer.get();
+      if (operation < 0 || operation >= OPERATIONS.length) {
+        throw new IllegalArgumentException("Unknown operation " + operation);
+      }
+      return new Request(OPERATIONS[operation], getStrings(buffer), getStrings(buffer));
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated request");
+    }
+  }
+
+  /**
+   * Method to get the number of bytes that a response takes up once it is encoded.
+   *
+   * @param response The response.
+   * @return The number of bytes.
+   */
+  public static int sizeOf(Response response) {
+    int size = 1 + sizeOf(response.getText()) + Integer.BYTES;
+    for (Map.Entry<String, String> entry : response.getValues().entrySet()) {
+      size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+    }
+    return size;
+  }
+
+  /**
+   * Method to encode a response into a buffer.
+   *
+   * @param response The response.
+   * @param buffer   The buffer to write to. It must have at least sizeOf(response) bytes
+   *                 remaining.
+   */
+  public static void encode(Response response, ByteBuffer buffer) {
+    buffer.put((byte) (response.isSuccess() ? 1 : 0));
+    putString(buffer, response.getText());
+    buffer.putInt(response.getValues().size());
+    for (Map.Entry<String, String> entry : response.getValues().entrySet()) {
+      putString(buffer, entry.getKey());
+      putString(buffer, entry.getValue());
+    }
+  }
+
+  /**
+   * Method to decode a response from a buffer.
+   *
+   * @param buffer The buffer to read from.
+   * @return The response.
+   * @throws IllegalArgumentException if the buffer doesn't hold a valid response.
+   */
+  public static Response decodeResponse(ByteBuffer buffer) {
+    try {
+      boolean success = buffer.get() == 1;
+      String text = getString(buffer);
+      int count = buffer.getInt();
+      Map<String, String> values = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        values.put(getString(buffer), getString(buffer));
+      }
+      return new Response(success, text, values);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated response");
+    }
+  }
+
+  private static int sizeOf(List<String> strings) {
+    int size = Integer.BYTES;
+    for (String s : strings) {
+      size += sizeOf(s);
+    }
+    return size;
+  }
+
+  /**
+   * Method to get the number of bytes that a String takes up once it is encoded.
+   *
+   * @param s The String, which may be null.
+   * @return The number of bytes.
+   */
+  public static int sizeOf(String s) {
+    return Integer.BYTES + (s == null ? 0 : utf8Length(s));
+  }
+
+  private static int utf8Length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+              && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static void putStrings(ByteBuffer buffer, List<String> strings) {
+    buffer.putInt(strings.size());
+    for (String s : strings) {
+      putString(buffer, s);
+    }
+  }
+
+  private static List<String> getStrings(ByteBuffer buffer) {
+    int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / Integer.BYTES) {
+      throw new IllegalArgumentException("Invalid number of strings " + count);
+    }
+    List<String> strings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(getString(buffer));
+    }
+    return strings;
+  }
+
+  /**
+   * Method to encode a String into a buffer as its length in UTF-8 bytes followed by the bytes.
+   *
+   * @param buffer The buffer to write to.
+   * @param s      The String, which may be null.
+   */
+  public static void putString(ByteBuffer buffer, String s) {
+    if (s == null) {
+      buffer.putInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  /**
+   * Method to decode a String from a buffer.
+   *
+   * @param buffer The buffer to read from.
+   * @return The String, which may be null.
+   * @throws IllegalArgumentException if the buffer doesn't hold a valid String.
+   */
+  public static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid string length " + length);
+    }
+    String s;
+    if (buffer.hasArray()) {
+      s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+              StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      s = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return s;
+  }
+}
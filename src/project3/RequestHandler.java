@@ -3,8 +3,11 @@ package project3;
 import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
 
 import project3.server.Coordinator;
+import project3.server.Vote;
 
 /**
  * Interface that holds the common methods that can be performed by the server. Implementations of
@@ -14,19 +17,35 @@ import project3.server.Coordinator;
  */
 public interface RequestHandler extends Remote {
   /**
-   * Method that is used to set the coordinator for a server. Each put/delete request is completed
-   * only if the coordinator is successful in completing the 2 phase commit protocol.
+   * Method that is used to set the coordinators for a server. Each put/delete request is completed
+   * only if a coordinator is successful in completing the 2 phase commit protocol. Every key has
+   * its own coordinator, and the next coordinator takes over the key if that one can't be reached.
    *
-   * @param coordinator The coordinator object that is used to perform the 2 phase commit protocol.
+   * @param coordinators The coordinators that are used to perform the 2 phase commit protocol, by
+   *                     their unique names.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  void setCoordinator(Coordinator coordinator) throws RemoteException;
+  void setCoordinators(Map<String, Coordinator> coordinators) throws RemoteException;
 
   /**
-   * Method that is the gateway for all GET, PUT, DELETE or disconnect requests. All requests are
-   * taken in the parameter as a tab separated string and depending on the request type retrieved
-   * from the content of the string, it is processed differently.
+   * Method that is called by the coordinator whenever a participant is added. The server uses the
+   * participants to work out which keys it stores itself and which participants to ask for the
+   * keys that it doesn't store.
+   *
+   * @param members           All participants by their unique names.
+   * @param replicationFactor Number of participants that each key is stored on.
+   * @throws RemoteException in case of any errors while interaction between the server/client
+   *                         and/or any read-write problems.
+   */
+  void setMembers(Map<String, RequestHandler> members, int replicationFactor)
+          throws RemoteException;
+
+  /**
+   * Method that is the gateway for all GET, PUT, DELETE, MGET, MPUT, MDELETE, SCAN, PREFIX, CAS,
+   * INCR, APPEND or disconnect requests. All requests are taken in the parameter as a tab separated
+   * string and depending on the request type retrieved from the content of the string, it is
+   * processed differently.
    *
    * @param command The request as a tab separated String.
    * @return The response that is sent to the client as a String.
@@ -38,27 +57,60 @@ public interface RequestHandler extends Remote {
   String handleRequest(String command) throws IOException, InterruptedException;
 
   /**
-   * Method that is called by the coordinator for each server to ask whether it is ready to carry
-   * out the transaction or not.
+   * Method that is the gateway for typed requests. It does the same as handleRequest but the
+   * request is already parsed, so the server only has to dispatch it on its operation. Errors are
+   * sent back in the response instead of being thrown.
+   *
+   * @param request The request.
+   * @return The response that is sent to the client.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  Response handle(Request request) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is called by the coordinator for each server in the prepare phase of a
+   * transaction. The server stages the mutations without applying them and locks their keys so
+   * that no other transaction can change them until the coordinator sends its decision. Either all
+   * the mutations are staged or none of them are.
    *
-   * @return true if it is ready, false if it is busy (most likely with an ongoing transaction).
+   * @param transactionId The id of the transaction.
+   * @param mutations     The mutations that the transaction carries out.
+   * @return YES if it is ready to commit. CONFLICT if a key is locked by another ongoing
+   *         transaction, so that the transaction may succeed if it is tried again. REJECTED if the
+   *         transaction can't be carried out, for example because the current value of a key
+   *         doesn't allow a conditional change.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  boolean askPrepare() throws RemoteException;
+  Vote askPrepare(long transactionId, List<Mutation> mutations) throws RemoteException;
 
   /**
-   * Method that is called by the coordinator for each server to ask whether it is ready to commit
-   * the transaction or not.
+   * Method that is called by the coordinator for each server once all servers are prepared. The
+   * server applies the staged mutations of the transaction and unlocks their keys. A commit that
+   * is sent again after the server has applied it is acknowledged without doing anything.
    *
-   * @return true if it wants to commit, false if it wants to abort the transaction.
+   * @param transactionId The id of the transaction.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  boolean askCommit() throws RemoteException;
+  void commit(long transactionId) throws RemoteException;
 
   /**
-   * Method that is responsible for handling the GET request from the client.
+   * Method that is called by the coordinator for each server if any server failed to prepare. The
+   * server discards the staged mutations of the transaction and unlocks their keys.
+   *
+   * @param transactionId The id of the transaction.
+   * @throws RemoteException in case of any errors while interaction between the server/client
+   *                         and/or any read-write problems.
+   */
+  void abort(long transactionId) throws RemoteException;
+
+  /**
+   * Method that is responsible for handling the GET request from the client. If the key is not
+   * stored on this server, it is read from one of the servers that store it.
    *
    * @param key Key to retrieve the value of from the hashmap.
    * @return The value of the key in the hashmap.
@@ -68,46 +120,208 @@ public interface RequestHandler extends Remote {
   String get(String key) throws RemoteException;
 
   /**
-   * Method that is responsible for handling the PUT request from the client.
+   * Method that is responsible for handling the MGET request from the client. It gets the values
+   * of many keys in one call. Keys that are not stored on this server are read from the servers
+   * that store them.
    *
-   * @param key   Key to insert/replace the value of in the hashmap.
-   * @param value Value of the key to be stored in the hashmap.
+   * @param keys Keys to retrieve the values of from the hashmap.
+   * @return The values of the keys that exist, in the order of the keys.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  void put(String key, String value) throws RemoteException;
+  Map<String, String> getAll(List<String> keys) throws RemoteException;
 
   /**
-   * Method that is responsible for handling the Delete request from the client.
+   * Method that gets the values of keys from this server's own store only. It is called by other
+   * servers for the keys that this server stores, and is never passed on to another server.
    *
-   * @param key Key to delete from the hashmap.
+   * @param keys Keys to retrieve the values of from the hashmap.
+   * @return The values of the keys that exist, in the order of the keys.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  void delete(String key) throws RemoteException;
+  Map<String, String> getLocal(List<String> keys) throws RemoteException;
 
   /**
-   * Method that checks whether the current server is busy or not.
+   * Method that is responsible for handling the SCAN and PREFIX requests from the client. It gets
+   * one page of the keys in a range, in the order of the keys. Keys that are not stored on this
+   * server are read from the servers that store them.
    *
-   * @return true if it is busy, false if it is idle.
+   * @param start First key of the range.
+   * @param end   End of the range, which holds the keys that are smaller than it, or null if the
+   *              range goes on to the last key.
+   * @param limit Maximum number of keys in the page.
+   * @return The values of the smallest keys in the range, in the order of the keys.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  boolean isBusy() throws RemoteException;
+  Map<String, String> scan(String start, String end, int limit) throws RemoteException;
 
   /**
-   * Method that is called by the coordinator to set the state of the server to idle.
+   * Method that gets one page of the keys in a range from this server's own store only. It is
+   * called by other servers, and is never passed on to another server.
    *
+   * @param start First key of the range.
+   * @param end   End of the range, which holds the keys that are smaller than it, or null if the
+   *              range goes on to the last key.
+   * @param limit Maximum number of keys in the page.
+   * @return The values of the smallest keys in the range, in the order of the keys.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  void setIdleState() throws RemoteException;
+  Map<String, String> scanLocal(String start, String end, int limit) throws RemoteException;
 
   /**
-   * Method that is called by the coordinator to set the state of the server to busy.
+   * Method that is called by a participant that is catching up, to copy the committed values of
+   * the keys that it stores from this server. The values are sent in chunks, and each call of a
+   * transfer continues where the previous one stopped.
    *
+   * @param transferId Id of the transfer, chosen by the caller. A new id starts a new transfer.
+   * @param receiver   Name of the participant that is catching up. Only the keys that both
+   *                   servers store are sent.
+   * @param maxBytes   Rough maximum size of the chunk in bytes.
+   * @return The next key-value pairs as PUT mutations, which also carry the times at which the
+   *         keys expire, or an empty list once all of them have been sent.
+   * @throws RemoteException in case of any errors while interaction between the servers, or if
+   *                         this server is catching up itself.
+   */
+  List<Mutation> getTransferChunk(long transferId, String receiver, int maxBytes)
+          throws RemoteException;
+
+  /**
+   * Method that is called by a client that caches the values it reads, so that it is told about
+   * every key that is committed from now on. The client is registered on this server and on all
+   * the other participants, since a key is only committed on the participants that store it. The
+   * subscription is a lease that the client renews by calling this method again before it runs out.
+   *
+   * @param name     Unique name of the client.
+   * @param listener The client's cache, which is told about the committed keys.
+   * @return true if all the participants had the client subscribed the whole time since it last
+   *         subscribed. false if the client is new to any of them, any of them had dropped it or
+   *         any of them can't be reached, in which case the client may have missed keys and has to
+   *         drop all the values it caches.
    * @throws RemoteException in case of any errors while interaction between the server/client
    *                         and/or any read-write problems.
    */
-  void setBusyState() throws RemoteException;
+  boolean subscribe(String name, CacheListener listener) throws RemoteException;
+
+  /**
+   * Method that registers clients that cache values on this server only. It is called by other
+   * servers to pass on the clients that subscribed with them, and is never passed on further.
+   *
+   * @param listeners The clients' caches by their unique names.
+   * @return true if all the clients were already subscribed with this server, false otherwise.
+   * @throws RemoteException in case of any errors while interaction between the servers.
+   */
+  boolean subscribeLocal(Map<String, CacheListener> listeners) throws RemoteException;
+
+  /**
+   * Method that is responsible for handling the PUT request from the client. The key-value pair is
+   * stored on all servers using the 2 phase commit protocol.
+   *
+   * @param key   Key to insert/replace the value of in the hashmap.
+   * @param value Value of the key to be stored in the hashmap.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void put(String key, String value) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the PUT request from the client when it gives the key
+   * a time to live. The key-value pair is stored on all servers using the 2 phase commit protocol,
+   * and each of them removes the key on its own once the time has passed.
+   *
+   * @param key        Key to insert/replace the value of in the hashmap.
+   * @param value      Value of the key to be stored in the hashmap.
+   * @param ttlSeconds Number of seconds after which the key expires.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void put(String key, String value, long ttlSeconds) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the CAS request from the client. The new value is
+   * stored only if the key currently has the expected value, which every server that stores the
+   * key checks when it prepares, so no other write can come in between.
+   *
+   * @param key           Key to replace the value of in the hashmap.
+   * @param expectedValue Value that the key must have.
+   * @param value         New value of the key.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void compareAndSet(String key, String expectedValue, String value)
+          throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the INCR request from the client. The number that the
+   * key holds is added to by every server that stores the key when it prepares, so concurrent
+   * increments are never lost. A key that doesn't exist counts as 0.
+   *
+   * @param key   Key whose number to add to in the hashmap.
+   * @param delta Number to add, which may be negative.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void increment(String key, long delta) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the APPEND request from the client. The value is
+   * appended to the key's current value by every server that stores the key when it prepares. A
+   * key that doesn't exist is created with the value.
+   *
+   * @param key   Key to append to in the hashmap.
+   * @param value Value to append.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void append(String key, String value) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the MPUT request from the client. All the key-value
+   * pairs are stored on all servers in a single run of the 2 phase commit protocol, so either all
+   * of them are stored or none of them are.
+   *
+   * @param entries Key-value pairs to insert/replace in the hashmap.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void putAll(Map<String, String> entries) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the Delete request from the client. The key is deleted
+   * from all servers using the 2 phase commit protocol.
+   *
+   * @param key Key to delete from the hashmap.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void delete(String key) throws RemoteException, InterruptedException;
+
+  /**
+   * Method that is responsible for handling the MDELETE request from the client. All the keys are
+   * deleted from all servers in a single run of the 2 phase commit protocol, so either all of them
+   * are deleted or none of them are.
+   *
+   * @param keys Keys to delete from the hashmap.
+   * @throws RemoteException      in case of any errors while interaction between the server/client
+   *                              and/or any read-write problems.
+   * @throws InterruptedException in case the thread is interrupted while waiting for the
+   *                              transaction to finish.
+   */
+  void deleteAll(List<String> keys) throws RemoteException, InterruptedException;
 }
@@ -0,0 +1,94 @@
+package project3;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Class that represents the response of the server to a typed request. A successful response holds
+ * the text that is shown to the client and, for MGET requests, the values of the keys. A failed
+ * response holds the error message instead of throwing it back to the client.
+ */
+public class Response implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final boolean success;
+  private final String text;
+  private final Map<String, String> values;
+
+  /**
+   * Constructor to initialize a response.
+   *
+   * @param success true if the request was successful, false if it failed.
+   * @param text    The text of the response, or the error message if the request failed.
+   * @param values  The values of the keys for MGET requests. Empty otherwise.
+   */
+  public Response(boolean success, String text, Map<String, String> values) {
+    this.success = success;
+    this.text = text;
+    this.values = values;
+  }
+
+  /**
+   * Method to create a successful response.
+   *
+   * @param text The text of the response.
+   * @return The response.
+   */
+  public static Response success(String text) {
+    return new Response(true, text, Map.of());
+  }
+
+  /**
+   * Method to create a successful response to an MGET request. The text only says how many keys
+   * were found, since the values are already in the response.
+   *
+   * @param values The values of the keys that exist.
+   * @return The response.
+   */
+  public static Response success(Map<String, String> values) {
+    return new Response(true, "Found " + values.size() + " keys", values);
+  }
+
+  /**
+   * Method to create a failed response.
+   *
+   * @param error The error message.
+   * @return The response.
+   */
+  public static Response failure(String error) {
+    return new Response(false, error, Map.of());
+  }
+
+  /**
+   * Method to check if the request was successful.
+   *
+   * @return true if it was successful, false if it failed.
+   */
+  public boolean isSuccess() {
+    return success;
+  }
+
+  /**
+   * Method to get the text of the response, or the error message if the request failed.
+   *
+   * @return The text.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Method to get the values of the keys for MGET requests.
+   *
+   * @return The values of the keys that exist, in the order of the keys.
+   */
+  public Map<String, String> getValues() {
+    return Collections.unmodifiableMap(values);
+  }
+
+  @Override
+  public String toString() {
+    return (success ? "" : "ERROR: ") + text;
+  }
+}
@@ -0,0 +1,382 @@
+package project3.client;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project3.Request;
+import project3.RequestHandler;
+import project3.Response;
+
+/**
+ * Class that lets an application send requests to a server without waiting for each response
+ * before sending the next request. Every method returns straight away with a future that is
+ * completed once the server has responded.
+ *
+ * <p>Up to a configured number of calls to the server are in progress at the same time
+ * (pipelining). Requests that are waiting for a free call are coalesced: consecutive GETs are sent
+ * as one MGET, and consecutive PUTs without a time to live or DELETEs on different keys as one MPUT
+ * or MDELETE. If the server rejects a coalesced write as invalid, for example because one of the
+ * keys to delete doesn't exist, or fails a coalesced read, its requests are sent again one at a
+ * time so that each request gets its own response. Any other failure fails all the requests of the
+ * call. Requests on a key are never in progress at the same time as a write to that same key, so
+ * a client always reads its own writes.
+ */
+public class AsyncClient implements AutoCloseable {
+  private final RequestHandler server;
+  private final int maxInFlight;
+  private final int maxBatchSize;
+  private final Deque<Operation> queue;
+  private final Set<String> keysBeingWritten;
+  private final ExecutorService executor;
+  private final Thread dispatcher;
+  private int inFlight;
+  private boolean closed;
+
+  private static class Operation {
+    private final Request request;
+    private final CompletableFuture<Response> result;
+
+    private Operation(Request request) {
+      this.request = request;
+      this.result = new CompletableFuture<>();
+    }
+
+    private Request.Operation getType() {
+      return request.getOperation();
+    }
+
+    private boolean isWrite() {
+      switch (request.getOperation()) {
+        case PUT:
+        case DELETE:
+        case MPUT:
+        case MDELETE:
+        case CAS:
+        case INCR:
+        case APPEND:
+          return true;
+
+        default:
+          return false;
+      }
+    }
+
+    private boolean canBeCoalesced() {
+      switch (request.getOperation()) {
+        case GET:
+        case DELETE:
+          return true;
+
+        case PUT:
+          return request.getTtlSeconds() == 0;
+
+        default:
+          return false;
+      }
+    }
+
+    private List<String> getKeys() {
+      // the keys of a SCAN or PREFIX are the ends of a range and STOP has none
+      switch (request.getOperation()) {
+        case SCAN:
+        case PREFIX:
+        case STOP:
+          return List.of();
+
+        default:
+          return request.getKeys();
+      }
+    }
+  }
+
+  /**
+   * Constructor to initialize the client for a server.
+   *
+   * @param server       The server to send requests to.
+   * @param maxInFlight  Maximum number of calls to the server that can be in progress at the same
+   *                     time.
+   * @param maxBatchSize Maximum number of requests that are coalesced into one call.
+   */
+  public AsyncClient(RequestHandler server, int maxInFlight, int maxBatchSize) {
+    if (maxInFlight < 1 || maxBatchSize < 1) {
+      throw new IllegalArgumentException("Calls in flight and batch size must be at least 1.");
+    }
+    this.server = server;
+    this.maxInFlight = maxInFlight;
+    this.maxBatchSize = maxBatchSize;
+    this.queue = new ArrayDeque<>();
+    this.keysBeingWritten = new HashSet<>();
+
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+      Thread thread = new Thread(runnable, "async-client-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.dispatcher = new Thread(this::dispatchLoop, "async-client-dispatcher");
+    this.dispatcher.setDaemon(true);
+    this.dispatcher.start();
+  }
+
+  /**
+   * Method that sends a GET request.
+   *
+   * @param key Key to retrieve the value of.
+   * @return Future that is completed with the value of the key, or completed exceptionally if the
+   *         key doesn't exist or the request failed.
+   */
+  public CompletableFuture<String> get(String key) {
+    return getText(send(Request.get(key)));
+  }
+
+  /**
+   * Method that sends a PUT request.
+   *
+   * @param key   Key to insert/replace the value of.
+   * @param value Value of the key.
+   * @return Future that is completed once the value is stored, or completed exceptionally if the
+   *         request failed.
+   */
+  public CompletableFuture<Void> put(String key, String value) {
+    return getText(send(Request.put(key, value))).thenApply(text -> null);
+  }
+
+  /**
+   * Method that sends a DELETE request.
+   *
+   * @param key Key to delete.
+   * @return Future that is completed once the key is deleted, or completed exceptionally if the key
+   *         doesn't exist or the request failed.
+   */
+  public CompletableFuture<Void> delete(String key) {
+    return getText(send(Request.delete(key))).thenApply(text -> null);
+  }
+
+  /**
+   * Method that sends any typed request, for example one that was parsed with
+   * {@link Request#parse(String)}. GET, DELETE and PUT requests without a time to live are
+   * coalesced with their neighbours, while all other requests are pipelined on their own.
+   *
+   * @param request The request.
+   * @return Future that is completed with the response of the server, which may be a failure, or
+   *         completed exceptionally if the server could not be reached.
+   */
+  public CompletableFuture<Response> send(Request request) {
+    Operation operation = new Operation(request);
+    synchronized (queue) {
+      if (closed) {
+        operation.result.completeExceptionally(new IllegalStateException("Client is closed."));
+      } else {
+        queue.addLast(operation);
+        queue.notifyAll();
+      }
+    }
+    return operation.result;
+  }
+
+  /**
+   * Method that stops the client. Requests that are still waiting are failed.
+   */
+  @Override
+  public void close() {
+    synchronized (queue) {
+      closed = true;
+      for (Operation operation : queue) {
+        operation.result.completeExceptionally(new IllegalStateException("Client is closed."));
+      }
+      queue.clear();
+      queue.notifyAll();
+    }
+    executor.shutdown();
+  }
+
+  private static CompletableFuture<String> getText(CompletableFuture<Response> response) {
+    return response.thenCompose(res -> res.isSuccess()
+            ? CompletableFuture.completedFuture(res.getText())
+            : CompletableFuture.failedFuture(new RuntimeException(res.getText())));
+  }
+
+  private void dispatchLoop() {
+    while (true) {
+      List<Operation> batch;
+      synchronized (queue) {
+        try {
+          while (!closed && !canDispatch(queue.peekFirst())) {
+            queue.wait();
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (closed) {
+          return;
+        }
+        batch = takeBatch();
+        inFlight++;
+      }
+      executor.execute(() -> run(batch));
+    }
+  }
+
+  private boolean canDispatch(Operation head) {
+    if (head == null || inFlight >= maxInFlight) {
+      return false;
+    }
+    for (String key : head.getKeys()) {
+      if (keysBeingWritten.contains(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private List<Operation> takeBatch() {
+    List<Operation> batch = new ArrayList<>();
+    Operation head = queue.pollFirst();
+    batch.add(head);
+    Set<String> keys = new HashSet<>(head.getKeys());
+
+    while (head.canBeCoalesced() && batch.size() < maxBatchSize) {
+      Operation next = queue.peekFirst();
+      if (next == null || next.getType() != head.getType() || !next.canBeCoalesced()
+              || keysBeingWritten.contains(next.request.getKey())) {
+        break;
+      }
+      // a write batch is applied atomically, so it can't change the same key twice
+      if (head.isWrite() && !keys.add(next.request.getKey())) {
+        break;
+      }
+      batch.add(queue.pollFirst());
+    }
+
+    for (Operation operation : batch) {
+      if (operation.isWrite()) {
+        keysBeingWritten.addAll(operation.getKeys());
+      }
+    }
+    return batch;
+  }
+
+  private void run(List<Operation> batch) {
+    try {
+      if (batch.size() == 1) {
+        runSingle(batch.get(0));
+      } else if (batch.get(0).getType() == Request.Operation.GET) {
+        runGets(batch);
+      } else {
+        runWrites(batch);
+      }
+    } finally {
+      synchronized (queue) {
+        inFlight--;
+        for (Operation operation : batch) {
+          if (operation.isWrite()) {
+            keysBeingWritten.removeAll(operation.getKeys());
+          }
+        }
+        queue.notifyAll();
+      }
+    }
+  }
+
+  private void runSingle(Operation operation) {
+    try {
+      operation.result.complete(server.handle(operation.request));
+    } catch (RemoteException | RuntimeException e) {
+      operation.result.completeExceptionally(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      operation.result.completeExceptionally(e);
+    }
+  }
+
+  private void runGets(List<Operation> batch) {
+    List<String> keys = new ArrayList<>();
+    for (Operation operation : batch) {
+      keys.add(operation.request.getKey());
+    }
+
+    Map<String, String> values;
+    try {
+      values = server.getAll(keys);
+    } catch (RemoteException e) {
+      fail(batch, e);
+      return;
+    } catch (RuntimeException e) {
+      // like for writes, each request is sent alone so that it gets its own response
+      for (Operation operation : batch) {
+        runSingle(operation);
+      }
+      return;
+    }
+
+    for (Operation operation : batch) {
+      String value = values.get(operation.request.getKey());
+      if (value == null) {
+        operation.result.complete(Response.failure("Can't get key that doesn't exist"));
+      } else {
+        operation.result.complete(Response.success(value));
+      }
+    }
+  }
+
+  private void runWrites(List<Operation> batch) {
+    Response res;
+    try {
+      if (batch.get(0).getType() == Request.Operation.PUT) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (Operation operation : batch) {
+          entries.put(operation.request.getKey(), operation.request.getValue());
+        }
+        server.putAll(entries);
+        res = Response.success("Put successful");
+      } else {
+        List<String> keys = new ArrayList<>();
+        for (Operation operation : batch) {
+          keys.add(operation.request.getKey());
+        }
+        server.deleteAll(keys);
+        res = Response.success("Delete successful");
+      }
+    } catch (IllegalArgumentException e) {
+      // the server found a request that is invalid on its own and changed nothing, so each request
+      // is sent alone to find out which ones are invalid
+      for (Operation operation : batch) {
+        runSingle(operation);
+      }
+      return;
+    } catch (RuntimeException e) {
+      res = Response.failure(e.getMessage());
+    } catch (RemoteException e) {
+      fail(batch, e);
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      fail(batch, e);
+      return;
+    }
+    respond(batch, res);
+  }
+
+  private static void respond(List<Operation> batch, Response res) {
+    for (Operation operation : batch) {
+      operation.result.complete(res);
+    }
+  }
+
+  private static void fail(List<Operation> batch, Exception e) {
+    for (Operation operation : batch) {
+      operation.result.completeExceptionally(e);
+    }
+  }
+}
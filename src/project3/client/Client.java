@@ -3,22 +3,37 @@ package project3.client;
 import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import project3.CacheListener;
 import project3.Logger;
+import project3.Options;
+import project3.Request;
 import project3.RequestHandler;
+import project3.Response;
+import project3.transport.Transport;
 
 /**
  * Class that represents a client in the Remote Method Invocation simulation. This is where all
  * users connect to the servers and send requests which send back a response.
  */
 public class Client {
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  // often enough that a renewal that fails is tried again before the lease runs out
+  private static final long LEASE_RENEWAL_MILLIS = CacheListener.LEASE_MILLIS / 3;
+
   private final Scanner sc;
   private final List<RequestHandler> serversList;
+  private ClientCache cache;
+  private ReplicaRouter router;
+  private int pageSize;
 
   /**
    * Constructor to initialize the scanner object for user input. Also, to initialize the list of
@@ -27,6 +42,107 @@ public class Client {
   public Client() {
     this.sc = new Scanner(System.in);
     this.serversList = new ArrayList<>();
+    this.pageSize = DEFAULT_PAGE_SIZE;
+  }
+
+  private Response send(RequestHandler server, Request request)
+          throws RemoteException, InterruptedException {
+    if (cache == null) {
+      return this.route(server, request);
+    }
+
+    switch (request.getOperation()) {
+      case GET:
+        String key = request.getKey();
+        String value = cache.get(key);
+        if (value != null) {
+          return Response.success(value);
+        }
+        long read = cache.beginRead(key);
+        Response res = this.route(server, request);
+        if (res.isSuccess()) {
+          cache.endRead(key, read, res.getText());
+        } else {
+          cache.invalidate(List.of(key));
+        }
+        return res;
+
+      case PUT:
+      case DELETE:
+      case MPUT:
+      case MDELETE:
+      case CAS:
+      case INCR:
+      case APPEND:
+        // the participants tell the cache about the commit too, but maybe only after this client
+        // has read the key again
+        try {
+          return server.handle(request);
+        } finally {
+          cache.invalidate(request.getKeys());
+        }
+
+      default:
+        return this.route(server, request);
+    }
+  }
+
+  private void renewSubscription(String name, CacheListener listener) {
+    long startedNanos = System.nanoTime();
+    // any server passes the subscription on to the others, so the next one is tried if one is down
+    for (RequestHandler server : serversList) {
+      try {
+        cache.renew(startedNanos, server.subscribe(name, listener));
+        return;
+      } catch (RemoteException | RuntimeException e) {
+        // tried on the next server
+      }
+    }
+    Logger.showError("Failed to renew the cache subscription. Cached values are not used until it "
+            + "is renewed.");
+  }
+
+  private void startRenewingSubscription(CacheListener listener) {
+    String name = UUID.randomUUID().toString();
+    this.renewSubscription(name, listener);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "cache-lease");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> this.renewSubscription(name, listener),
+            LEASE_RENEWAL_MILLIS, LEASE_RENEWAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private Response route(RequestHandler server, Request request)
+          throws RemoteException, InterruptedException {
+    // any participant can serve a read, so only writes have to go to the server that was typed
+    boolean isRead = request.getOperation() == Request.Operation.GET
+            || request.getOperation() == Request.Operation.MGET;
+    if (router != null && isRead) {
+      return router.handle(request);
+    }
+    return server.handle(request);
+  }
+
+  private void scan(RequestHandler server, Request request) throws RemoteException {
+    // the keys are shown a page at a time, so a large range never has to be held all at once
+    String start = request.getRangeStart();
+    String end = request.getRangeEnd();
+    int count = 0;
+    while (start != null) {
+      Map<String, String> page = server.scan(start, end, pageSize);
+      count += page.size();
+      if (!page.isEmpty()) {
+        Logger.showResponse(page.toString());
+      }
+      start = null;
+      if (page.size() == pageSize) {
+        List<String> keys = new ArrayList<>(page.keySet());
+        start = Request.nextKey(keys.get(keys.size() - 1));
+      }
+    }
+    Logger.showResponse("Scan found " + count + " keys");
   }
 
   private void start() {
@@ -34,8 +150,16 @@ public class Client {
     Logger.showInfo(
             "\nAll valid request formats:\n\n" +
                     "server_i GET x\n" +
-                    "server_i PUT x y\n" +
+                    "server_i PUT x y [ttl]\n" +
                     "server_i DELETE x\n" +
+                    "server_i MGET x1 x2 ...\n" +
+                    "server_i MPUT x1 y1 x2 y2 ...\n" +
+                    "server_i MDELETE x1 x2 ...\n" +
+                    "server_i CAS x expected y\n" +
+                    "server_i INCR x [n]\n" +
+                    "server_i APPEND x y\n" +
+                    "server_i SCAN start [end]\n" +
+                    "server_i PREFIX p\n" +
                     "STOP\n\n" +
                     "Requests are tab separated. eg : server_3 \\t PUT \\t This is the key \\t This is the value\n");
     while (true) {
@@ -48,24 +172,51 @@ public class Client {
 
         int serverNumber = 1;
         if (!command.trim().equalsIgnoreCase("stop")) {
-          int serverNumberEndIndex = command.indexOf("\t", 8);
+          int serverNumberEndIndex = command.indexOf('\t', 8);
           String serverNumberString = command.substring(7, serverNumberEndIndex).trim();
           serverNumber = Integer.parseInt(serverNumberString);
-          command = command.substring(serverNumberEndIndex + 1).trim();
+          command = command.substring(serverNumberEndIndex + 1);
         }
 
-        String res = this.serversList.get(serverNumber - 1).handleRequest(command);
-        Logger.showResponse(res);
+        // the request is parsed here once, so the server only has to dispatch it
+        Request request = Request.parse(command);
+        if (request.getOperation() == Request.Operation.SCAN
+                || request.getOperation() == Request.Operation.PREFIX) {
+          this.scan(this.serversList.get(serverNumber - 1), request);
+          continue;
+        }
+        Response res = this.send(this.serversList.get(serverNumber - 1), request);
+        if (res.isSuccess()) {
+          if (!res.getValues().isEmpty()) {
+            Logger.showResponse(res.getValues().toString());
+          }
+          Logger.showResponse(res.getText());
+        } else {
+          Logger.showError(res.getText());
+        }
       } catch (StringIndexOutOfBoundsException e) {
         Logger.showError("Please specify which server to send the request to.");
       } catch (IndexOutOfBoundsException e) {
         Logger.showError("Please specify a number from 1 to " + this.serversList.size() + " which is the current number of servers.");
-      } catch (RuntimeException | InterruptedException | IOException e) {
+      } catch (RuntimeException | InterruptedException | RemoteException e) {
         Logger.showError(e.getMessage());
       }
     }
   }
 
+  private static ReplicaRouter createRouter(String routing, List<RequestHandler> servers) {
+    switch (routing.toLowerCase()) {
+      case "typed":
+        return null;
+
+      case "balanced":
+        return new ReplicaRouter(servers);
+
+      default:
+        throw new IllegalArgumentException("Invalid routing. Must be typed or balanced.");
+    }
+  }
+
   /**
    * Driver that is the entry point for the client. This method is executed when we run the
    * program where it validates the cli arguments received and calls the required methods to
@@ -74,32 +225,59 @@ public class Client {
    * @param args String array for command line arguments to be passed when running the program.
    *             For this program this array should have even elements. For every 2 elements,
    *             first is the host ip of server and second will be the port at which the server
-   *             is running.
+   *             is running. These can be followed by the optional --transport=rmi|nio argument
+   *             which must be the same as the servers', --cache=n which caches the values of up
+   *             to n keys that were read most recently (off by default), and --host=ip which is
+   *             the ip address that the servers use to tell the cache about commits (default
+   *             127.0.0.1), and --routing=typed|balanced which decides whether GET and MGET
+   *             requests go to the server that was typed (default) or are spread over all the
+   *             servers, moving on to another server if one can't be reached, and
+   *             --page-size=n which is the number of keys that SCAN and PREFIX requests get from
+   *             the server at a time (default 100).
    */
   public static void main(String[] args) {
     try {
-      if (args.length % 2 == 1) {
+      int serverArgs = 0;
+      while (serverArgs < args.length && !args[serverArgs].startsWith("--")) {
+        serverArgs++;
+      }
+      if (serverArgs % 2 == 1) {
         throw new IllegalArgumentException("Invalid number of arguments! " +
                 "Please specify the host and port number for each server.");
       }
+      Options options = Options.parse(args, serverArgs);
 
       Logger.showInfo("Looking up all servers...\n\n");
       Client client = new Client();
 
-      for (int i = 0; i < args.length; i += 2) {
-        String host = args[i];
-        int port = Integer.parseInt(args[i + 1]);
-        Registry registry = LocateRegistry.getRegistry(host, port);
-        RequestHandler handler = (RequestHandler) registry.lookup("handler");
-        client.serversList.add(handler);
-      }
+      try (Transport transport = Transport.create(options.get("transport", "rmi"))) {
+        for (int i = 0; i < serverArgs; i += 2) {
+          String host = args[i];
+          int port = Integer.parseInt(args[i + 1]);
+          RequestHandler handler = transport.lookup("handler", RequestHandler.class, host, port);
+          client.serversList.add(handler);
+        }
 
-      if (client.serversList.size() == 0) {
-        throw new RuntimeException("No servers running!");
-      }
+        if (client.serversList.size() == 0) {
+          throw new RuntimeException("No servers running!");
+        }
 
-      client.start();
-    } catch (RuntimeException | NotBoundException | RemoteException e) {
+        client.pageSize = (int) options.getLong("page-size", DEFAULT_PAGE_SIZE);
+        if (client.pageSize < 1) {
+          throw new IllegalArgumentException("Page size must be at least 1.");
+        }
+        client.router = createRouter(options.get("routing", "typed"), client.serversList);
+        int cacheSize = (int) options.getLong("cache", 0);
+        if (cacheSize > 0) {
+          client.cache = new ClientCache(cacheSize);
+          CacheListener listener = transport.export("cache", client.cache, CacheListener.class,
+                  options.get("host", "127.0.0.1"), 0);
+          client.startRenewingSubscription(listener);
+        }
+
+        client.start();
+      }
+    } catch (RuntimeException | NotBoundException | IOException e) {
       Logger.showError(e.getMessage());
     }
   }
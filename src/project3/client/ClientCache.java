@@ -0,0 +1,115 @@
+package project3.client;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import project3.CacheListener;
+
+/**
+ * Class that holds the values that a client has read most recently, so that repeated GETs of the
+ * same keys are answered without asking a server. Once the cache is full, the key that was read
+ * least recently is dropped (LRU). The participants tell the cache about every key they commit,
+ * after which the cached value of the key is dropped.
+ *
+ * <p>A value that is read from a server while the key is being committed might be older than the
+ * commit, so a value is only cached if the cache hasn't been told about its key since the read
+ * began.
+ *
+ * <p>The cache is only used while the subscription with the participants lasts. A subscription that
+ * could not be renewed in time might have been dropped without the cache being told about later
+ * commits, so no value is served until it is renewed, and all values are dropped if the
+ * participants had dropped it.
+ */
+public class ClientCache implements CacheListener {
+  private final Map<String, String> values;
+  private final Map<String, Long> reads;
+  private long nextRead;
+  private long leaseEndsNanos;
+  private boolean hasLease;
+
+  /**
+   * Constructor to initialize the empty cache.
+   *
+   * @param capacity Maximum number of values that are cached.
+   */
+  public ClientCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Cache size must be at least 1.");
+    }
+    // access order, so the eldest entry is the one that was read least recently
+    this.values = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > capacity;
+      }
+    };
+    this.reads = new HashMap<>();
+  }
+
+  /**
+   * Method to get the cached value of a key.
+   *
+   * @param key The key.
+   * @return The value, or null if the key is not cached.
+   */
+  public synchronized String get(String key) {
+    if (!hasLease || System.nanoTime() - leaseEndsNanos > 0) {
+      return null;
+    }
+    return values.get(key);
+  }
+
+  /**
+   * Method that is called after the subscription with the participants was renewed.
+   *
+   * @param startedNanos  Value of System.nanoTime() from before the subscription was renewed.
+   * @param wasSubscribed Whether the participants had the cache subscribed the whole time since the
+   *                      last renewal. If not, commits may have been missed and all the values
+   *                      are dropped, including those of the reads that are in progress.
+   */
+  public synchronized void renew(long startedNanos, boolean wasSubscribed) {
+    if (!wasSubscribed) {
+      values.clear();
+      reads.clear();
+    }
+    leaseEndsNanos = startedNanos + TimeUnit.MILLISECONDS.toNanos(CacheListener.LEASE_MILLIS);
+    hasLease = true;
+  }
+
+  /**
+   * Method that is called before a key is read from a server.
+   *
+   * @param key The key.
+   * @return The id of the read, which is passed to endRead.
+   */
+  public synchronized long beginRead(String key) {
+    long read = nextRead++;
+    reads.put(key, read);
+    return read;
+  }
+
+  /**
+   * Method that caches the value that was read from a server, unless the key has been committed
+   * since the read began or another read of the key began after it.
+   *
+   * @param key   The key.
+   * @param read  The id of the read that beginRead returned.
+   * @param value The value that was read.
+   */
+  public synchronized void endRead(String key, long read, String value) {
+    if (reads.remove(key, read)) {
+      values.put(key, value);
+    }
+  }
+
+  @Override
+  public synchronized void invalidate(List<String> keys) {
+    for (String key : keys) {
+      values.remove(key);
+      reads.remove(key);
+    }
+  }
+}
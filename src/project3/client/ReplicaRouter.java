@@ -0,0 +1,142 @@
+package project3.client;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project3.Request;
+import project3.RequestHandler;
+import project3.Response;
+
+/**
+ * Class that spreads read requests over all the servers, since every participant can serve a read
+ * of any key. For each request two servers are picked at random and the one that is expected to
+ * answer sooner is used (power of two choices), which keeps a slow or busy server from being sent
+ * more than its share without every request going to the same fastest server. How soon a server
+ * answers is estimated from the latency of its recent requests and the number of requests that it
+ * is working on for this client.
+ *
+ * <p>If a server can't be reached, the request is retried on another one, and the server is left
+ * out of the choice for a while unless no other server is left.
+ */
+public class ReplicaRouter {
+  private static final double LATENCY_WEIGHT = 0.2;
+  private static final long FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final List<Replica> replicas;
+
+  /**
+   * Class that holds what is known about how fast a server answers.
+   */
+  private static class Replica {
+    private final RequestHandler server;
+    private final AtomicInteger inFlight;
+    private double latencyNanos;
+    private volatile long failedUntilNanos;
+
+    private Replica(RequestHandler server) {
+      this.server = server;
+      this.inFlight = new AtomicInteger();
+    }
+
+    private synchronized void recordLatency(long nanos) {
+      // moving average, so that the estimate follows the server when it slows down or recovers
+      if (latencyNanos == 0) {
+        latencyNanos = nanos;
+      } else {
+        latencyNanos += LATENCY_WEIGHT * (nanos - latencyNanos);
+      }
+    }
+
+    private synchronized double getCost() {
+      return latencyNanos * (inFlight.get() + 1);
+    }
+
+    private boolean isFailing(long now) {
+      return now - failedUntilNanos < 0;
+    }
+  }
+
+  /**
+   * Constructor to initialize the servers to route requests to.
+   *
+   * @param servers The servers, which all have to be able to serve the requests.
+   */
+  public ReplicaRouter(List<RequestHandler> servers) {
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("At least 1 server is needed to route requests.");
+    }
+    this.replicas = new ArrayList<>();
+    for (RequestHandler server : servers) {
+      replicas.add(new Replica(server));
+    }
+  }
+
+  /**
+   * Method that sends a request to the server that is expected to answer it soonest, and to the
+   * other servers one by one if it can't be reached.
+   *
+   * @param request The request.
+   * @return The response of the first server that could be reached.
+   * @throws RemoteException      in case none of the servers could be reached.
+   * @throws InterruptedException in case the thread is interrupted while waiting for a response.
+   */
+  public Response handle(Request request) throws RemoteException, InterruptedException {
+    Set<Replica> tried = new HashSet<>();
+    RemoteException failure = null;
+    while (tried.size() < replicas.size()) {
+      Replica replica = this.pick(tried);
+      tried.add(replica);
+      replica.inFlight.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        Response res = replica.server.handle(request);
+        replica.recordLatency(System.nanoTime() - start);
+        return res;
+      } catch (RemoteException e) {
+        replica.failedUntilNanos = System.nanoTime() + FAILURE_BACKOFF_NANOS;
+        failure = e;
+      } finally {
+        replica.inFlight.decrementAndGet();
+      }
+    }
+    throw failure;
+  }
+
+  private Replica pick(Set<Replica> tried) {
+    long now = System.nanoTime();
+    List<Replica> candidates = new ArrayList<>();
+    List<Replica> failing = new ArrayList<>();
+    for (Replica replica : replicas) {
+      if (tried.contains(replica)) {
+        continue;
+      }
+      if (replica.isFailing(now)) {
+        failing.add(replica);
+      } else {
+        candidates.add(replica);
+      }
+    }
+    if (candidates.isEmpty()) {
+      candidates = failing;
+    }
+    if (candidates.size() == 1) {
+      return candidates.get(0);
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    Replica a = candidates.get(first);
+    Replica b = candidates.get(second);
+    return a.getCost() <= b.getCost() ? a : b;
+  }
+}
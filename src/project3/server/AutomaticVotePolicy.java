@@ -0,0 +1,13 @@
+package project3.server;
+
+/**
+ * Vote policy that is used by default. It votes on its own based on the local checks done by the
+ * participant, so transactions never wait on user input.
+ */
+public class AutomaticVotePolicy implements VotePolicy {
+
+  @Override
+  public boolean votePrepare(String key, boolean resourcesReady) {
+    return resourcesReady;
+  }
+}
@@ -0,0 +1,197 @@
+package project3.server;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project3.CacheListener;
+import project3.Logger;
+import project3.RequestHandler;
+
+/**
+ * Class that is used by a participant to tell the clients that cache values which keys it has
+ * committed. Each client has a queue of its own that is sent from a thread of its own, so a commit
+ * never waits for the clients and a slow client never holds up the others, and keys that are
+ * committed while a batch is being sent to a client go out together in its next one.
+ *
+ * <p>A subscription is a lease that lasts for {@link CacheListener#LEASE_MILLIS} and that the
+ * client renews before it runs out. A client that doesn't respond in time is assumed to be gone and
+ * is not told anymore, and neither is a client whose lease has run out. Such a client finds out
+ * that it was dropped when it renews its lease, or stops using its cache once the lease runs out,
+ * so that it never keeps serving values that it was not told about.
+ */
+public class CacheInvalidator {
+  private static final long CALL_TIMEOUT_MILLIS = 5000;
+
+  private final Map<String, Subscription> subscriptions;
+  private final ExecutorService executor;
+
+  private static class Subscription {
+    private final CacheListener listener;
+    private final Set<String> pendingKeys;
+    private volatile long expiresAtNanos;
+    private boolean isSending;
+
+    private Subscription(CacheListener listener) {
+      this.listener = listener;
+      this.pendingKeys = new LinkedHashSet<>();
+      this.renew();
+    }
+
+    private void renew() {
+      long leaseNanos = TimeUnit.MILLISECONDS.toNanos(CacheListener.LEASE_MILLIS);
+      expiresAtNanos = System.nanoTime() + leaseNanos;
+    }
+
+    private boolean isExpired() {
+      return System.nanoTime() - expiresAtNanos > 0;
+    }
+  }
+
+  /**
+   * Constructor to initialize the empty list of clients and the threads that send the keys.
+   */
+  public CacheInvalidator() {
+    this.subscriptions = new ConcurrentHashMap<>();
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "cache-invalidator-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Method to add a client that is to be told about committed keys, or to renew its lease if it is
+   * already subscribed. A client that subscribes again under the same name with another cache
+   * replaces the old one.
+   *
+   * @param name     Unique name of the client.
+   * @param listener The client's cache.
+   * @return true if the client was subscribed with the same cache the whole time since its last
+   *         renewal, false if it is new or was dropped in the meantime, in which case it may have
+   *         missed keys.
+   */
+  public boolean subscribe(String name, CacheListener listener) {
+    boolean[] wasSubscribed = new boolean[1];
+    subscriptions.compute(name, (n, current) -> {
+      if (current != null && !current.isExpired() && current.listener.equals(listener)) {
+        current.renew();
+        wasSubscribed[0] = true;
+        return current;
+      }
+      return new Subscription(listener);
+    });
+    return wasSubscribed[0];
+  }
+
+  /**
+   * Method to get all the clients that are told about committed keys.
+   *
+   * @return The clients' caches by their names.
+   */
+  public Map<String, CacheListener> getListeners() {
+    Map<String, CacheListener> listeners = new LinkedHashMap<>();
+    for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+      if (!entry.getValue().isExpired()) {
+        listeners.put(entry.getKey(), entry.getValue().listener);
+      }
+    }
+    return listeners;
+  }
+
+  /**
+   * Method that queues committed keys to be sent to the clients.
+   *
+   * @param keys The keys that were committed.
+   */
+  public void invalidate(Collection<String> keys) {
+    for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+      Subscription subscription = entry.getValue();
+      if (subscription.isExpired()) {
+        this.drop(entry.getKey(), subscription, "its lease ran out");
+        continue;
+      }
+      synchronized (subscription) {
+        subscription.pendingKeys.addAll(keys);
+        if (subscription.isSending) {
+          continue;
+        }
+        subscription.isSending = true;
+      }
+      executor.execute(() -> this.send(entry.getKey(), subscription));
+    }
+  }
+
+  /**
+   * Method that passes the clients on to other participants in the background, so that those
+   * participants tell the clients about the keys that they commit too. Participants that can't be
+   * reached are skipped.
+   *
+   * @param participants The participants to pass the clients on to.
+   */
+  public void shareWith(Collection<RequestHandler> participants) {
+    Map<String, CacheListener> subscribers = this.getListeners();
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    executor.execute(() -> {
+      for (RequestHandler participant : participants) {
+        try {
+          participant.subscribeLocal(subscribers);
+        } catch (RemoteException | RuntimeException e) {
+          Logger.showError("Failed to pass on cache subscriptions. " + e.getMessage());
+        }
+      }
+    });
+  }
+
+  private void send(String name, Subscription subscription) {
+    while (true) {
+      List<String> keys;
+      synchronized (subscription) {
+        if (subscription.pendingKeys.isEmpty()) {
+          subscription.isSending = false;
+          return;
+        }
+        keys = new ArrayList<>(subscription.pendingKeys);
+        subscription.pendingKeys.clear();
+      }
+
+      Future<?> call = executor.submit(() -> {
+        subscription.listener.invalidate(keys);
+        return null;
+      });
+      try {
+        call.get(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        call.cancel(true);
+        this.drop(name, subscription, "it did not respond");
+        return;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void drop(String name, Subscription subscription, String reason) {
+    // a client that has subscribed again meanwhile is kept
+    if (subscriptions.remove(name, subscription)) {
+      Logger.showInfo("Stopped telling client " + name + " about commits because " + reason + "\n");
+    }
+  }
+}
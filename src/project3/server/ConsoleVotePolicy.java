@@ -0,0 +1,36 @@
+package project3.server;
+
+import java.util.Scanner;
+
+import project3.Logger;
+
+/**
+ * Vote policy that asks the user on the cli for every vote. It is meant for debugging and
+ * demonstrating the 2 phase commit protocol step by step. If the local checks for a transaction
+ * have already failed then the participant votes no without asking.
+ */
+public class ConsoleVotePolicy implements VotePolicy {
+  private final Scanner sc;
+
+  /**
+   * Constructor to initialize the scanner object for user input.
+   */
+  public ConsoleVotePolicy() {
+    this.sc = new Scanner(System.in);
+  }
+
+  @Override
+  public boolean votePrepare(String key, boolean resourcesReady) {
+    if (!resourcesReady) {
+      return false;
+    }
+    return ask("New transaction started on key " + key + ". Are you prepared? (yes/no) : ");
+  }
+
+  private boolean ask(String question) {
+    synchronized (sc) {
+      Logger.showInfo(question);
+      return sc.nextLine().trim().equalsIgnoreCase("yes");
+    }
+  }
+}
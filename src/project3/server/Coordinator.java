@@ -2,7 +2,9 @@ package project3.server;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
+import project3.Mutation;
 import project3.RequestHandler;
 
 /**
@@ -13,58 +15,65 @@ import project3.RequestHandler;
 public interface Coordinator extends Remote {
   /**
    * Method to add to the list of participants. It is called whenever a new participant is started.
+   * The keys are spread again over all participants, and every participant is sent the new list
+   * of participants. A participant that is started again under the same name replaces the old
+   * one. The method waits for the ongoing transactions to finish, and every transaction that
+   * starts after it returns includes the new participant, so the participant can then copy the
+   * values from the others without missing any transaction.
    *
+   * @param name        Unique name of the participant (eg: host:port).
    * @param participant The server to be added to the list of participants.
    * @throws RemoteException If there is an error in the remote method call.
    */
-  void addParticipant(RequestHandler participant) throws RemoteException;
+  void addParticipant(String name, RequestHandler participant) throws RemoteException;
 
   /**
-   * Method to check if the key being referenced is part of an ongoing transaction.
+   * Method that is called by every participant every so often to show that it is still alive. A
+   * participant that stops calling it is left out of transactions until it is added again.
    *
-   * @param key The key to be checked.
-   * @return True if the key is part of an ongoing transaction. False otherwise.
+   * @param name Unique name of the participant.
+   * @return True if the participant is alive. False if it has to be added first, for example
+   *         because it was considered dead or the coordinator was restarted.
    * @throws RemoteException If there is an error in the remote method call.
    */
-  boolean isPartOfOngoingTransaction(String key) throws RemoteException;
-
-  /**
-   * Method that initiates the 2 phase commit protocol across all the participants.
-   * It asks each participant on a separate thread to prepare for commit.
-   *
-   * @return True if all participants are ready to commit. False otherwise.
-   * @throws RemoteException      If there is an error in the remote method call.
-   * @throws InterruptedException If the thread is interrupted while waiting for the participants
-   *                              to prepare.
-   */
-  boolean broadcastPrepare(String key) throws RemoteException, InterruptedException;
+  boolean heartbeat(String name) throws RemoteException;
 
   /**
-   * Method that asks all participants whether they want to commit/abort the ongoing transaction.
+   * Method to check if the key being referenced is part of an ongoing transaction. Transactions
+   * are tracked per key, so a key is only reported as busy if a PUT/DELETE on that same key is
+   * currently in progress.
    *
-   * @return True if all participants want to commit. False otherwise.
-   * @throws RemoteException      If there is an error in the remote method call.
-   * @throws InterruptedException If the thread is interrupted while waiting for the participants
-   *                              to vote.
+   * @param key The key to be checked.
+   * @return True if the key is part of an ongoing transaction. False otherwise.
+   * @throws RemoteException If there is an error in the remote method call.
    */
-  boolean broadcastCommit() throws RemoteException, InterruptedException;
+  boolean isPartOfOngoingTransaction(String key) throws RemoteException;
 
   /**
-   * Method that asks all participants to insert/replace a key-value pair in their key-value store.
+   * Method that carries out one or more mutations atomically on the replicas of their keys using
+   * the 2 phase commit protocol. In the prepare phase each replica is sent the mutations on the
+   * keys it stores, which it stages and votes on. If all replicas vote yes, the commit phase asks
+   * them to apply the staged mutations. Otherwise, they are asked to abort them. Transactions on
+   * different keys can run concurrently, but a transaction on a key that already has an ongoing
+   * transaction is rejected.
    *
-   * @param key   Key to be inserted/replaced.
-   * @param value Value to be inserted/replaced.
+   * @param mutations The mutations to be carried out. Each key can appear only once.
+   * @return COMMITTED if the mutations were committed. Otherwise, the reason why they were
+   *         aborted.
    * @throws RemoteException      If there is an error in the remote method call.
-   * @throws InterruptedException If the thread is interrupted while waiting for the participants
+   * @throws InterruptedException If the thread is interrupted while waiting for the participants.
    */
-  void broadcastPut(String key, String value) throws RemoteException, InterruptedException;
+  Outcome executeTransaction(List<Mutation> mutations) throws RemoteException, InterruptedException;
 
   /**
-   * Method that asks all participants to delete a key from their key-value store.
+   * Method that is called by a participant that has prepared a transaction but has not heard the
+   * decision of the coordinator for a while, for example because the commit or abort message was
+   * lost or the participant was restarted. Transactions that the coordinator has no commit for are
+   * reported as aborted.
    *
-   * @param key Key to be deleted.
-   * @throws RemoteException      If there is an error in the remote method call.
-   * @throws InterruptedException If the thread is interrupted while waiting for the participants
+   * @param transactionId The id of the transaction.
+   * @return The decision of the transaction.
+   * @throws RemoteException If there is an error in the remote method call.
    */
-  void broadcastDelete(String key) throws RemoteException, InterruptedException;
+  Decision getDecision(long transactionId) throws RemoteException;
 }
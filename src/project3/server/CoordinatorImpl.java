@@ -1,15 +1,33 @@
 package project3.server;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import project3.HashRing;
 import project3.Logger;
+import project3.Mutation;
+import project3.Options;
 import project3.RequestHandler;
+import project3.transport.Transport;
 
 /**
  * Class that simulates the Participant in the 2 phase commit protocol. This class validates the
@@ -19,164 +37,447 @@ import project3.RequestHandler;
  * servers and receiving positive or negative response.
  */
 public class CoordinatorImpl implements Coordinator {
-  private final List<RequestHandler> participants;
-  private String ongoingTransactionKey;
+  private static final int DEFAULT_FAN_OUT_THREADS = 64;
+  private static final int MAX_COORDINATOR_ID = 255;
+  private static final int COORDINATOR_ID_SHIFT = 55;
+  private static final long DEFAULT_PREPARE_TIMEOUT_MILLIS = 5000;
+  private static final long DEFAULT_COMMIT_TIMEOUT_MILLIS = 5000;
+  private static final long DEFAULT_FAILURE_TIMEOUT_MILLIS = 3000;
+  private static final long COMPACTION_INTERVAL_MILLIS = 5 * 60 * 1000;
+  private static final long COMPACTION_LOG_BYTES = 4 * 1024 * 1024;
+  private static final long REDELIVERY_INTERVAL_MILLIS = 1000;
+
+  private final Membership membership;
+  private final int replicationFactor;
+  private volatile HashRing<RequestHandler> ring;
+  private final Map<String, Long> transactions;
+  private final AtomicLong transactionIds;
+  private final FanOut fanOut;
+  private final int id;
+  private final long coordinatorIdBits;
+  private final long prepareTimeoutMillis;
+  private final long commitTimeoutMillis;
+  private final WriteAheadLog decisionLog;
+  private final ReadWriteLock decisionLock;
+  private final ReadWriteLock joinBarrier;
+  private final Set<Long> undecided;
+  private final Map<Long, Set<String>> unacknowledgedCommits;
 
   /**
    * Constructor to initialize the participants list. Whenever a new participant is started, it is
-   * added to this list to reference in the future.
+   * added to this list to reference in the future, and participants that stop sending heartbeats
+   * are left out of transactions until they send one again. Also initializes the transaction table
+   * which maps every key that is part of an ongoing transaction to the id of that transaction, so
+   * that transactions on different keys can run at the same time. Keys are spread over the
+   * participants with consistent hashing, so each key is stored only on its replicas.
+   *
+   * <p>Every commit decision is written to a log, along with the participants that have to apply
+   * it, before any participant is told about it. A commit is sent again in the background to the
+   * participants that haven't acknowledged it, and it is forgotten once all of them have. The
+   * commits that are not forgotten yet are recovered from the log, so a participant that missed
+   * the decision still gets it after a restart of the coordinator. Aborts are never logged: a
+   * transaction that has no commit is aborted (presumed abort).
+   *
+   * @param id                   Unique id of this coordinator among all the coordinators, from
+   *                             0 to 255. It is part of every transaction id, so that
+   *                             transactions of different coordinators never have the same id.
+   * @param fanOutThreads        Maximum number of calls to participants that can be in progress
+   *                             at the same time.
+   * @param replicationFactor    Number of participants that each key is stored on.
+   * @param prepareTimeoutMillis Time in milliseconds to wait for the votes of a transaction before
+   *                             it is aborted.
+   * @param commitTimeoutMillis  Time in milliseconds to wait for the participants to apply a
+   *                             decision. Participants that take longer are sent the commits
+   *                             again later.
+   * @param failureTimeoutMillis Time in milliseconds without a heartbeat after which a
+   *                             participant is considered dead.
+   * @param dataDirectory        Directory that holds the log of commit decisions.
+   * @throws IOException              in case the log of commit decisions can't be read or opened
+   *                                  for writing.
+   * @throws IllegalArgumentException if the id is out of range.
    */
-  public CoordinatorImpl() {
-    participants = new ArrayList<>();
-    ongoingTransactionKey = "";
+  public CoordinatorImpl(int id, int fanOutThreads, int replicationFactor,
+                         long prepareTimeoutMillis, long commitTimeoutMillis,
+                         long failureTimeoutMillis, Path dataDirectory) throws IOException {
+    if (id < 0 || id > MAX_COORDINATOR_ID) {
+      throw new IllegalArgumentException("Coordinator id must be from 0 to " + MAX_COORDINATOR_ID
+              + ".");
+    }
+    this.id = id;
+    coordinatorIdBits = (long) id << COORDINATOR_ID_SHIFT;
+    this.prepareTimeoutMillis = prepareTimeoutMillis;
+    this.commitTimeoutMillis = commitTimeoutMillis;
+    undecided = ConcurrentHashMap.newKeySet();
+    unacknowledgedCommits = new ConcurrentHashMap<>();
+    decisionLock = new ReentrantReadWriteLock();
+    joinBarrier = new ReentrantReadWriteLock();
+    membership = new Membership(failureTimeoutMillis);
+    membership.start();
+    this.replicationFactor = replicationFactor;
+    ring = new HashRing<>(membership.getMembers(), replicationFactor);
+    transactions = new ConcurrentHashMap<>();
+    // seeded from the clock so that ids are not reused after a restart, since participants keep
+    // them in their logs. The clock part stays below the bits of the coordinator id
+    transactionIds = new AtomicLong(System.currentTimeMillis() << 12);
+    fanOut = new FanOut(fanOutThreads);
+
+    Files.createDirectories(dataDirectory);
+    decisionLog = new WriteAheadLog(dataDirectory, 1, new DecisionRecovery());
+    if (!unacknowledgedCommits.isEmpty()) {
+      Logger.showInfo("Recovered " + unacknowledgedCommits.size() + " commit decisions.\n");
+    }
+    new Snapshotter(COMPACTION_INTERVAL_MILLIS, COMPACTION_LOG_BYTES, new Snapshotter.Task() {
+      @Override
+      public void takeSnapshot() throws IOException {
+        compactDecisionLog();
+      }
+
+      @Override
+      public long getLogSize() throws IOException {
+        return decisionLog.getCurrentSegmentSize();
+      }
+    }).start();
+
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "commit-redelivery");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::redeliverCommits, REDELIVERY_INTERVAL_MILLIS,
+            REDELIVERY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Class that rebuilds the commits that are still unacknowledged from the log of decisions. Each
+   * commit record holds the names of the participants that had not acknowledged it when it was
+   * written, and a forget record marks a commit that every participant has acknowledged, after
+   * which the decision is no longer needed.
+   */
+  private class DecisionRecovery implements WriteAheadLog.Visitor {
+    private final Set<Long> forgotten = new HashSet<>();
+
+    @Override
+    public void onPrepare(long transactionId, List<Mutation> mutations) {
+      // the coordinator never logs prepares
+    }
+
+    @Override
+    public void onCommit(long transactionId, List<Mutation> mutations) {
+      // a commit can be written again by a compaction after it was forgotten
+      if (!forgotten.contains(transactionId)) {
+        Set<String> waiting = ConcurrentHashMap.newKeySet();
+        for (Mutation participant : mutations) {
+          waiting.add(participant.getKey());
+        }
+        unacknowledgedCommits.put(transactionId, waiting);
+      }
+    }
+
+    @Override
+    public void onAbort(long transactionId) {
+      // logs that were written before forget records existed use an abort record instead
+      this.onForget(transactionId);
+    }
+
+    @Override
+    public void onForget(long transactionId) {
+      unacknowledgedCommits.remove(transactionId);
+      forgotten.add(transactionId);
+    }
+  }
+
+  private void compactDecisionLog() throws IOException {
+    // commits are held off while the log switches segments, so every commit in the old segments
+    // is already in the set that is written again to the new one
+    long firstSegment;
+    decisionLock.writeLock().lock();
+    try {
+      firstSegment = decisionLog.rotate();
+    } finally {
+      decisionLock.writeLock().unlock();
+    }
+
+    for (Map.Entry<Long, Set<String>> entry : new ArrayList<>(unacknowledgedCommits.entrySet())) {
+      decisionLog.logCommit(entry.getKey(), toRecord(entry.getValue()));
+    }
+    decisionLog.deleteSegmentsBefore(firstSegment);
   }
 
   @Override
-  public void addParticipant(RequestHandler participant) throws RemoteException {
-    participants.add(participant);
+  public synchronized void addParticipant(String name, RequestHandler participant)
+          throws RemoteException {
+    // transactions that don't include the participant have to finish before it can catch up, so
+    // new ones wait until it is part of the ring
+    HashRing<RequestHandler> newRing;
+    joinBarrier.writeLock().lock();
+    try {
+      membership.join(name, participant);
+      newRing = new HashRing<>(membership.getMembers(), replicationFactor);
+      ring = newRing;
+    } finally {
+      joinBarrier.writeLock().unlock();
+    }
     Logger.showInfo("Added participant\n");
+
+    // every participant needs the new ring to know which keys it owns and where to send GETs. Dead
+    // participants get it when they join again
+    try {
+      fanOut.runOnAll(new ArrayList<>(membership.getAlive().values()), member -> {
+        member.setMembers(newRing.getMembers(), replicationFactor);
+        return null;
+      }, commitTimeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while sending the participants to all members.", e);
+    }
   }
 
   @Override
-  public boolean isPartOfOngoingTransaction(String key) throws RemoteException {
-    return ongoingTransactionKey.equals(key);
+  public boolean heartbeat(String name) {
+    return membership.heartbeat(name);
   }
 
   @Override
-  public boolean broadcastPrepare(String key) throws RemoteException, InterruptedException {
-    ongoingTransactionKey = key;
-    boolean shouldProceed = this.broadcast("prepare");
-    if (!shouldProceed) {
-      Logger.showError("A participant failed to prepare.");
-      return false;
-    }
-    return this.broadcastCommit();
+  public boolean isPartOfOngoingTransaction(String key) throws RemoteException {
+    return transactions.containsKey(key);
   }
 
   @Override
-  public boolean broadcastCommit() throws RemoteException, InterruptedException {
-    boolean shouldProceed = this.broadcast("commit");
-    ongoingTransactionKey = "";
-    if (!shouldProceed) {
-      Logger.showError("A participant failed to commit.");
-      return false;
+  public Outcome executeTransaction(List<Mutation> mutations) throws InterruptedException {
+    long transactionId = coordinatorIdBits | transactionIds.incrementAndGet();
+    List<String> keys = this.lockKeys(transactionId, mutations);
+    if (keys == null) {
+      return Outcome.CONFLICT;
     }
-    return true;
-  }
 
-  private boolean broadcast(String command) throws RemoteException, InterruptedException {
-    List<Thread> threads = new ArrayList<>();
-    List<Boolean> results = new ArrayList<>();
-
-    for (RequestHandler participant : participants) {
-      if (participant.isBusy()) {
-        return false;
+    undecided.add(transactionId);
+    joinBarrier.readLock().lock();
+    try {
+      // only the live replicas of the keys take part, and each one is only sent its own keys. Dead
+      // replicas keep their place on the ring, so the keys don't move while they are away
+      HashRing<RequestHandler> ring = this.ring;
+      Map<String, RequestHandler> alive = membership.getAlive();
+      Map<RequestHandler, List<Mutation>> shards = new LinkedHashMap<>();
+      Map<RequestHandler, String> names = new HashMap<>();
+      for (Mutation mutation : mutations) {
+        boolean isStored = false;
+        for (String owner : ring.getOwners(mutation.getKey())) {
+          RequestHandler replica = alive.get(owner);
+          if (replica != null) {
+            shards.computeIfAbsent(replica, r -> new ArrayList<>()).add(mutation);
+            names.put(replica, owner);
+            isStored = true;
+          }
+        }
+        if (!isStored) {
+          Logger.showError("No live participant stores key " + mutation.getKey() + ".");
+          return Outcome.FAILED;
+        }
       }
-      Thread thread = new Thread(() -> {
-        try {
-          switch (command) {
-            case "prepare":
-              results.add(participant.askPrepare());
-              break;
-
-            case "commit":
-              results.add(participant.askCommit());
-              break;
+      List<RequestHandler> replicas = new ArrayList<>(shards.keySet());
+
+      Map<RequestHandler, Vote> votes = new ConcurrentHashMap<>();
+      boolean isPrepared = fanOut.allAgree(replicas,
+              participant -> participant.askPrepare(transactionId, shards.get(participant)),
+              prepareTimeoutMillis, votes);
+      if (!isPrepared || !this.logCommit(transactionId, names.values())) {
+        Logger.showError("A participant failed to prepare.");
+        undecided.remove(transactionId);
+        // a participant that voted no has already dropped the transaction
+        List<RequestHandler> prepared = new ArrayList<>();
+        for (RequestHandler replica : replicas) {
+          Vote vote = votes.get(replica);
+          if (vote == null || vote == Vote.YES) {
+            prepared.add(replica);
           }
-        } catch (RemoteException e) {
-          throw new RuntimeException(e);
         }
-      });
-      threads.add(thread);
-    }
+        fanOut.runOnAll(prepared, participant -> {
+          participant.abort(transactionId);
+          return null;
+        }, commitTimeoutMillis);
+        return isPrepared ? Outcome.FAILED : getOutcome(votes);
+      }
 
-    for (Thread thread : threads) {
-      thread.start();
+      // participants that don't acknowledge the commit in time are sent it again later
+      fanOut.runOnAll(replicas, participant -> {
+        participant.commit(transactionId);
+        this.acknowledgeCommit(transactionId, names.get(participant));
+        return null;
+      }, commitTimeoutMillis);
+      return Outcome.COMMITTED;
+    } finally {
+      joinBarrier.readLock().unlock();
+      undecided.remove(transactionId);
+      for (String key : keys) {
+        transactions.remove(key, transactionId);
+      }
     }
+  }
 
-    for (int i = 0; i < threads.size(); i++) {
-      threads.get(i).join();
-      participants.get(i).setIdleState();
+  private static Outcome getOutcome(Map<RequestHandler, Vote> votes) {
+    // a rejection can't be fixed by trying again, so it wins over a conflict
+    if (votes.containsValue(Vote.REJECTED)) {
+      return Outcome.REJECTED;
     }
+    return votes.containsValue(Vote.CONFLICT) ? Outcome.CONFLICT : Outcome.FAILED;
+  }
 
-    boolean shouldProceed = true;
-    for (boolean result : results) {
-      if (!result) {
-        shouldProceed = false;
-        break;
-      }
+  private boolean logCommit(long transactionId, Collection<String> participants) {
+    decisionLock.readLock().lock();
+    try {
+      decisionLog.logCommit(transactionId, toRecord(participants));
+      // added before the transaction stops being undecided, so getDecision never sees neither
+      Set<String> waiting = ConcurrentHashMap.newKeySet();
+      waiting.addAll(participants);
+      unacknowledgedCommits.put(transactionId, waiting);
+      undecided.remove(transactionId);
+      return true;
+    } catch (IOException e) {
+      Logger.showError("Failed to log the commit decision. " + e.getMessage());
+      return false;
+    } finally {
+      decisionLock.readLock().unlock();
     }
-    return shouldProceed;
   }
 
   @Override
-  public void broadcastPut(String key, String value) throws InterruptedException {
-    List<Thread> threads = new ArrayList<>();
-
-    for (RequestHandler participant : participants) {
-      Thread thread = new Thread(() -> {
-        try {
-          participant.put(key, value);
-        } catch (RemoteException e) {
-          throw new RuntimeException(e);
-        }
-      });
-      threads.add(thread);
-      thread.start();
+  public Decision getDecision(long transactionId) {
+    if (transactionId >>> COORDINATOR_ID_SHIFT != id) {
+      return Decision.UNKNOWN;
+    }
+    if (undecided.contains(transactionId)) {
+      return Decision.PENDING;
     }
+    return unacknowledgedCommits.containsKey(transactionId) ? Decision.COMMIT : Decision.ABORT;
+  }
 
-    for (Thread thread : threads) {
-      thread.join();
+  private static List<Mutation> toRecord(Collection<String> participants) {
+    // the log only holds mutations, so each participant is written as a delete of its name
+    List<Mutation> record = new ArrayList<>();
+    for (String participant : participants) {
+      record.add(Mutation.delete(participant));
     }
+    return record;
   }
 
-  @Override
-  public void broadcastDelete(String key) throws InterruptedException {
-    List<Thread> threads = new ArrayList<>();
-
-    for (RequestHandler participant : participants) {
-      Thread thread = new Thread(() -> {
-        try {
-          participant.delete(key);
-        } catch (RemoteException e) {
-          throw new RuntimeException(e);
+  private void acknowledgeCommit(long transactionId, String participant) {
+    Set<String> waiting = unacknowledgedCommits.get(transactionId);
+    if (waiting == null || !waiting.remove(participant) || !waiting.isEmpty()) {
+      return;
+    }
+    // only one of the last acknowledgements that arrive at the same time removes the commit
+    if (unacknowledgedCommits.remove(transactionId, waiting)) {
+      // no participant will ask for this decision anymore
+      decisionLog.logForget(transactionId);
+    }
+  }
+
+  private void redeliverCommits() {
+    // each live participant is sent the commits that it hasn't acknowledged, oldest first. Commits
+    // recovered from logs that didn't record the participants are only given out by getDecision
+    Map<String, RequestHandler> alive = membership.getAlive();
+    Map<RequestHandler, String> names = new HashMap<>();
+    Map<RequestHandler, List<Long>> pending = new LinkedHashMap<>();
+    List<Long> transactionIds = new ArrayList<>(unacknowledgedCommits.keySet());
+    Collections.sort(transactionIds);
+    for (long transactionId : transactionIds) {
+      Set<String> waiting = unacknowledgedCommits.getOrDefault(transactionId, Set.of());
+      for (String name : waiting) {
+        RequestHandler participant = alive.get(name);
+        if (participant != null) {
+          names.put(participant, name);
+          pending.computeIfAbsent(participant, p -> new ArrayList<>()).add(transactionId);
         }
-      });
-      threads.add(thread);
-      thread.start();
+      }
+    }
+    if (pending.isEmpty()) {
+      return;
     }
 
-    for (Thread thread : threads) {
-      thread.join();
+    try {
+      fanOut.runOnAll(new ArrayList<>(pending.keySet()), participant -> {
+        for (long transactionId : pending.get(participant)) {
+          participant.commit(transactionId);
+          this.acknowledgeCommit(transactionId, names.get(participant));
+        }
+        return null;
+      }, commitTimeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
+  private List<String> lockKeys(long transactionId, List<Mutation> mutations) {
+    Set<String> uniqueKeys = new LinkedHashSet<>();
+    for (Mutation mutation : mutations) {
+      if (!uniqueKeys.add(mutation.getKey())) {
+        throw new IllegalArgumentException("Key " + mutation.getKey() + " appears more than once in the transaction.");
+      }
+    }
+
+    List<String> keys = new ArrayList<>();
+    for (String key : uniqueKeys) {
+      if (transactions.putIfAbsent(key, transactionId) != null) {
+        Logger.showError("Key " + key + " is already part of an ongoing transaction.");
+        for (String lockedKey : keys) {
+          transactions.remove(lockedKey, transactionId);
+        }
+        return null;
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
   /**
    * Driver method of the class which is the entry point of the program. It takes 2 cli arguments
    * which are the ip address and port of the machine to export the object to.
    *
    * @param args String array for command line arguments to be passed when running the program.
    *             For this program this array should have two elements which are the ip address and
-   *             port to export the object to.
+   *             port to export the object to. These can be followed by the optional arguments
+   *             --id=n which must be different for every coordinator when there are many of
+   *             them, --fan-out-threads=n which is the maximum number of calls to participants
+   *             that can be in progress at the same time, --replication=n which is the number of
+   *             participants that each key is stored on (all of them by default),
+   *             --prepare-timeout=ms and --commit-timeout=ms which are how long to wait for the
+   *             participants in each phase (5000 ms by default), --failure-timeout=ms after
+   *             which a participant without heartbeats is left out of transactions, and
+   *             --transport=rmi|nio which decides how the coordinators, participants and
+   *             clients talk to each other.
    */
   public static void main(String[] args) {
     try {
-      if (args.length != 2) {
-        throw new IllegalArgumentException("Incorrect cli arguments. Must be exactly 2. Host ip and port.");
+      if (args.length < 2) {
+        throw new IllegalArgumentException("Incorrect cli arguments. Must be at least 2. Host ip and port.");
       }
 
       String host = args[0];
       int port = Integer.parseInt(args[1]);
+      Options options = Options.parse(args, 2);
+      int id = (int) options.getLong("id", 0);
+      int fanOutThreads = (int) options.getLong("fan-out-threads", DEFAULT_FAN_OUT_THREADS);
+      // every participant stores every key unless a smaller replication factor is asked for
+      int replication = (int) Math.min(options.getLong("replication", Integer.MAX_VALUE),
+              Integer.MAX_VALUE);
+      long prepareTimeout = options.getLong("prepare-timeout", DEFAULT_PREPARE_TIMEOUT_MILLIS);
+      long commitTimeout = options.getLong("commit-timeout", DEFAULT_COMMIT_TIMEOUT_MILLIS);
+      long failureTimeout = options.getLong("failure-timeout", DEFAULT_FAILURE_TIMEOUT_MILLIS);
+      // rmi calls that hang would otherwise hold a fan-out thread forever
+      if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+        System.setProperty("sun.rmi.transport.tcp.responseTimeout",
+                String.valueOf(Math.max(prepareTimeout, commitTimeout)));
+      }
 
       Logger.showInfo("Starting coordinator...\n");
-      Coordinator obj = new CoordinatorImpl();
+      Path dataDirectory = RequestHandlerImpl.getBaseDirectory().resolve("coordinator-" + id);
+      Coordinator obj = new CoordinatorImpl(id, fanOutThreads, replication, prepareTimeout,
+              commitTimeout, failureTimeout, dataDirectory);
 
-      System.setProperty("java.rmi.server.hostname", host);
-      Coordinator coordinator = (Coordinator) UnicastRemoteObject.exportObject(obj, port);
+      Transport transport = Transport.create(options.get("transport", "rmi"));
 
       Logger.showInfo("Creating Registry\n\n");
-      Registry registry = LocateRegistry.createRegistry(port);
-      registry.rebind("coordinator", coordinator);
+      transport.export("coordinator", obj, Coordinator.class, host, port);
 
       Logger.showInfo("Coordinator is setup and ready to go!\n\n");
     } catch (RuntimeException | IOException e) {
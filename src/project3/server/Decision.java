@@ -0,0 +1,28 @@
+package project3.server;
+
+/**
+ * Enum of the answers that a coordinator gives when a participant asks for the outcome of a
+ * transaction that it has prepared but never heard the decision of. The coordinator follows
+ * presumed abort, so a transaction that it has no commit for is reported as aborted.
+ */
+public enum Decision {
+  /**
+   * The transaction was committed.
+   */
+  COMMIT,
+
+  /**
+   * The transaction was aborted, or the coordinator has no record of it.
+   */
+  ABORT,
+
+  /**
+   * The coordinator is still collecting the votes of the transaction.
+   */
+  PENDING,
+
+  /**
+   * The transaction was not started by this coordinator.
+   */
+  UNKNOWN
+}
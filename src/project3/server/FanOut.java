@@ -0,0 +1,149 @@
+package project3.server;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project3.Logger;
+import project3.RequestHandler;
+
+/**
+ * Class that is used by the coordinator to make the same call on many participants at the same
+ * time. All calls run on one bounded pool of threads that is shared by every transaction, instead
+ * of starting new threads for each participant in each phase.
+ */
+public class FanOut {
+  private final ExecutorService executor;
+
+  /**
+   * Interface for a remote call that is to be made on a single participant.
+   *
+   * @param <T> The type of the result of the call.
+   */
+  public interface ParticipantCall<T> {
+    /**
+     * Method that makes the call on the given participant.
+     *
+     * @param participant The participant to make the call on.
+     * @return The result of the call.
+     * @throws RemoteException If there is an error in the remote method call.
+     */
+    T call(RequestHandler participant) throws RemoteException;
+  }
+
+  /**
+   * Constructor to initialize the pool of threads that the calls are made on.
+   *
+   * @param threads Maximum number of calls that can be in progress at the same time.
+   */
+  public FanOut(int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "fan-out-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+    ((ThreadPoolExecutor) this.executor).allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Method that asks all the participants to vote and returns as soon as the outcome is known,
+   * which is either when the first participant votes anything but yes, when all of them have voted
+   * yes or when the timeout runs out. Calls that are still in progress when the outcome is known
+   * are left to finish in the background. A participant whose call fails or doesn't return in time
+   * is counted as a no vote.
+   *
+   * @param participants  The participants to ask.
+   * @param call          The call that returns the vote of a participant.
+   * @param timeoutMillis Time in milliseconds to wait for all the votes.
+   * @param votes         Map that the votes are put in as they come in, by participant. A
+   *                      participant whose call fails has no entry.
+   * @return true if all participants voted yes in time, false otherwise.
+   * @throws InterruptedException If the thread is interrupted while waiting for the votes.
+   */
+  public boolean allAgree(List<RequestHandler> participants, ParticipantCall<Vote> call,
+                          long timeoutMillis, Map<RequestHandler, Vote> votes)
+          throws InterruptedException {
+    if (participants.isEmpty()) {
+      return true;
+    }
+
+    CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+    AtomicInteger remaining = new AtomicInteger(participants.size());
+    for (RequestHandler participant : participants) {
+      executor.execute(() -> {
+        Vote vote;
+        try {
+          vote = call.call(participant);
+          votes.put(participant, vote);
+        } catch (RemoteException | RuntimeException e) {
+          Logger.showError("Participant failed to vote. " + e.getMessage());
+          vote = null;
+        }
+
+        if (vote != Vote.YES) {
+          outcome.complete(false);
+        } else if (remaining.decrementAndGet() == 0) {
+          outcome.complete(true);
+        }
+      });
+    }
+
+    try {
+      return outcome.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      Logger.showError("Participants did not vote within " + timeoutMillis + " ms.");
+      return false;
+    } catch (ExecutionException e) {
+      // outcome is only ever completed normally
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Method that makes a call on all the participants and waits for all of them to finish, or for
+   * the timeout to run out. A call that fails on a participant is reported but does not stop the
+   * calls on the other participants.
+   *
+   * @param participants  The participants to make the call on.
+   * @param call          The call to make.
+   * @param timeoutMillis Time in milliseconds to wait for all the calls.
+   * @return true if the call succeeded on all participants in time, false otherwise.
+   * @throws InterruptedException If the thread is interrupted while waiting for the calls.
+   */
+  public boolean runOnAll(List<RequestHandler> participants, ParticipantCall<?> call,
+                          long timeoutMillis) throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(participants.size());
+    AtomicBoolean failed = new AtomicBoolean();
+    for (RequestHandler participant : participants) {
+      executor.execute(() -> {
+        try {
+          call.call(participant);
+        } catch (RemoteException | RuntimeException e) {
+          Logger.showError("Call to participant failed. " + e.getMessage());
+          failed.set(true);
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+    if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      Logger.showError("Participants did not respond within " + timeoutMillis + " ms.");
+      return false;
+    }
+    return !failed.get();
+  }
+}
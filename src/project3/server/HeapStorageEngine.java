@@ -0,0 +1,64 @@
+package project3.server;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage engine that keeps the key-value pairs in a concurrent hash map on the Java heap. It is
+ * the fastest engine for small stores, but every pair costs the garbage collector a few objects.
+ */
+public class HeapStorageEngine implements StorageEngine {
+  private final Map<String, Entry> map;
+
+  /**
+   * Constructor to initialize the empty map.
+   *
+   * @param expectedKeys Number of keys the map is expected to hold.
+   */
+  public HeapStorageEngine(int expectedKeys) {
+    this.map = new ConcurrentHashMap<>(expectedKeys);
+  }
+
+  @Override
+  public Entry get(String key) {
+    return map.get(key);
+  }
+
+  @Override
+  public long getExpiresAt(String key) {
+    Entry entry = map.get(key);
+    return entry == null ? 0 : entry.getExpiresAt();
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public void put(String key, String value, long expiresAt) {
+    map.put(key, new Entry(key, value, expiresAt));
+  }
+
+  @Override
+  public void remove(String key) {
+    map.remove(key);
+  }
+
+  @Override
+  public long size() {
+    return map.size();
+  }
+
+  @Override
+  public Iterator<Entry> iterator() {
+    return Collections.unmodifiableCollection(map.values()).iterator();
+  }
+
+  @Override
+  public Iterable<String> keys() {
+    return Collections.unmodifiableSet(map.keySet());
+  }
+}
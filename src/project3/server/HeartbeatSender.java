@@ -0,0 +1,115 @@
+package project3.server;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import project3.Logger;
+import project3.RequestHandler;
+import project3.transport.Transport;
+
+/**
+ * Class that sends a participant's heartbeats to all the coordinators in the background. A
+ * coordinator that doesn't count the participant as alive, because it missed heartbeats or the
+ * coordinator was restarted, is joined again after which the participant catches up, and a
+ * coordinator that can't be reached is looked up again on the next heartbeat, so that the
+ * participant finds coordinators that come back or that were down when it was started.
+ */
+public class HeartbeatSender {
+  private final Transport transport;
+  private final List<String> addresses;
+  private final Map<String, Coordinator> coordinators;
+  private final String name;
+  private final RequestHandler participant;
+  private final RequestHandlerImpl handler;
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Constructor to initialize the coordinators that heartbeats are sent to.
+   *
+   * @param transport    The transport that the coordinators are looked up with.
+   * @param addresses    Addresses of all the coordinators (eg: host:port).
+   * @param coordinators The coordinators that could be reached when the participant was started,
+   *                     by their addresses.
+   * @param name         Unique name of the participant.
+   * @param participant  The exported participant that is sent to coordinators that it joins.
+   * @param handler      The participant itself, which is told about coordinators that are found
+   *                     later.
+   */
+  public HeartbeatSender(Transport transport, List<String> addresses,
+                         Map<String, Coordinator> coordinators, String name,
+                         RequestHandler participant, RequestHandlerImpl handler) {
+    this.transport = transport;
+    this.addresses = addresses;
+    this.coordinators = new LinkedHashMap<>(coordinators);
+    this.name = name;
+    this.participant = participant;
+    this.handler = handler;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Method that starts sending heartbeats.
+   *
+   * @param intervalMillis Time in milliseconds between two heartbeats.
+   */
+  public void start(long intervalMillis) {
+    scheduler.scheduleWithFixedDelay(this::beat, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  private void beat() {
+    boolean isChanged = false;
+    for (String address : addresses) {
+      Coordinator coordinator = coordinators.get(address);
+      try {
+        if (coordinator == null) {
+          coordinator = this.lookup(address);
+          if (coordinator == null) {
+            continue;
+          }
+          Logger.showInfo("Found coordinator " + address + "\n");
+          isChanged = true;
+        }
+        if (!coordinator.heartbeat(name)) {
+          // transactions may have been missed since the coordinator stopped counting on this
+          // participant, so it catches up once it is back in
+          Logger.showInfo("Joining coordinator " + address + " again\n");
+          handler.beginCatchUp();
+          try {
+            coordinator.addParticipant(name, participant);
+          } finally {
+            new Thread(handler::catchUp, "catch-up").start();
+          }
+        }
+      } catch (RemoteException e) {
+        // a restarted coordinator is a new remote object, so the old reference no longer works
+        isChanged = this.lookup(address) != null || isChanged;
+      }
+    }
+
+    if (isChanged) {
+      handler.setCoordinators(new LinkedHashMap<>(coordinators));
+    }
+  }
+
+  private Coordinator lookup(String address) {
+    try {
+      Coordinator coordinator = Participant.lookupCoordinator(transport, address);
+      coordinators.put(address, coordinator);
+      return coordinator;
+    } catch (IOException | NotBoundException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,590 @@
+package project3.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import project3.Logger;
+
+/**
+ * Storage engine that keeps the values on disk and only the keys in memory, so that a participant
+ * can hold more data than fits in its memory (Bitcask). Every change is appended as a record to
+ * the newest of a set of numbered data files (data-1.log, data-2.log, ...), and an in-memory index
+ * points to the record that holds the current value of every key. A read therefore costs at most
+ * one positional read from disk, and a write a single append.
+ *
+ * <p>Each record is stored as its length, a CRC32 checksum and the payload, which is the length of
+ * the key, the length of the value (-1 for a deleted key), the time at which the key expires (0 if
+ * never), the key and the value. The time is kept in the index too, so that the keys that expire
+ * are known without reading any values. A record that was only partly written when the participant
+ * crashed fails the checksum and is cut off when the files are opened again.
+ *
+ * <p>Records of values that were changed or deleted stay in their files until the files are
+ * merged. A merge copies the live records of all the files except the newest one to a new file and
+ * then deletes the old ones, along with a hint file that lists the keys of the new file and the
+ * times at which they expire, so that the index can be rebuilt on a restart without reading the
+ * values. Merges run as part of the checkpoints, which take the place of snapshots for this engine,
+ * so they happen in the background while the engine keeps serving reads and writes.
+ */
+public class LogStructuredStorageEngine implements StorageEngine {
+  private static final int HEADER_SIZE = 8;
+  private static final int PAYLOAD_HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+  private static final int TOMBSTONE = -1;
+  private static final long FILE_BYTES = 64 * 1024 * 1024;
+  private static final double MERGE_GARBAGE_RATIO = 0.5;
+  private static final String FILE_PREFIX = "data-";
+  private static final String FILE_SUFFIX = ".log";
+  private static final String HINT_SUFFIX = ".hint";
+  private static final String MERGE_SUFFIX = ".merge";
+  private static final String CHECKPOINT_FILE = "checkpoint";
+  private static final String FORMAT_FILE = "format";
+  private static final int FORMAT_VERSION = 2;
+
+  private final Path directory;
+  private final Map<String, Location> index;
+  private final TreeMap<Long, DataFile> files;
+  private final ReadWriteLock filesLock;
+  private final Object appendLock;
+  private final Object mergeLock;
+  private DataFile active;
+  private long nextFileId;
+  private volatile long checkpoint;
+
+  /**
+   * Class that represents one of the data files.
+   */
+  private static class DataFile {
+    private final long id;
+    private final FileChannel channel;
+    private final AtomicLong garbageBytes;
+    private volatile long size;
+
+    private DataFile(long id, FileChannel channel, long size) {
+      this.id = id;
+      this.channel = channel;
+      this.garbageBytes = new AtomicLong();
+      this.size = size;
+    }
+  }
+
+  /**
+   * Class that holds where the record of a key is stored.
+   */
+  private static class Location {
+    private final DataFile file;
+    private final long offset;
+    private final int keyLength;
+    private final int valueLength;
+    private final long expiresAt;
+
+    private Location(DataFile file, long offset, int keyLength, int valueLength, long expiresAt) {
+      this.file = file;
+      this.offset = offset;
+      this.keyLength = keyLength;
+      this.valueLength = valueLength;
+      this.expiresAt = expiresAt;
+    }
+
+    private int getRecordSize() {
+      return HEADER_SIZE + PAYLOAD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+  }
+
+  /**
+   * Constructor that opens the data files in the given directory and rebuilds the index from them.
+   * The directory is created if it does not exist yet.
+   *
+   * @param directory    Directory that holds the data files.
+   * @param expectedKeys Number of keys the engine is expected to hold, so that the index does not
+   *                     have to grow while it is being rebuilt.
+   * @throws IOException in case the data files can't be read or opened for writing.
+   */
+  public LogStructuredStorageEngine(Path directory, int expectedKeys) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.index = new ConcurrentHashMap<>(expectedKeys);
+    this.files = new TreeMap<>();
+    this.filesLock = new ReentrantReadWriteLock();
+    this.appendLock = new Object();
+    this.mergeLock = new Object();
+
+    // a merge that did not finish leaves its output behind, while the files it merged are intact
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + MERGE_SUFFIX)) {
+      for (Path path : paths) {
+        Files.delete(path);
+      }
+    }
+
+    TreeMap<Long, Path> paths = listFiles();
+    this.checkFormat(!paths.isEmpty());
+    for (Map.Entry<Long, Path> entry : paths.entrySet()) {
+      FileChannel channel = FileChannel.open(entry.getValue(), StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      DataFile file = new DataFile(entry.getKey(), channel, channel.size());
+      files.put(file.id, file);
+      Path hintPath = hintPath(entry.getValue());
+      if (!Files.exists(hintPath) || !this.loadHints(file, hintPath)) {
+        this.scan(file, entry.getValue());
+      }
+    }
+    this.nextFileId = paths.isEmpty() ? 1 : paths.lastKey() + 1;
+    // the newest file is appended to again unless it is full or is the output of a merge, whose
+    // hint file would then be missing the new records
+    DataFile newest = files.isEmpty() ? null : files.lastEntry().getValue();
+    if (newest != null && newest.size < FILE_BYTES
+            && !Files.exists(hintPath(paths.get(newest.id)))) {
+      this.active = newest;
+    } else {
+      this.active = this.createFile(nextFileId++);
+    }
+
+    Path checkpointPath = directory.resolve(CHECKPOINT_FILE);
+    if (Files.exists(checkpointPath)) {
+      try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpointPath))) {
+        this.checkpoint = in.readLong();
+      }
+    }
+  }
+
+  @Override
+  public Entry get(String key) {
+    filesLock.readLock().lock();
+    try {
+      Location location = index.get(key);
+      return location == null
+              ? null : new Entry(key, this.readValue(key, location), location.expiresAt);
+    } finally {
+      filesLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long getExpiresAt(String key) {
+    Location location = index.get(key);
+    return location == null ? 0 : location.expiresAt;
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return index.containsKey(key);
+  }
+
+  @Override
+  public void put(String key, String value, long expiresAt) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    filesLock.readLock().lock();
+    try {
+      synchronized (appendLock) {
+        Location location = this.append(keyBytes, valueBytes, expiresAt);
+        this.discard(index.put(key, location));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write " + key + " to disk. " + e.getMessage(), e);
+    } finally {
+      filesLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    filesLock.readLock().lock();
+    try {
+      synchronized (appendLock) {
+        if (!index.containsKey(key)) {
+          return;
+        }
+        // the record only marks the older ones as deleted, so it is garbage from the start
+        Location tombstone = this.append(keyBytes, null, 0);
+        this.discard(tombstone);
+        this.discard(index.remove(key));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to delete " + key + " on disk. " + e.getMessage(), e);
+    } finally {
+      filesLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long size() {
+    return index.size();
+  }
+
+  @Override
+  public Iterator<Entry> iterator() {
+    Iterator<String> keys = index.keySet().iterator();
+    return new Iterator<>() {
+      private Entry next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && keys.hasNext()) {
+          next = get(keys.next());
+        }
+        return next != null;
+      }
+
+      @Override
+      public Entry next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Entry entry = next;
+        next = null;
+        return entry;
+      }
+    };
+  }
+
+  @Override
+  public Iterable<String> keys() {
+    return Collections.unmodifiableSet(index.keySet());
+  }
+
+  @Override
+  public long getCheckpoint() {
+    return checkpoint;
+  }
+
+  @Override
+  public boolean checkpoint(long firstSegment) throws IOException {
+    // files that are no longer appended to were forced when the next one was started
+    synchronized (appendLock) {
+      active.channel.force(false);
+    }
+
+    Path checkpointPath = directory.resolve(CHECKPOINT_FILE);
+    Path temp = checkpointPath.resolveSibling(CHECKPOINT_FILE + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, firstSegment);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    checkpoint = firstSegment;
+
+    if (this.isMergeDue()) {
+      this.merge();
+    }
+    return true;
+  }
+
+  private boolean isMergeDue() {
+    long bytes = 0;
+    long garbageBytes = 0;
+    synchronized (appendLock) {
+      for (DataFile file : files.values()) {
+        if (file != active) {
+          bytes += file.size;
+          garbageBytes += file.garbageBytes.get();
+        }
+      }
+    }
+    return garbageBytes >= FILE_BYTES && garbageBytes > bytes * MERGE_GARBAGE_RATIO;
+  }
+
+  private void merge() throws IOException {
+    synchronized (mergeLock) {
+      // the merged file is numbered after all the files it replaces and before the ones that are
+      // written while it is being merged, so that newer records keep winning on a restart
+      long outputId;
+      List<DataFile> merged;
+      synchronized (appendLock) {
+        outputId = nextFileId++;
+        this.roll();
+        merged = new ArrayList<>(files.headMap(outputId).values());
+      }
+      Set<DataFile> isMerged = Collections.newSetFromMap(new IdentityHashMap<>());
+      isMerged.addAll(merged);
+      Logger.showInfo("Merging " + merged.size() + " data files\n");
+
+      Path outputPath = directory.resolve(FILE_PREFIX + outputId + FILE_SUFFIX);
+      Path outputTemp = outputPath.resolveSibling(outputPath.getFileName() + MERGE_SUFFIX);
+      Path hintPath = hintPath(outputPath);
+      Path hintTemp = hintPath.resolveSibling(hintPath.getFileName() + MERGE_SUFFIX);
+      DataFile output = new DataFile(outputId, FileChannel.open(outputTemp,
+              StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+      try (FileChannel hintChannel = FileChannel.open(hintTemp, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE)) {
+        DataOutputStream hints = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(hintChannel), 64 * 1024));
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+          Location location = entry.getValue();
+          if (!isMerged.contains(location.file)) {
+            continue;
+          }
+
+          ByteBuffer record = ByteBuffer.allocate(location.getRecordSize());
+          readFully(location.file.channel, record, location.offset);
+          record.flip();
+          long offset = output.size;
+          writeFully(output.channel, record, offset);
+          output.size += record.capacity();
+          Location copy = new Location(output, offset, location.keyLength, location.valueLength,
+                  location.expiresAt);
+          byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+          hints.writeInt(key.length);
+          hints.writeInt(location.valueLength);
+          hints.writeLong(location.expiresAt);
+          hints.writeLong(offset);
+          hints.write(key);
+          // readers switch to the copy right away, unless the key has changed since
+          if (!index.replace(entry.getKey(), location, copy)) {
+            this.discard(copy);
+          }
+        }
+        hints.flush();
+        hintChannel.force(true);
+      }
+      output.channel.force(true);
+      Files.move(hintTemp, hintPath, StandardCopyOption.ATOMIC_MOVE);
+      Files.move(outputTemp, outputPath, StandardCopyOption.ATOMIC_MOVE);
+
+      synchronized (appendLock) {
+        files.put(outputId, output);
+        for (DataFile file : merged) {
+          files.remove(file.id);
+        }
+      }
+      // reads that are still going through the old files are waited for before they are closed
+      filesLock.writeLock().lock();
+      try {
+        for (DataFile file : merged) {
+          file.channel.close();
+        }
+      } finally {
+        filesLock.writeLock().unlock();
+      }
+
+      // oldest first, so that a crash in between never brings back a deleted key whose deletion
+      // is in a newer file than its value
+      for (DataFile file : merged) {
+        Path path = directory.resolve(FILE_PREFIX + file.id + FILE_SUFFIX);
+        Files.deleteIfExists(hintPath(path));
+        Files.delete(path);
+      }
+    }
+  }
+
+  private Location append(byte[] key, byte[] value, long expiresAt) throws IOException {
+    int valueLength = value == null ? TOMBSTONE : value.length;
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + PAYLOAD_HEADER_SIZE + key.length
+            + Math.max(valueLength, 0));
+    record.position(HEADER_SIZE);
+    record.putInt(key.length);
+    record.putInt(valueLength);
+    record.putLong(expiresAt);
+    record.put(key);
+    if (value != null) {
+      record.put(value);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+    record.putInt(0, record.capacity() - HEADER_SIZE);
+    record.putInt(4, (int) crc.getValue());
+    record.flip();
+
+    if (active.size > 0 && active.size + record.capacity() > FILE_BYTES) {
+      this.roll();
+    }
+    long offset = active.size;
+    writeFully(active.channel, record, offset);
+    active.size += record.capacity();
+    return new Location(active, offset, key.length, valueLength, expiresAt);
+  }
+
+  private void roll() throws IOException {
+    active.channel.force(false);
+    active = this.createFile(nextFileId++);
+  }
+
+  private DataFile createFile(long id) throws IOException {
+    FileChannel channel = FileChannel.open(directory.resolve(FILE_PREFIX + id + FILE_SUFFIX),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    DataFile file = new DataFile(id, channel, 0);
+    files.put(id, file);
+    return file;
+  }
+
+  private void discard(Location location) {
+    if (location != null) {
+      location.file.garbageBytes.addAndGet(location.getRecordSize());
+    }
+  }
+
+  private String readValue(String key, Location location) {
+    ByteBuffer value = ByteBuffer.allocate(location.valueLength);
+    try {
+      readFully(location.file.channel, value,
+              location.offset + HEADER_SIZE + PAYLOAD_HEADER_SIZE + location.keyLength);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read " + key + " from disk. " + e.getMessage(), e);
+    }
+    return new String(value.array(), StandardCharsets.UTF_8);
+  }
+
+  private boolean loadHints(DataFile file, Path hintPath) throws IOException {
+    Map<String, Location> locations = new LinkedHashMap<>();
+    try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(hintPath), 64 * 1024))) {
+      while (true) {
+        int keyLength;
+        try {
+          keyLength = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        int valueLength = in.readInt();
+        long expiresAt = in.readLong();
+        long offset = in.readLong();
+        byte[] key = new byte[keyLength];
+        in.readFully(key);
+        locations.put(new String(key, StandardCharsets.UTF_8),
+                new Location(file, offset, keyLength, valueLength, expiresAt));
+      }
+    } catch (EOFException e) {
+      Logger.showError("Ignoring incomplete hint file " + hintPath);
+      return false;
+    }
+
+    for (Map.Entry<String, Location> entry : locations.entrySet()) {
+      this.discard(index.put(entry.getKey(), entry.getValue()));
+    }
+    return true;
+  }
+
+  private void scan(DataFile file, Path path) throws IOException {
+    long validLength = 0;
+    DataInputStream data = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(file.channel), 64 * 1024));
+    CRC32 crc = new CRC32();
+    while (true) {
+      ByteBuffer payload;
+      try {
+        int length = data.readInt();
+        int checksum = data.readInt();
+        if (length < PAYLOAD_HEADER_SIZE || length > file.size - validLength - HEADER_SIZE) {
+          break;
+        }
+        payload = ByteBuffer.allocate(length);
+        data.readFully(payload.array());
+        crc.reset();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+      } catch (EOFException e) {
+        break;
+      }
+
+      int keyLength = payload.getInt();
+      int valueLength = payload.getInt();
+      long expiresAt = payload.getLong();
+      String key = new String(payload.array(), PAYLOAD_HEADER_SIZE, keyLength,
+              StandardCharsets.UTF_8);
+      Location location = new Location(file, validLength, keyLength, valueLength, expiresAt);
+      if (valueLength == TOMBSTONE) {
+        this.discard(location);
+        this.discard(index.remove(key));
+      } else {
+        this.discard(index.put(key, location));
+      }
+      validLength += HEADER_SIZE + payload.capacity();
+    }
+
+    if (validLength < file.size) {
+      Logger.showError("Discarding incomplete record at the end of " + path);
+      file.channel.truncate(validLength);
+      file.size = validLength;
+    }
+  }
+
+  private void checkFormat(boolean hasFiles) throws IOException {
+    Path formatPath = directory.resolve(FORMAT_FILE);
+    if (!hasFiles) {
+      Files.write(formatPath, ByteBuffer.allocate(Integer.BYTES).putInt(0, FORMAT_VERSION).array());
+      return;
+    }
+    // files from before the format was recorded have records without the time of expiry
+    if (!Files.exists(formatPath)) {
+      throw new IOException("The data files in " + directory + " are in an older format.");
+    }
+    int version = ByteBuffer.wrap(Files.readAllBytes(formatPath)).getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("The data files in " + directory + " are in format " + version
+              + ", but only format " + FORMAT_VERSION + " can be read.");
+    }
+  }
+
+  private TreeMap<Long, Path> listFiles() throws IOException {
+    TreeMap<Long, Path> paths = new TreeMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+            FILE_PREFIX + "*" + FILE_SUFFIX)) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        String number = name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length());
+        try {
+          paths.put(Long.parseLong(number), path);
+        } catch (NumberFormatException ignored) {
+          // not a data file of this engine
+        }
+      }
+    }
+    return paths;
+  }
+
+  private static Path hintPath(Path dataPath) {
+    String name = dataPath.getFileName().toString();
+    return dataPath.resolveSibling(name.substring(0, name.length() - FILE_SUFFIX.length())
+            + HINT_SUFFIX);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new EOFException("Record ends past the end of the file");
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+}
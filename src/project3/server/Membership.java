@@ -0,0 +1,139 @@
+package project3.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import project3.Logger;
+import project3.RequestHandler;
+
+/**
+ * Class that is used by the coordinator to keep track of which participants are alive. Every
+ * participant sends the coordinator a heartbeat every so often, and a participant that hasn't sent
+ * one within the failure timeout is considered dead until it joins again. The participants that
+ * are alive are kept in a map that is replaced, never changed, whenever a participant joins or
+ * dies, so that transactions can read it without locking.
+ */
+public class Membership {
+  private final long failureTimeoutNanos;
+  private final Map<String, RequestHandler> members;
+  private final Map<String, Long> lastHeartbeatNanos;
+  private final ScheduledExecutorService scheduler;
+  private volatile Map<String, RequestHandler> alive;
+
+  /**
+   * Constructor to initialize the empty list of participants.
+   *
+   * @param failureTimeoutMillis Time in milliseconds without a heartbeat after which a participant
+   *                             is considered dead.
+   */
+  public Membership(long failureTimeoutMillis) {
+    this.failureTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(failureTimeoutMillis);
+    this.members = new LinkedHashMap<>();
+    this.lastHeartbeatNanos = new ConcurrentHashMap<>();
+    this.alive = Collections.emptyMap();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "failure-detector");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Method that starts looking for participants that have stopped sending heartbeats.
+   */
+  public void start() {
+    long checkIntervalMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(failureTimeoutNanos) / 4);
+    scheduler.scheduleWithFixedDelay(this::detectFailures, checkIntervalMillis,
+            checkIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Method to add a participant, which is alive from now on. A participant that joins again under
+   * the same name, for example after a restart, replaces the old one.
+   *
+   * @param name        Unique name of the participant (eg: host:port).
+   * @param participant The participant.
+   */
+  public synchronized void join(String name, RequestHandler participant) {
+    members.put(name, participant);
+    lastHeartbeatNanos.put(name, System.nanoTime());
+    this.updateAlive(name, true);
+  }
+
+  /**
+   * Method that records a heartbeat of a participant. A participant that was considered dead has
+   * missed transactions, so it has to join again and catch up before it is alive again.
+   *
+   * @param name Unique name of the participant.
+   * @return true if the participant is alive, false if it needs to join first.
+   */
+  public boolean heartbeat(String name) {
+    if (!alive.containsKey(name)) {
+      return false;
+    }
+    lastHeartbeatNanos.put(name, System.nanoTime());
+    return true;
+  }
+
+  /**
+   * Method to get all the participants that have joined, dead or alive.
+   *
+   * @return The participants by their names, in the order in which they joined.
+   */
+  public synchronized Map<String, RequestHandler> getMembers() {
+    return new LinkedHashMap<>(members);
+  }
+
+  /**
+   * Method to get the participants that are currently alive. The map never changes, so it can be
+   * read while participants keep dying and coming back.
+   *
+   * @return The participants by their names.
+   */
+  public Map<String, RequestHandler> getAlive() {
+    return alive;
+  }
+
+  /**
+   * Method to check whether a participant is currently alive.
+   *
+   * @param name Unique name of the participant.
+   * @return true if the participant is alive, false if it is dead or has never joined.
+   */
+  public boolean isAlive(String name) {
+    return alive.containsKey(name);
+  }
+
+  private void detectFailures() {
+    long now = System.nanoTime();
+    for (Map.Entry<String, Long> entry : lastHeartbeatNanos.entrySet()) {
+      if (now - entry.getValue() > failureTimeoutNanos && alive.containsKey(entry.getKey())) {
+        synchronized (this) {
+          // a heartbeat may have arrived since the check above
+          Long lastHeartbeat = lastHeartbeatNanos.get(entry.getKey());
+          if (lastHeartbeat != null && System.nanoTime() - lastHeartbeat > failureTimeoutNanos) {
+            Logger.showError("Participant " + entry.getKey() + " has stopped sending heartbeats.");
+            this.updateAlive(entry.getKey(), false);
+          }
+        }
+      }
+    }
+  }
+
+  private void updateAlive(String name, boolean isAlive) {
+    // copy on write, in the order in which the participants joined
+    Map<String, RequestHandler> newAlive = new LinkedHashMap<>();
+    for (Map.Entry<String, RequestHandler> entry : members.entrySet()) {
+      boolean wasAlive = alive.containsKey(entry.getKey());
+      if (entry.getKey().equals(name) ? isAlive : wasAlive) {
+        newAlive.put(entry.getKey(), entry.getValue());
+      }
+    }
+    alive = Collections.unmodifiableMap(newAlive);
+  }
+}
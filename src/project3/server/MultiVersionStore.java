@@ -0,0 +1,317 @@
+package project3.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import project3.Mutation;
+
+/**
+ * Class that represents the key-value store of a participant. For every key it keeps the last
+ * committed version and, while a transaction on the key is prepared, the staged version that the
+ * transaction will install. Reads only ever see committed versions, so they never wait for or fail
+ * because of an ongoing transaction. The staged version is dropped as soon as the transaction
+ * commits or aborts, so at most two versions of a key exist at any time.
+ *
+ * <p>The store can also keep its keys sorted in a skip list next to the storage engine, so that the
+ * keys of a range can be read without going through all the keys.
+ *
+ * <p>A key can expire at a given time, after which it reads as deleted. The storage engine keeps
+ * the time next to the value. The keys that expire are also kept ordered by their times, so that
+ * the ones whose time has passed are removed without going through all the keys.
+ */
+public class MultiVersionStore {
+  private final StorageEngine committed;
+  private final Map<String, StagedVersion> staged;
+  private final NavigableSet<String> orderedKeys;
+  private final NavigableSet<Expiry> expiries;
+
+  private static class StagedVersion {
+    private final long transactionId;
+    private final Mutation mutation;
+
+    private StagedVersion(long transactionId, Mutation mutation) {
+      this.transactionId = transactionId;
+      this.mutation = mutation;
+    }
+  }
+
+  private static class Expiry implements Comparable<Expiry> {
+    private final long time;
+    private final String key;
+
+    private Expiry(long time, String key) {
+      this.time = time;
+      this.key = key;
+    }
+
+    @Override
+    public int compareTo(Expiry other) {
+      int order = Long.compare(time, other.time);
+      return order != 0 ? order : key.compareTo(other.key);
+    }
+  }
+
+  /**
+   * Constructor to initialize the store on top of the engine that holds the committed versions.
+   *
+   * @param committed The storage engine for the committed versions.
+   * @param isOrdered true to keep the keys sorted so that ranges can be read quickly, false
+   *                  otherwise.
+   */
+  public MultiVersionStore(StorageEngine committed, boolean isOrdered) {
+    this.committed = committed;
+    this.staged = new ConcurrentHashMap<>();
+    this.orderedKeys = isOrdered ? new ConcurrentSkipListSet<>() : null;
+    this.expiries = new ConcurrentSkipListSet<>();
+    // an engine that keeps its pairs on disk already holds keys from before a restart, and its
+    // keys and their times are in memory, so they are indexed without reading the values
+    if (committed.size() > 0) {
+      for (String key : committed.keys()) {
+        this.index(key, 0, committed.getExpiresAt(key));
+      }
+    }
+  }
+
+  /**
+   * Method to get the committed value of a key.
+   *
+   * @param key The key.
+   * @return The committed value, or null if the key does not exist or has expired.
+   */
+  public String get(String key) {
+    StorageEngine.Entry entry = committed.get(key);
+    return entry == null || isExpired(entry.getExpiresAt(), System.currentTimeMillis())
+            ? null : entry.getValue();
+  }
+
+  /**
+   * Method to get the time at which a key expires.
+   *
+   * @param key The key.
+   * @return Time in milliseconds since the epoch, or 0 if the key never expires.
+   */
+  public long getExpiresAt(String key) {
+    return committed.getExpiresAt(key);
+  }
+
+  /**
+   * Method to check whether a key has a committed value.
+   *
+   * @param key The key.
+   * @return true if the key exists and has not expired, false otherwise.
+   */
+  public boolean contains(String key) {
+    // the times are kept in memory, so that the disk engine doesn't have to read the value
+    return committed.contains(key)
+            && !isExpired(committed.getExpiresAt(key), System.currentTimeMillis());
+  }
+
+  /**
+   * Method to check whether a key has a staged version, i.e. whether it is part of a prepared
+   * transaction.
+   *
+   * @param key The key.
+   * @return true if the key has a staged version, false otherwise.
+   */
+  public boolean isStaged(String key) {
+    return staged.containsKey(key);
+  }
+
+  /**
+   * Method that stages the new version of a key for a transaction. Only one transaction at a time
+   * can have a staged version of a key.
+   *
+   * @param transactionId The id of the transaction.
+   * @param mutation      The mutation that the transaction carries out on the key.
+   * @return true if the version was staged, false if another transaction already staged one.
+   */
+  public boolean stage(long transactionId, Mutation mutation) {
+    StagedVersion version = new StagedVersion(transactionId, mutation);
+    return staged.putIfAbsent(mutation.getKey(), version) == null;
+  }
+
+  /**
+   * Method that makes the staged version of a key the committed one and drops the staged version.
+   *
+   * @param transactionId The id of the transaction that staged the version.
+   * @param key           The key.
+   * @throws IllegalStateException if the transaction has no staged version of the key.
+   */
+  public void commit(long transactionId, String key) {
+    StagedVersion version = staged.get(key);
+    if (version == null || version.transactionId != transactionId) {
+      throw new IllegalStateException("Transaction " + transactionId + " has no staged version of " + key);
+    }
+    // the new version is installed before the staged one is dropped so readers never miss it
+    apply(version.mutation);
+    staged.remove(key, version);
+  }
+
+  /**
+   * Method that drops the staged version of a key without committing it.
+   *
+   * @param transactionId The id of the transaction that staged the version.
+   * @param key           The key.
+   */
+  public void discard(long transactionId, String key) {
+    staged.computeIfPresent(key,
+            (k, version) -> version.transactionId == transactionId ? null : version);
+  }
+
+  /**
+   * Method that applies a mutation straight to the committed versions. It is used while
+   * recovering, when the mutation is already known to be committed.
+   *
+   * @param mutation The mutation.
+   */
+  public void apply(Mutation mutation) {
+    if (mutation.isDelete()) {
+      this.remove(mutation.getKey());
+    } else {
+      this.load(mutation.getKey(), mutation.getValue(), mutation.getExpiresAt());
+    }
+  }
+
+  /**
+   * Method that sets the committed value of a key while the store is being loaded.
+   *
+   * @param key       The key.
+   * @param value     The committed value.
+   * @param expiresAt Time in milliseconds since the epoch at which the key expires, or 0 if it
+   *                  never expires.
+   */
+  public void load(String key, String value, long expiresAt) {
+    long previous = committed.getExpiresAt(key);
+    committed.put(key, value, expiresAt);
+    this.index(key, previous, expiresAt);
+  }
+
+  /**
+   * Method that removes keys whose time has passed. A key that is part of a prepared transaction
+   * is left to the transaction, and removed later if the transaction aborts. Commits must not be
+   * applied while the keys are removed, since a key could otherwise be given a new value between
+   * checking its time and removing it.
+   *
+   * @param now   Current time in milliseconds since the epoch.
+   * @param limit Maximum number of keys to remove.
+   * @return The keys that were removed.
+   */
+  public List<String> removeExpired(long now, int limit) {
+    List<String> removed = new ArrayList<>();
+    Iterator<Expiry> iterator = expiries.iterator();
+    while (removed.size() < limit && iterator.hasNext()) {
+      Expiry expiry = iterator.next();
+      if (expiry.time > now) {
+        break;
+      }
+      if (!staged.containsKey(expiry.key)) {
+        this.remove(expiry.key);
+        removed.add(expiry.key);
+      }
+    }
+    return removed;
+  }
+
+  private void remove(String key) {
+    long previous = committed.getExpiresAt(key);
+    committed.remove(key);
+    if (orderedKeys != null) {
+      orderedKeys.remove(key);
+    }
+    if (previous != 0) {
+      expiries.remove(new Expiry(previous, key));
+    }
+  }
+
+  private void index(String key, long previous, long expiresAt) {
+    if (orderedKeys != null) {
+      orderedKeys.add(key);
+    }
+    if (previous != expiresAt && previous != 0) {
+      expiries.remove(new Expiry(previous, key));
+    }
+    if (expiresAt != 0) {
+      expiries.add(new Expiry(expiresAt, key));
+    }
+  }
+
+  private static boolean isExpired(long expiresAt, long now) {
+    return expiresAt != 0 && expiresAt <= now;
+  }
+
+  /**
+   * Method to get the committed values of the keys in a range, in the order of the keys. Without
+   * the sorted keys, all the keys have to be gone through to find the smallest ones in the range.
+   *
+   * @param start First key of the range.
+   * @param end   End of the range, which holds the keys that are smaller than it, or null if the
+   *              range goes on to the last key.
+   * @param limit Maximum number of values to get.
+   * @return The values of the smallest keys in the range, in the order of the keys.
+   */
+  public Map<String, String> scan(String start, String end, int limit) {
+    Map<String, String> values = new LinkedHashMap<>();
+    if (limit <= 0 || (end != null && start.compareTo(end) >= 0)) {
+      return values;
+    }
+
+    if (orderedKeys != null) {
+      NavigableSet<String> range = end == null
+              ? orderedKeys.tailSet(start, true) : orderedKeys.subSet(start, true, end, false);
+      for (String key : range) {
+        // the key may have been deleted since it was seen in the sorted keys
+        String value = this.get(key);
+        if (value != null) {
+          values.put(key, value);
+          if (values.size() == limit) {
+            break;
+          }
+        }
+      }
+      return values;
+    }
+
+    TreeMap<String, String> smallest = new TreeMap<>();
+    long now = System.currentTimeMillis();
+    for (StorageEngine.Entry entry : committed) {
+      String key = entry.getKey();
+      if (key.compareTo(start) >= 0 && (end == null || key.compareTo(end) < 0)
+              && !isExpired(entry.getExpiresAt(), now)) {
+        smallest.put(key, entry.getValue());
+        if (smallest.size() > limit) {
+          smallest.pollLastEntry();
+        }
+      }
+    }
+    values.putAll(smallest);
+    return values;
+  }
+
+  /**
+   * Method to go through all the committed keys without reading their values. Keys that have
+   * expired but have not been removed yet are included.
+   *
+   * @return The committed keys.
+   */
+  public Iterable<String> getKeys() {
+    return committed.keys();
+  }
+
+  /**
+   * Method to go through all the committed values along with the times at which they expire, so
+   * that they can be passed to load. Values that are committed while they are being gone through
+   * may or may not be seen, and keys that have expired but have not been removed yet are included.
+   *
+   * @return The committed entries.
+   */
+  public Iterable<StorageEngine.Entry> getCommitted() {
+    return committed;
+  }
+}
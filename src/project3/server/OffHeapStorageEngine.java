@@ -0,0 +1,554 @@
+package project3.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Storage engine that keeps the key-value pairs in memory outside of the Java heap, so that the
+ * garbage collector never has to go through them no matter how many there are. Each pair is
+ * stored as one record (the lengths of the key and value, the time at which the key expires and
+ * the UTF-8 bytes of both) that is appended to a list of large direct buffers, and an
+ * open-addressing hash table, itself a direct buffer, points to the record of every key. A slot of
+ * the table is a single long that holds the address of the record along with a part of the key's
+ * hash, so that the records of other keys are rarely read while looking for a key.
+ *
+ * <p>Changing or removing a key leaves its old record behind. Once the old records take up more
+ * space than the live ones, the live records are moved out of the buffers that are full at that
+ * time. Each write moves the records of a small, fixed number of slots of the table, so no write
+ * holds the lock for long. A buffer is dropped once a pass over the whole table has moved
+ * everything out of it, and its place in the list is used again. Reads share a lock while writes
+ * hold it on their own, which costs little since transactions already apply their writes one at a
+ * time.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+  private static final int OFFSET_BITS = 26;
+  private static final int CHUNK_SIZE = 1 << OFFSET_BITS;
+  private static final int ADDRESS_BITS = 40;
+  private static final int MAX_CHUNKS = 1 << (ADDRESS_BITS - OFFSET_BITS);
+  private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+  private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+  private static final long EMPTY = 0;
+  private static final long REMOVED = 1;
+  // no record starts at the beginning of the first chunk, so no record has the address of an
+  // empty or removed slot
+  private static final int FIRST_OFFSET = Long.BYTES;
+  private static final int EXPIRES_AT_OFFSET = 2 * Integer.BYTES;
+  private static final int RECORD_HEADER_SIZE = EXPIRES_AT_OFFSET + Long.BYTES;
+  private static final int MIN_SLOTS = 16;
+  private static final int MAX_SLOTS = 1 << 28;
+  private static final double MAX_LOAD = 0.7;
+  private static final int COMPACTION_STEP_SLOTS = 256;
+
+  private final ReadWriteLock lock;
+  private final List<ByteBuffer> chunks;
+  private final Deque<Integer> freeChunks;
+  private final BitSet evacuating;
+  private int currentChunk;
+  private int compactionCursor;
+  private long movedBytes;
+  private ByteBuffer slots;
+  private int slotMask;
+  private long size;
+  private long usedSlots;
+  private long liveBytes;
+  private long garbageBytes;
+  private int generation;
+
+  /**
+   * Constructor to initialize the empty table.
+   *
+   * @param expectedKeys Number of keys the table is expected to hold, so that it does not have to
+   *                     grow while it is being filled.
+   */
+  public OffHeapStorageEngine(int expectedKeys) {
+    this.lock = new ReentrantReadWriteLock();
+    this.chunks = new ArrayList<>();
+    this.freeChunks = new ArrayDeque<>();
+    this.evacuating = new BitSet();
+    this.currentChunk = -1;
+    this.slots = allocateSlots(slotsFor(expectedKeys));
+    this.slotMask = slots.capacity() / Long.BYTES - 1;
+  }
+
+  @Override
+  public Entry get(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+    lock.readLock().lock();
+    try {
+      int index = find(keyBytes, hash);
+      if (index == -1) {
+        return null;
+      }
+      long address = slots.getLong(index * Long.BYTES) & ADDRESS_MASK;
+      ByteBuffer chunk = chunkOf(address);
+      int offset = offsetOf(address);
+      int keyLength = chunk.getInt(offset);
+      int valueLength = chunk.getInt(offset + Integer.BYTES);
+      return new Entry(key, readString(chunk, offset + RECORD_HEADER_SIZE + keyLength, valueLength),
+              chunk.getLong(offset + EXPIRES_AT_OFFSET));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long getExpiresAt(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+    lock.readLock().lock();
+    try {
+      int index = find(keyBytes, hash);
+      if (index == -1) {
+        return 0;
+      }
+      long address = slots.getLong(index * Long.BYTES) & ADDRESS_MASK;
+      return chunkOf(address).getLong(offsetOf(address) + EXPIRES_AT_OFFSET);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+    lock.readLock().lock();
+    try {
+      return find(keyBytes, hash) != -1;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void put(String key, String value, long expiresAt) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+    lock.writeLock().lock();
+    try {
+      if (usedSlots + 1 > (slotMask + 1) * MAX_LOAD) {
+        this.resize();
+      }
+
+      long address = this.append(keyBytes, valueBytes, expiresAt);
+      long slot = tagOf(hash) | address;
+      int index = find(keyBytes, hash);
+      if (index == -1) {
+        this.insert(hash, slot);
+        size++;
+      } else {
+        long oldAddress = slots.getLong(index * Long.BYTES) & ADDRESS_MASK;
+        garbageBytes += recordSize(oldAddress);
+        liveBytes -= recordSize(oldAddress);
+        slots.putLong(index * Long.BYTES, slot);
+      }
+      liveBytes += RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length;
+      this.compactIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+    lock.writeLock().lock();
+    try {
+      int index = find(keyBytes, hash);
+      if (index == -1) {
+        return;
+      }
+      long address = slots.getLong(index * Long.BYTES) & ADDRESS_MASK;
+      garbageBytes += recordSize(address);
+      liveBytes -= recordSize(address);
+      slots.putLong(index * Long.BYTES, REMOVED);
+      size--;
+      this.compactIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public long size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Iterator<Entry> iterator() {
+    return this.iterate(true);
+  }
+
+  @Override
+  public Iterable<String> keys() {
+    return () -> {
+      Iterator<Entry> entries = this.iterate(false);
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public String next() {
+          return entries.next().getKey();
+        }
+      };
+    };
+  }
+
+  private Iterator<Entry> iterate(boolean readsValues) {
+    lock.readLock().lock();
+    try {
+      return new EntryIterator(readsValues);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Iterator that goes through the records of each buffer, and returns the ones that the table
+   * still points to. It stops at the records that existed when it was created, since pairs that are
+   * written later are covered by the log or by their transactions anyway. If records are moved to
+   * other buffers meanwhile, it keeps going through the buffers as they were and returns the
+   * current value of each key that still exists, so a key may then be returned more than once. When
+   * only the keys are needed, the values are not read and are returned as null.
+   */
+  private class EntryIterator implements Iterator<Entry> {
+    private final boolean readsValues;
+    private final List<ByteBuffer> arena;
+    private final int[] ends;
+    private final int arenaGeneration;
+    private int chunk;
+    private int offset;
+    private Entry next;
+
+    private EntryIterator(boolean readsValues) {
+      this.readsValues = readsValues;
+      // dropped buffers are never written again, so the ones in the copy stay as they are
+      this.arena = new ArrayList<>(chunks);
+      this.ends = new int[arena.size()];
+      for (int i = 0; i < ends.length; i++) {
+        ends[i] = arena.get(i) == null ? 0 : arena.get(i).position();
+      }
+      this.arenaGeneration = generation;
+      this.chunk = 0;
+      this.offset = FIRST_OFFSET;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        lock.readLock().lock();
+        try {
+          next = this.advance();
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Entry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Entry entry = next;
+      next = null;
+      return entry;
+    }
+
+    private Entry advance() {
+      while (chunk < arena.size()) {
+        ByteBuffer buffer = arena.get(chunk);
+        if (buffer == null || offset >= ends[chunk]) {
+          chunk++;
+          offset = 0;
+          continue;
+        }
+
+        int recordOffset = offset;
+        int keyLength = buffer.getInt(recordOffset);
+        int valueLength = buffer.getInt(recordOffset + Integer.BYTES);
+        offset += RECORD_HEADER_SIZE + keyLength + valueLength;
+
+        String key = readString(buffer, recordOffset + RECORD_HEADER_SIZE, keyLength);
+        if (arenaGeneration != generation) {
+          if (readsValues) {
+            Entry entry = get(key);
+            if (entry != null) {
+              return entry;
+            }
+          } else if (contains(key)) {
+            return new Entry(key, null, 0);
+          }
+        } else if (isLive(buffer, recordOffset, keyLength, address(chunk, recordOffset))) {
+          if (!readsValues) {
+            return new Entry(key, null, 0);
+          }
+          String value = readString(buffer, recordOffset + RECORD_HEADER_SIZE + keyLength,
+                  valueLength);
+          return new Entry(key, value, buffer.getLong(recordOffset + EXPIRES_AT_OFFSET));
+        }
+      }
+      return null;
+    }
+  }
+
+  private boolean isLive(ByteBuffer buffer, int recordOffset, int keyLength, long address) {
+    int index = hash(buffer, recordOffset + RECORD_HEADER_SIZE, keyLength) & slotMask;
+    while (true) {
+      long slot = slots.getLong(index * Long.BYTES);
+      if (slot == EMPTY) {
+        return false;
+      }
+      if (slot != REMOVED && (slot & ADDRESS_MASK) == address) {
+        return true;
+      }
+      index = (index + 1) & slotMask;
+    }
+  }
+
+  private int find(byte[] key, int hash) {
+    long tag = tagOf(hash);
+    int index = hash & slotMask;
+    while (true) {
+      long slot = slots.getLong(index * Long.BYTES);
+      if (slot == EMPTY) {
+        return -1;
+      }
+      if (slot != REMOVED && (slot & ~ADDRESS_MASK) == tag && keyEquals(slot & ADDRESS_MASK, key)) {
+        return index;
+      }
+      index = (index + 1) & slotMask;
+    }
+  }
+
+  private boolean keyEquals(long address, byte[] key) {
+    ByteBuffer chunk = chunkOf(address);
+    int offset = offsetOf(address);
+    if (chunk.getInt(offset) != key.length) {
+      return false;
+    }
+    int keyOffset = offset + RECORD_HEADER_SIZE;
+    for (int i = 0; i < key.length; i++) {
+      if (chunk.get(keyOffset + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void insert(int hash, long slot) {
+    int index = hash & slotMask;
+    while (true) {
+      long current = slots.getLong(index * Long.BYTES);
+      if (current == EMPTY || current == REMOVED) {
+        if (current == EMPTY) {
+          usedSlots++;
+        }
+        slots.putLong(index * Long.BYTES, slot);
+        return;
+      }
+      index = (index + 1) & slotMask;
+    }
+  }
+
+  private long append(byte[] key, byte[] value, long expiresAt) {
+    int recordSize = RECORD_HEADER_SIZE + key.length + value.length;
+    ByteBuffer chunk = currentChunk == -1 ? null : chunks.get(currentChunk);
+    if (chunk == null || chunk.remaining() < recordSize) {
+      int index = freeChunks.isEmpty() ? chunks.size() : freeChunks.pop();
+      if (index == MAX_CHUNKS) {
+        throw new IllegalStateException("The off-heap store is full.");
+      }
+      // a record that is larger than a chunk gets a chunk of its own
+      chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, recordSize));
+      if (index == 0) {
+        chunk.position(FIRST_OFFSET);
+      }
+      if (index == chunks.size()) {
+        chunks.add(chunk);
+      } else {
+        chunks.set(index, chunk);
+      }
+      currentChunk = index;
+    }
+
+    long address = address(currentChunk, chunk.position());
+    chunk.putInt(key.length);
+    chunk.putInt(value.length);
+    chunk.putLong(expiresAt);
+    chunk.put(key);
+    chunk.put(value);
+    return address;
+  }
+
+  private void resize() {
+    // a table that is mostly removed slots only needs to be cleaned up, not grown
+    int capacity = slotMask + 1;
+    if (size * 2 >= usedSlots) {
+      if (capacity == MAX_SLOTS) {
+        throw new IllegalStateException("The off-heap store can't hold more keys.");
+      }
+      capacity *= 2;
+    }
+
+    ByteBuffer oldSlots = slots;
+    slots = allocateSlots(capacity);
+    slotMask = capacity - 1;
+    usedSlots = 0;
+    // the slots are in another order now, so a compaction has to go through all of them again
+    compactionCursor = 0;
+    for (int i = 0; i < oldSlots.capacity() / Long.BYTES; i++) {
+      long slot = oldSlots.getLong(i * Long.BYTES);
+      if (slot != EMPTY && slot != REMOVED) {
+        this.insert(hashOfRecord(slot & ADDRESS_MASK), slot);
+      }
+    }
+  }
+
+  private void compactIfNeeded() {
+    if (evacuating.isEmpty()) {
+      if (garbageBytes <= liveBytes || garbageBytes < CHUNK_SIZE) {
+        return;
+      }
+      // new records keep going to the current chunk, so only the full ones are emptied
+      for (int i = 0; i < chunks.size(); i++) {
+        if (chunks.get(i) != null && i != currentChunk) {
+          evacuating.set(i);
+        }
+      }
+      compactionCursor = 0;
+      movedBytes = 0;
+      if (evacuating.isEmpty()) {
+        return;
+      }
+    }
+
+    int end = Math.min(slotMask + 1, compactionCursor + COMPACTION_STEP_SLOTS);
+    for (int i = compactionCursor; i < end; i++) {
+      long slot = slots.getLong(i * Long.BYTES);
+      if (slot == EMPTY || slot == REMOVED) {
+        continue;
+      }
+      long address = slot & ADDRESS_MASK;
+      if (!evacuating.get(chunkIndexOf(address))) {
+        continue;
+      }
+      ByteBuffer chunk = chunkOf(address);
+      int offset = offsetOf(address);
+      int keyLength = chunk.getInt(offset);
+      int valueLength = chunk.getInt(offset + Integer.BYTES);
+      byte[] key = readBytes(chunk, offset + RECORD_HEADER_SIZE, keyLength);
+      byte[] value = readBytes(chunk, offset + RECORD_HEADER_SIZE + keyLength, valueLength);
+      long expiresAt = chunk.getLong(offset + EXPIRES_AT_OFFSET);
+      slots.putLong(i * Long.BYTES, (slot & ~ADDRESS_MASK) | this.append(key, value, expiresAt));
+      movedBytes += RECORD_HEADER_SIZE + keyLength + valueLength;
+      generation++;
+    }
+    compactionCursor = end;
+    if (end <= slotMask) {
+      return;
+    }
+
+    // nothing points into the emptied chunks anymore, so everything left in them is garbage
+    long freedBytes = 0;
+    for (int i = evacuating.nextSetBit(0); i >= 0; i = evacuating.nextSetBit(i + 1)) {
+      freedBytes += chunks.get(i).position() - (i == 0 ? FIRST_OFFSET : 0);
+      chunks.set(i, null);
+      freeChunks.push(i);
+    }
+    garbageBytes -= freedBytes - movedBytes;
+    evacuating.clear();
+    generation++;
+  }
+
+  private int hashOfRecord(long address) {
+    ByteBuffer chunk = chunkOf(address);
+    int offset = offsetOf(address);
+    return hash(chunk, offset + RECORD_HEADER_SIZE, chunk.getInt(offset));
+  }
+
+  private long recordSize(long address) {
+    ByteBuffer chunk = chunkOf(address);
+    int offset = offsetOf(address);
+    return RECORD_HEADER_SIZE + chunk.getInt(offset) + chunk.getInt(offset + Integer.BYTES);
+  }
+
+  private ByteBuffer chunkOf(long address) {
+    return chunks.get(chunkIndexOf(address));
+  }
+
+  private static int chunkIndexOf(long address) {
+    return (int) (address >>> OFFSET_BITS);
+  }
+
+  private static int offsetOf(long address) {
+    return (int) (address & OFFSET_MASK);
+  }
+
+  private static long address(int chunk, int offset) {
+    return ((long) chunk << OFFSET_BITS) | offset;
+  }
+
+  private static long tagOf(int hash) {
+    // the low bits of the hash already pick the slot, so the tag is taken from the high ones
+    return (long) (hash >>> 8) << ADDRESS_BITS;
+  }
+
+  private static int hash(ByteBuffer buffer, int offset, int length) {
+    // 32-bit FNV-1a, followed by the murmur3 finalizer so that similar keys spread out
+    int hash = 0x811c9dc5;
+    for (int i = 0; i < length; i++) {
+      hash ^= buffer.get(offset + i) & 0xff;
+      hash *= 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  private static String readString(ByteBuffer buffer, int offset, int length) {
+    return new String(readBytes(buffer, offset, length), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer, int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    return bytes;
+  }
+
+  private static int slotsFor(int expectedKeys) {
+    long needed = Math.max(MIN_SLOTS, (long) Math.ceil(expectedKeys / MAX_LOAD));
+    return (int) Math.min(MAX_SLOTS, Long.highestOneBit(needed - 1) << 1);
+  }
+
+  private static ByteBuffer allocateSlots(int count) {
+    // direct buffers start out zeroed, so every slot is empty
+    return ByteBuffer.allocateDirect(count * Long.BYTES);
+  }
+}
@@ -0,0 +1,28 @@
+package project3.server;
+
+/**
+ * Enum of the ways in which a transaction that is run by a coordinator can end.
+ */
+public enum Outcome {
+  /**
+   * All the participants prepared and the transaction was committed.
+   */
+  COMMITTED,
+
+  /**
+   * The transaction was aborted because a key is part of another ongoing transaction, so it may
+   * succeed if it is tried again later.
+   */
+  CONFLICT,
+
+  /**
+   * The transaction was aborted because a participant found that it can't be carried out.
+   */
+  REJECTED,
+
+  /**
+   * The transaction was aborted because a participant could not be reached or could not prepare
+   * in time, or the decision could not be logged.
+   */
+  FAILED
+}
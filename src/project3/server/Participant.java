@@ -2,21 +2,32 @@ package project3.server;
 
 import java.io.IOException;
 import java.rmi.NotBoundException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import project3.Logger;
+import project3.Options;
 import project3.RequestHandler;
+import project3.transport.Transport;
 
 /**
  * Class that simulates the Participant in the 2 phase commit protocol and a server in the Java RMI
  * client/server model. This class validates the arguments provided from cli, establishes
  * connection at the specified ip address, and also creates the rmi registry which will hold the
- * RequestHandler object. It also gets the coordinator object from the coordinator registry and adds
- * the current participant to the coordinator's list of participants.
+ * RequestHandler object. It also gets the coordinator objects from the coordinator registries and
+ * adds the current participant to each coordinator's list of participants.
  */
 public class Participant {
+  private static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+  private static final long DEFAULT_SNAPSHOT_LOG_BYTES = 64 * 1024 * 1024;
+  private static final long DEFAULT_IN_DOUBT_TIMEOUT_SECONDS = 10;
+  private static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 1000;
+  private static final long DEFAULT_EXPIRY_INTERVAL_MILLIS = 1000;
+  private static final long DEFAULT_CATCH_UP_CHUNK_BYTES = 256 * 1024;
+  private static final long DEFAULT_CATCH_UP_BYTES_PER_SECOND = 16 * 1024 * 1024;
 
   /**
    * Driver method that is the entry point of the program.
@@ -26,12 +37,29 @@ public class Participant {
    * @param args String array for command line arguments to be passed when running the program.
    *             For this program this array should have four elements which are the ip address
    *             of host and port number to export the object to and the coordinator's ip address
-   *             and port.
+   *             and port. These can be followed by the optional arguments --vote=auto|console
+   *             which decides whether the participant votes on its own (default) or asks on the
+   *             cli for every vote, --reads=committed|reject which decides whether a GET on a
+   *             key of an ongoing transaction is served with the last committed value (default)
+   *             or rejected, and --snapshot-interval=seconds and
+   *             --snapshot-log-bytes=n which decide how often snapshots are taken,
+   *             --storage=heap|offheap|disk which decides whether the values are kept on the
+   *             Java heap (default), in memory outside of it or on disk,
+   *             --index=none|ordered which decides whether the keys are also kept sorted so
+   *             that SCAN and PREFIX requests don't have to go through all of them,
+   *             --in-doubt-timeout=seconds after which a prepared transaction asks the
+   *             coordinators for its decision, --expiry-interval=ms which is how often the
+   *             keys whose time to live has passed are removed, --heartbeat-interval=ms which
+   *             is how often the coordinators are told that the participant is alive,
+   *             --catch-up-chunk-bytes=n and --catch-up-rate=bytes-per-second which decide how
+   *             the values are copied from the other participants when it starts,
+   *             --coordinators=host:port,... which are more coordinators to join, and
+   *             --transport=rmi|nio which must be the same as the coordinators'.
    */
   public static void main(String[] args) {
     try {
-      if (args.length != 4) {
-        throw new IllegalArgumentException("Incorrect cli arguments. Must be exactly 4. " +
+      if (args.length < 4) {
+        throw new IllegalArgumentException("Incorrect cli arguments. Must be at least 4. " +
                 "Host ip, port, coordinator host ip, coordinator port");
       }
 
@@ -39,27 +67,126 @@ public class Participant {
       int port = Integer.parseInt(args[1]);
       String coordinatorHost = args[2];
       int coordinatorPort = Integer.parseInt(args[3]);
+      Options options = Options.parse(args, 4);
+      VotePolicy votePolicy = createVotePolicy(options.get("vote", "auto"));
+      RequestHandlerImpl.ReadMode readMode = getReadMode(options.get("reads", "committed"));
+      boolean isOrdered = isOrdered(options.get("index", "none"));
 
       Logger.showInfo("Starting server...\n");
 
-      Registry coordinatorRegistry = LocateRegistry.getRegistry(coordinatorHost, coordinatorPort);
-      Coordinator coordinator = (Coordinator) coordinatorRegistry.lookup("coordinator");
+      Transport transport = Transport.create(options.get("transport", "rmi"));
+      List<String> coordinatorAddresses = new ArrayList<>();
+      coordinatorAddresses.add(coordinatorHost + ":" + coordinatorPort);
+      String otherCoordinators = options.get("coordinators", "");
+      if (!otherCoordinators.isEmpty()) {
+        for (String address : otherCoordinators.split(",")) {
+          coordinatorAddresses.add(address.trim());
+        }
+      }
+      Map<String, Coordinator> coordinators = lookupCoordinators(transport, coordinatorAddresses);
 
-      System.setProperty("java.rmi.server.hostname", host);
-      RequestHandler obj = new RequestHandlerImpl();
-      RequestHandler handler = (RequestHandler) UnicastRemoteObject.exportObject(obj, port);
+      String name = host + ":" + port;
+      RequestHandlerImpl obj = new RequestHandlerImpl(votePolicy, readMode, name,
+              options.get("storage", "heap"), isOrdered, "participant-" + port);
+      Logger.showInfo("Creating Registry\n");
+      RequestHandler handler = transport.export("handler", obj, RequestHandler.class, host, port);
+      long snapshotInterval = options.getLong("snapshot-interval", DEFAULT_SNAPSHOT_INTERVAL_SECONDS);
+      long snapshotLogBytes = options.getLong("snapshot-log-bytes", DEFAULT_SNAPSHOT_LOG_BYTES);
+      obj.startSnapshots(snapshotInterval * 1000, snapshotLogBytes);
+      long inDoubtTimeout = options.getLong("in-doubt-timeout", DEFAULT_IN_DOUBT_TIMEOUT_SECONDS);
+      obj.startInDoubtResolver(inDoubtTimeout * 1000);
+      obj.startExpiryReaper(options.getLong("expiry-interval", DEFAULT_EXPIRY_INTERVAL_MILLIS));
 
-      handler.setCoordinator(coordinator);
-      coordinator.addParticipant(handler);
+      long catchUpChunkBytes = options.getLong("catch-up-chunk-bytes", DEFAULT_CATCH_UP_CHUNK_BYTES);
+      long catchUpRate = options.getLong("catch-up-rate", DEFAULT_CATCH_UP_BYTES_PER_SECOND);
+      obj.setCatchUpLimits((int) Math.min(catchUpChunkBytes, Integer.MAX_VALUE), catchUpRate);
 
-      Logger.showInfo("Creating Registry\n");
-      Registry registry = LocateRegistry.createRegistry(port);
-      registry.rebind("handler", handler);
+      // the participant may have missed transactions while it was down, so it copies the values
+      // of its keys from the others once the coordinators include it in new transactions
+      obj.setCoordinators(coordinators);
+      obj.beginCatchUp();
+      for (Map.Entry<String, Coordinator> entry : coordinators.entrySet()) {
+        try {
+          entry.getValue().addParticipant(name, handler);
+        } catch (RemoteException e) {
+          Logger.showError("Failed to join coordinator " + entry.getKey() + ". " + e.getMessage());
+        }
+      }
+      long heartbeatInterval = options.getLong("heartbeat-interval", DEFAULT_HEARTBEAT_INTERVAL_MILLIS);
+      new HeartbeatSender(transport, coordinatorAddresses, coordinators, name, handler, obj)
+              .start(heartbeatInterval);
+      obj.catchUp();
 
       Logger.showInfo("Participant ready at port " + port + " \n\n");
-    } catch (IOException | IllegalArgumentException |
-             NotBoundException e) {
+    } catch (IOException | IllegalArgumentException e) {
       Logger.showError(e.getMessage());
     }
   }
+
+  private static Map<String, Coordinator> lookupCoordinators(Transport transport,
+                                                             List<String> addresses) {
+    Map<String, Coordinator> coordinators = new LinkedHashMap<>();
+    for (String address : addresses) {
+      try {
+        coordinators.put(address, lookupCoordinator(transport, address));
+      } catch (IOException | NotBoundException e) {
+        Logger.showError("Coordinator " + address + " can't be reached. " + e.getMessage());
+      }
+    }
+
+    if (coordinators.isEmpty()) {
+      throw new IllegalArgumentException("None of the coordinators can be reached.");
+    }
+    return coordinators;
+  }
+
+  static Coordinator lookupCoordinator(Transport transport, String address)
+          throws IOException, NotBoundException {
+    int separatorIndex = address.lastIndexOf(':');
+    if (separatorIndex == -1) {
+      throw new IllegalArgumentException("Invalid coordinator " + address + ". Must be host:port.");
+    }
+    String host = address.substring(0, separatorIndex).trim();
+    int port = Integer.parseInt(address.substring(separatorIndex + 1).trim());
+    return transport.lookup("coordinator", Coordinator.class, host, port);
+  }
+
+  private static VotePolicy createVotePolicy(String name) {
+    switch (name.toLowerCase()) {
+      case "auto":
+        return new AutomaticVotePolicy();
+
+      case "console":
+        return new ConsoleVotePolicy();
+
+      default:
+        throw new IllegalArgumentException("Invalid vote policy. Must be auto or console.");
+    }
+  }
+
+  private static boolean isOrdered(String index) {
+    switch (index.toLowerCase()) {
+      case "ordered":
+        return true;
+
+      case "none":
+        return false;
+
+      default:
+        throw new IllegalArgumentException("Invalid index. Must be none or ordered.");
+    }
+  }
+
+  private static RequestHandlerImpl.ReadMode getReadMode(String name) {
+    switch (name.toLowerCase()) {
+      case "reject":
+        return RequestHandlerImpl.ReadMode.REJECT_PENDING;
+
+      case "committed":
+        return RequestHandlerImpl.ReadMode.LAST_COMMITTED;
+
+      default:
+        throw new IllegalArgumentException("Invalid read mode. Must be reject or committed.");
+    }
+  }
 }
@@ -8,19 +8,42 @@ import org.json.simple.parser.ParseException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import project3.CacheListener;
+import project3.HashRing;
 import project3.Logger;
+import project3.Mutation;
+import project3.Request;
 import project3.RequestHandler;
+import project3.Response;
 
 /**
  * Class that implements the RequestHandler interface and is basically a representation of the
@@ -28,42 +51,545 @@ import project3.RequestHandler;
  * to send requests to be served.
  */
 public class RequestHandlerImpl implements RequestHandler {
-  private final Map<String, String> map;
+  private static final int MAX_INITIAL_CAPACITY = 1 << 30;
+  private static final int SCAN_PAGE_SIZE = 100;
+  private static final int MAX_UPDATE_ATTEMPTS = 20;
+  private static final long UPDATE_BACKOFF_MILLIS = 5;
+  private static final long IN_DOUBT_CHECK_INTERVAL_MILLIS = 1000;
+  private static final int EXPIRY_BATCH_SIZE = 1000;
+  private static final long TRANSFER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+  private static final long ABORT_RETENTION_NANOS = TimeUnit.SECONDS.toNanos(60);
+  private static final int MAX_EARLY_ABORTS = 10000;
+
+  /**
+   * Enum that decides how a GET request on a key that is part of an ongoing transaction is served.
+   */
+  public enum ReadMode {
+    /**
+     * The request is rejected since the ongoing transaction might change the value of the key.
+     */
+    REJECT_PENDING,
+
+    /**
+     * The request is served with the last committed value of the key.
+     */
+    LAST_COMMITTED
+  }
+
+  private final StorageEngine engine;
+  private final MultiVersionStore store;
   private String filePath;
-  private Coordinator coordinator;
-  private final Scanner sc;
-  private State state;
+  private volatile HashRing<Coordinator> coordinators;
+  private final VotePolicy votePolicy;
+  private final Map<Long, List<Mutation>> stagedTransactions;
+  private final Map<Long, Long> preparedNanos;
+  private final Map<Long, CompletableFuture<Void>> committing;
+  private final ReadMode readMode;
+  private final Map<Long, Long> abortedTransactions;
+  private final WriteAheadLog log;
+  private final Path snapshotPath;
+  private final ReadWriteLock checkpointLock;
+  private final String name;
+  private volatile HashRing<RequestHandler> ring;
+  private final Object snapshotLock;
+  private final Object catchUpLock;
+  private final Set<String> keysWrittenWhileCatchingUp;
+  private volatile int pendingCatchUps;
+  private volatile int catchUpChunkBytes;
+  private volatile long catchUpBytesPerSecond;
+  private final Map<Long, Transfer> transfers;
+  private final CacheInvalidator invalidator;
 
-  private enum State {
-    IDLE, BUSY
+  /**
+   * Class that holds where a transfer to a participant that is catching up has got to.
+   */
+  private static class Transfer {
+    private final Iterator<StorageEngine.Entry> entries;
+    private long lastUsedNanos;
+
+    private Transfer(Iterator<StorageEngine.Entry> entries) {
+      this.entries = entries;
+      this.lastUsedNanos = System.nanoTime();
+    }
   }
 
   /**
-   * Constructor that initializes the hash-map that is going to be the key-value store to be
-   * demonstrated in this project and the state of the server which is idle at the beginning.
+   * Constructor that initializes the multi-version store that is going to be the key-value store
+   * to be demonstrated in this project and the table of staged transactions, which is empty at the
+   * beginning. The contents of the store are recovered by loading the server's latest snapshot and
+   * replaying its write-ahead log from where the snapshot ends. A storage engine that keeps the
+   * store on disk needs no snapshot, and the log is replayed from its last checkpoint instead.
    *
-   * @throws RemoteException in case of communication related errors during the execution of a
-   *                         remote method call.
+   * @param votePolicy        The policy that decides this server's votes in the 2 phase commit
+   *                          protocol.
+   * @param readMode          How GET requests on keys of ongoing transactions are served.
+   * @param name              Unique name of this server among the participants (eg: host:port).
+   * @param storage           Name of the storage engine that holds the committed values, heap,
+   *                          offheap or disk.
+   * @param isOrdered         true to keep the keys sorted next to the storage engine, so that
+   *                          ranges of keys are scanned without going through all of them.
+   * @param dataDirectoryName Name of the directory, next to the jar, that holds this server's
+   *                          snapshot and write-ahead log. Each server on a machine needs its own
+   *                          directory.
+   * @throws IOException              in case the snapshot or write-ahead log can't be read or
+   *                                  opened for writing.
+   * @throws IllegalArgumentException if the storage engine is not a known one.
    */
-  public RequestHandlerImpl() throws RemoteException {
+  public RequestHandlerImpl(VotePolicy votePolicy, ReadMode readMode, String name, String storage,
+                            boolean isOrdered, String dataDirectoryName) throws IOException {
     super();
-    this.state = State.IDLE;
-    sc = new Scanner(System.in);
-    map = new ConcurrentHashMap<>();
+    this.name = name;
+    this.votePolicy = votePolicy;
+    this.readMode = readMode;
+    this.stagedTransactions = new HashMap<>();
+    this.preparedNanos = new HashMap<>();
+    this.committing = new ConcurrentHashMap<>();
+    this.abortedTransactions = new LinkedHashMap<>();
+    this.checkpointLock = new ReentrantReadWriteLock();
+    this.snapshotLock = new Object();
+    this.catchUpLock = new Object();
+    this.keysWrittenWhileCatchingUp = new HashSet<>();
+    this.catchUpChunkBytes = 256 * 1024;
+    this.catchUpBytesPerSecond = Long.MAX_VALUE;
+    this.transfers = new ConcurrentHashMap<>();
+    this.invalidator = new CacheInvalidator();
     Logger.showInfo("Populating HashMap\n");
 
-    // read values from file
+    Path baseDirectory = getBaseDirectory();
+    filePath = baseDirectory.resolve("contents.json").toString();
+    Path dataDirectory = Files.createDirectories(baseDirectory.resolve(dataDirectoryName));
+
+    snapshotPath = dataDirectory.resolve("snapshot.bin");
+    SnapshotFile.Header header = null;
+    int expectedKeys = 16;
+    if (Files.exists(snapshotPath)) {
+      // size the store up front so that it never has to be resized while the snapshot is loaded
+      header = SnapshotFile.readHeader(snapshotPath);
+      expectedKeys = (int) Math.min(header.getCount(), MAX_INITIAL_CAPACITY);
+    }
+    engine = StorageEngine.create(storage, expectedKeys, dataDirectory.resolve("store"));
+    store = new MultiVersionStore(engine, isOrdered);
+
+    long firstSegment = 1;
+    boolean hasSnapshot = engine.getCheckpoint() > 0 || header != null;
+    if (engine.getCheckpoint() > 0) {
+      // the engine kept the store on disk, so only the log after its checkpoint is replayed
+      firstSegment = engine.getCheckpoint();
+    } else if (header != null) {
+      SnapshotFile.load(snapshotPath, store);
+      firstSegment = header.getFirstSegment();
+    }
+
+    Recovery recovery = new Recovery();
+    log = new WriteAheadLog(dataDirectory, firstSegment, recovery);
+    if (!hasSnapshot && log.isEmpty()) {
+      // first start of this server, so carry over the values from the old json file if any
+      List<Mutation> mutations = readFromFile();
+      for (Mutation mutation : mutations) {
+        store.apply(mutation);
+      }
+      if (!mutations.isEmpty()) {
+        log.logCommit(0, mutations);
+      }
+    }
+    recovery.restageInDoubtTransactions();
+  }
+
+  static Path getBaseDirectory() throws IOException {
     try {
-      String fileName = "contents.json";
-      File file = new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI());
-      filePath = file.getParent() + "/" + fileName;
-      readFromFile();
+      File file = new File(RequestHandlerImpl.class.getProtectionDomain().getCodeSource()
+              .getLocation().toURI());
+      return file.getParentFile().toPath();
     } catch (URISyntaxException e) {
-      Logger.showError(e.getMessage());
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Method that starts taking snapshots of the store in the background. Each snapshot lets the
+   * write-ahead log segments that it covers be deleted.
+   *
+   * @param intervalMillis Time in milliseconds after which a new snapshot is taken.
+   * @param logBytes       Number of bytes written to the log after which a new snapshot is taken
+   *                       even if the interval has not passed yet.
+   */
+  public void startSnapshots(long intervalMillis, long logBytes) {
+    new Snapshotter(intervalMillis, logBytes, new Snapshotter.Task() {
+      @Override
+      public void takeSnapshot() throws IOException {
+        RequestHandlerImpl.this.takeSnapshot();
+      }
+
+      @Override
+      public long getLogSize() throws IOException {
+        return log.getCurrentSegmentSize();
+      }
+    }).start();
+  }
+
+  /**
+   * Method that starts resolving in-doubt transactions in the background. A transaction that has
+   * been prepared for longer than the given time without a decision from its coordinator, for
+   * example because the decision was lost or this server was restarted, is looked up on the
+   * coordinators until one of them knows how it ended.
+   *
+   * @param timeoutMillis Time in milliseconds that a prepared transaction waits for its decision
+   *                      before the coordinators are asked for it.
+   */
+  public void startInDoubtResolver(long timeoutMillis) {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "in-doubt-resolver");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> this.resolveInDoubtTransactions(timeoutMillis),
+            IN_DOUBT_CHECK_INTERVAL_MILLIS, IN_DOUBT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Method that starts removing expired keys in the background. Every participant removes the
+   * expired keys that it stores on its own, without a transaction, since the keys already read as
+   * deleted once their time has passed and every replica knows the same time. The clients that
+   * cache values are told about the removed keys like about committed ones.
+   *
+   * @param intervalMillis Time in milliseconds between two checks for expired keys.
+   */
+  public void startExpiryReaper(long intervalMillis) {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "expiry-reaper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::removeExpiredKeys, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  private void removeExpiredKeys() {
+    List<String> removed;
+    do {
+      // commits are held off for one batch at a time, so a key can't get a new value while it is
+      // being removed
+      synchronized (stagedTransactions) {
+        removed = store.removeExpired(System.currentTimeMillis(), EXPIRY_BATCH_SIZE);
+      }
+      if (!removed.isEmpty()) {
+        invalidator.invalidate(removed);
+      }
+    } while (removed.size() == EXPIRY_BATCH_SIZE);
+  }
+
+  private void resolveInDoubtTransactions(long timeoutMillis) {
+    List<Long> inDoubt = new ArrayList<>();
+    long now = System.nanoTime();
+    synchronized (stagedTransactions) {
+      for (Map.Entry<Long, Long> entry : preparedNanos.entrySet()) {
+        if (now - entry.getValue() >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+          inDoubt.add(entry.getKey());
+        }
+      }
+    }
+
+    for (long transactionId : inDoubt) {
+      Decision decision = this.askDecision(transactionId);
+      try {
+        if (decision == Decision.COMMIT) {
+          Logger.showInfo("Committing in-doubt transaction " + transactionId + "\n");
+          this.commit(transactionId);
+        } else if (decision == Decision.ABORT) {
+          Logger.showInfo("Aborting in-doubt transaction " + transactionId + "\n");
+          if (this.release(transactionId) != null) {
+            log.logAbort(transactionId);
+          }
+        }
+      } catch (RuntimeException | RemoteException e) {
+        Logger.showError("Failed to resolve transaction " + transactionId + ". " + e.getMessage());
+      }
+    }
+  }
+
+  private Decision askDecision(long transactionId) {
+    HashRing<Coordinator> coordinators = this.coordinators;
+    if (coordinators == null) {
+      return Decision.UNKNOWN;
+    }
+
+    // only the coordinator that started the transaction knows it, the others answer unknown
+    for (Coordinator coordinator : coordinators.getMembers().values()) {
+      try {
+        Decision decision = coordinator.getDecision(transactionId);
+        if (decision != Decision.UNKNOWN) {
+          return decision;
+        }
+      } catch (RemoteException e) {
+        // try the other coordinators, and this one again on the next round
+      }
+    }
+    return Decision.UNKNOWN;
+  }
+
+  /**
+   * Method to set how fast the values are copied from the other participants while catching up.
+   *
+   * @param chunkBytes     Rough number of bytes that are copied in one call.
+   * @param bytesPerSecond Maximum number of bytes that are copied per second.
+   */
+  public void setCatchUpLimits(int chunkBytes, long bytesPerSecond) {
+    this.catchUpChunkBytes = chunkBytes;
+    this.catchUpBytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * Method that is called before this server joins or rejoins the coordinators, after which it is
+   * catching up until {@link #catchUp()} has finished. While catching up, reads of the keys that
+   * it stores are sent to the other replicas, and the keys that transactions write are recorded so
+   * that copied values never overwrite them.
+   */
+  public void beginCatchUp() {
+    synchronized (stagedTransactions) {
+      pendingCatchUps++;
+    }
+  }
+
+  /**
+   * Method that copies the committed values of the keys that this server stores from the other
+   * participants. It is called once this server has joined the coordinators, so every transaction
+   * that started earlier has finished and every later one reaches this server as well. Keys that
+   * this server still has from before but that the other replicas no longer have are deleted, and
+   * a snapshot is taken at the end so that a restart does not have to copy everything again. The
+   * values are copied in chunks, with pauses between them to stay under the configured rate so
+   * that the other participants can keep serving their clients.
+   */
+  public void catchUp() {
+    synchronized (catchUpLock) {
+      try {
+        this.copyFromReplicas();
+        this.takeSnapshot();
+      } catch (IOException e) {
+        Logger.showError("Failed to take a snapshot after catching up. " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        synchronized (stagedTransactions) {
+          pendingCatchUps--;
+          if (pendingCatchUps == 0) {
+            keysWrittenWhileCatchingUp.clear();
+          }
+        }
+      }
+    }
+  }
+
+  private void copyFromReplicas() throws InterruptedException {
+    HashRing<RequestHandler> ring = this.ring;
+    if (ring == null || ring.getMembers().size() < 2) {
+      return;
+    }
+
+    // with full replication every participant has every key, so one of them is enough
+    boolean isFullyReplicated = ring.getReplicationFactor() >= ring.getMembers().size();
+    Set<String> received = new HashSet<>();
+    Set<String> donors = new HashSet<>();
+    boolean isComplete = true;
+    long startNanos = System.nanoTime();
+    long copiedBytes = 0;
+    for (Map.Entry<String, RequestHandler> member : ring.getMembers().entrySet()) {
+      if (member.getKey().equals(name)) {
+        continue;
+      }
+
+      Logger.showInfo("Catching up from " + member.getKey() + "\n");
+      long transferId = ThreadLocalRandom.current().nextLong();
+      try {
+        List<Mutation> chunk;
+        while (!(chunk = member.getValue().getTransferChunk(transferId, name,
+                catchUpChunkBytes)).isEmpty()) {
+          synchronized (stagedTransactions) {
+            for (Mutation entry : chunk) {
+              received.add(entry.getKey());
+              if (!keysWrittenWhileCatchingUp.contains(entry.getKey())) {
+                store.load(entry.getKey(), entry.getValue(), entry.getExpiresAt());
+              }
+              copiedBytes += entry.getKey().length() + entry.getValue().length();
+            }
+          }
+
+          long aheadNanos = (long) (copiedBytes * 1e9 / catchUpBytesPerSecond)
+                  - (System.nanoTime() - startNanos);
+          if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+          }
+        }
+        donors.add(member.getKey());
+        if (isFullyReplicated) {
+          break;
+        }
+      } catch (RemoteException e) {
+        Logger.showError("Failed to catch up from " + member.getKey() + ". " + e.getMessage());
+        isComplete = false;
+      }
+    }
+
+    if (donors.isEmpty() || (!isFullyReplicated && !isComplete)) {
+      Logger.showError("Not every key could be copied, so keys that were deleted while this participant was away are kept.");
+    } else {
+      this.deleteKeysMissingFrom(ring, donors, received);
+    }
+    Logger.showInfo("Caught up with " + received.size() + " keys\n");
+  }
+
+  private void deleteKeysMissingFrom(HashRing<RequestHandler> ring, Set<String> donors,
+                                     Set<String> received) {
+    synchronized (stagedTransactions) {
+      List<String> keys = new ArrayList<>();
+      for (String key : store.getKeys()) {
+        keys.add(key);
+      }
+      for (String key : keys) {
+        if (received.contains(key) || keysWrittenWhileCatchingUp.contains(key)) {
+          continue;
+        }
+        // a key is only known to be gone if a replica that stores it was copied from
+        List<String> owners = ring.getOwners(key);
+        if (owners.contains(name) && !Collections.disjoint(owners, donors)) {
+          store.apply(Mutation.delete(key));
+        }
+      }
+    }
+  }
+
+  private boolean isCatchingUp() {
+    return pendingCatchUps > 0;
+  }
+
+  private boolean isServedLocally(HashRing<RequestHandler> ring, String key) {
+    // the store may still be missing values while catching up, so the other replicas are asked
+    return ring == null || (!isCatchingUp() && ring.isOwner(key, name));
+  }
+
+  @Override
+  public List<Mutation> getTransferChunk(long transferId, String receiver, int maxBytes)
+          throws RemoteException {
+    if (isCatchingUp()) {
+      throw new RemoteException("Participant " + name + " is catching up itself.");
+    }
+
+    long now = System.nanoTime();
+    transfers.values().removeIf(transfer -> now - transfer.lastUsedNanos > TRANSFER_IDLE_NANOS);
+    // the entries are read from the live store, and values that change during the transfer reach
+    // the receiver through their transactions anyway
+    Transfer transfer = transfers.computeIfAbsent(transferId,
+            id -> new Transfer(store.getCommitted().iterator()));
+
+    HashRing<RequestHandler> ring = this.ring;
+    boolean isFullyReplicated = ring == null
+            || ring.getReplicationFactor() >= ring.getMembers().size();
+    List<Mutation> chunk = new ArrayList<>();
+    int bytes = 0;
+    synchronized (transfer) {
+      transfer.lastUsedNanos = now;
+      while (bytes < maxBytes && transfer.entries.hasNext()) {
+        StorageEngine.Entry entry = transfer.entries.next();
+        List<String> owners = isFullyReplicated ? null : ring.getOwners(entry.getKey());
+        if (owners == null || (owners.contains(receiver) && owners.contains(name))) {
+          chunk.add(Mutation.put(entry.getKey(), entry.getValue(), entry.getExpiresAt()));
+          bytes += entry.getKey().length() + entry.getValue().length();
+        }
+      }
+    }
+    if (chunk.isEmpty()) {
+      transfers.remove(transferId);
+    }
+    return chunk;
+  }
+
+  private void takeSnapshot() throws IOException {
+    synchronized (snapshotLock) {
+      this.writeSnapshot();
+    }
+  }
+
+  private void writeSnapshot() throws IOException {
+    // commits are held off while the log switches segments, so every commit in the old segments
+    // has been applied to the store before the store is written
+    long firstSegment;
+    checkpointLock.writeLock().lock();
+    try {
+      firstSegment = log.rotate();
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+
+    // prepares of transactions that are still waiting for a decision would be lost with the old
+    // segments, so they are written again to the new one
+    Map<Long, List<Mutation>> undecided;
+    synchronized (stagedTransactions) {
+      undecided = new HashMap<>(stagedTransactions);
+    }
+    for (Map.Entry<Long, List<Mutation>> entry : undecided.entrySet()) {
+      log.logPrepare(entry.getKey(), entry.getValue());
+    }
+
+    if (engine.checkpoint(firstSegment)) {
+      // the snapshot would need the log segments that are about to be deleted
+      Files.deleteIfExists(snapshotPath);
+    } else {
+      SnapshotFile.write(snapshotPath, firstSegment, store.getCommitted());
+    }
+    log.deleteSegmentsBefore(firstSegment);
+  }
+
+  /**
+   * Visitor that rebuilds the store from the write-ahead log. Transactions that were prepared
+   * but have no commit/abort record are in doubt and are staged again, so their keys stay locked
+   * until the coordinator's decision arrives.
+   */
+  private class Recovery implements WriteAheadLog.Visitor {
+    private final Map<Long, List<Mutation>> inDoubt = new LinkedHashMap<>();
+    private final Set<Long> decided = new HashSet<>();
+
+    @Override
+    public void onPrepare(long transactionId, List<Mutation> mutations) {
+      // a decision can be logged before a prepare that was still being written when it arrived or
+      // that was written again by a snapshot
+      if (!decided.contains(transactionId)) {
+        inDoubt.put(transactionId, mutations);
+      }
+    }
+
+    @Override
+    public void onCommit(long transactionId, List<Mutation> mutations) {
+      inDoubt.remove(transactionId);
+      decided.add(transactionId);
+      for (Mutation mutation : mutations) {
+        store.apply(mutation);
+      }
+    }
+
+    @Override
+    public void onAbort(long transactionId) {
+      inDoubt.remove(transactionId);
+      decided.add(transactionId);
+    }
+
+    @Override
+    public void onForget(long transactionId) {
+      // only the coordinator forgets its decisions
+    }
+
+    private void restageInDoubtTransactions() {
+      for (Map.Entry<Long, List<Mutation>> entry : inDoubt.entrySet()) {
+        Logger.showInfo("Transaction " + entry.getKey() + " is in doubt. Waiting for the decision of the coordinator.\n");
+        for (Mutation mutation : entry.getValue()) {
+          store.stage(entry.getKey(), mutation);
+        }
+        stagedTransactions.put(entry.getKey(), entry.getValue());
+        preparedNanos.put(entry.getKey(), System.nanoTime());
+      }
     }
   }
 
-  private void readFromFile() {
+  private List<Mutation> readFromFile() {
+    List<Mutation> mutations = new ArrayList<>();
     try {
       InputStream is = new FileInputStream(filePath);
       Reader reader = new InputStreamReader(is);
@@ -75,154 +601,648 @@ public class RequestHandlerImpl implements RequestHandler {
         JSONObject jsonPair = (JSONObject) pair;
         String key = (String) jsonPair.get("key");
         String value = (String) jsonPair.get("value");
-        map.put(key, value);
+        mutations.add(Mutation.put(key, value));
       }
     } catch (FileNotFoundException ignored) {
-      // file does not exist. But hashmap is already initialized hence ignore.
+      // file does not exist. But the store is already initialized hence ignore.
     } catch (IOException | ParseException e) {
       Logger.showError(e.getMessage());
     }
+    return mutations;
   }
 
   @Override
-  public void setCoordinator(Coordinator coordinator) {
-    this.coordinator = coordinator;
+  public void setCoordinators(Map<String, Coordinator> coordinators) {
+    // every coordinator is a replica of every key, in the order in which they take over the key
+    this.coordinators = new HashRing<>(coordinators, Math.max(1, coordinators.size()));
+  }
+
+  @Override
+  public void setMembers(Map<String, RequestHandler> members, int replicationFactor) {
+    this.ring = new HashRing<>(members, replicationFactor);
+    Logger.showInfo("Now part of " + members.size() + " participants, each key is stored on "
+            + Math.min(replicationFactor, members.size()) + "\n");
+
+    // participants that have just joined or were restarted don't know the caching clients yet
+    Map<String, RequestHandler> others = new LinkedHashMap<>(members);
+    others.remove(name);
+    invalidator.shareWith(others.values());
+  }
+
+  @Override
+  public boolean subscribe(String name, CacheListener listener) {
+    boolean wasSubscribed = invalidator.subscribe(name, listener);
+    HashRing<RequestHandler> ring = this.ring;
+    if (ring == null) {
+      return wasSubscribed;
+    }
+    for (Map.Entry<String, RequestHandler> member : ring.getMembers().entrySet()) {
+      if (member.getKey().equals(this.name)) {
+        continue;
+      }
+      try {
+        wasSubscribed = member.getValue().subscribeLocal(Map.of(name, listener)) && wasSubscribed;
+      } catch (RemoteException | RuntimeException e) {
+        // the participant gets the client passed on once it is back, but it may have committed
+        // keys that the client wasn't told about
+        Logger.showError("Failed to pass on cache subscription to " + member.getKey() + ". "
+                + e.getMessage());
+        wasSubscribed = false;
+      }
+    }
+    return wasSubscribed;
+  }
+
+  @Override
+  public boolean subscribeLocal(Map<String, CacheListener> listeners) {
+    boolean wasSubscribed = true;
+    for (Map.Entry<String, CacheListener> entry : listeners.entrySet()) {
+      wasSubscribed = invalidator.subscribe(entry.getKey(), entry.getValue()) && wasSubscribed;
+    }
+    return wasSubscribed;
   }
 
   @Override
   public String handleRequest(String command) throws IOException, InterruptedException {
-    command = command.trim();
-    String res;
-
-    String[] req = command.split("\\t+");
-    req[0] = req[0].toUpperCase();
-
-    boolean shouldProceed;
-    switch (req[0]) {
-      case "GET":
-        validateRequest(req, 2);
-        shouldProceed = !coordinator.isPartOfOngoingTransaction(req[1]);
-        if (shouldProceed) {
-//          Logger.showRequest(command);
-          res = this.get(req[1]);
+    Request request;
+    try {
+      request = Request.parse(command);
+    } catch (IllegalArgumentException e) {
+      Logger.showError("Invalid request");
+      throw e;
+    }
+    Response res = dispatch(request);
+    switch (request.getOperation()) {
+      case MGET:
+      case SCAN:
+      case PREFIX:
+        // the text of these responses only counts the keys that were found
+        return res.getValues().toString();
+
+      default:
+        return res.getText();
+    }
+  }
+
+  @Override
+  public Response handle(Request request) throws InterruptedException {
+    try {
+      return dispatch(request);
+    } catch (RuntimeException | RemoteException e) {
+      return Response.failure(e.getMessage());
+    }
+  }
+
+  private Response dispatch(Request request) throws RemoteException, InterruptedException {
+    switch (request.getOperation()) {
+      case GET:
+        return Response.success(this.get(request.getKey()));
+
+      case PUT:
+        if (request.getTtlSeconds() > 0) {
+          this.put(request.getKey(), request.getValue(), request.getTtlSeconds());
         } else {
-          throw new RuntimeException("Request aborted. There is an ongoing transaction that deals with the specified key.");
+          this.put(request.getKey(), request.getValue());
         }
-        break;
+        return Response.success("Put successful");
 
-      case "PUT":
-        validateRequest(req, 3);
-        shouldProceed = coordinator.broadcastPrepare(req[1]);
-        if (shouldProceed) {
-//          Logger.showRequest(command);
-          coordinator.broadcastPut(req[1], req[2]);
-          res = "Put successful";
-        } else {
-          throw new RuntimeException("Request aborted. 1 or more participants failed to prepare/commit.");
+      case DELETE:
+        this.delete(request.getKey());
+        return Response.success("Delete successful");
+
+      case MGET:
+        return Response.success(this.getAll(request.getKeys()));
+
+      case MPUT:
+        this.putAll(request.getEntries());
+        return Response.success("Put of " + request.getKeys().size() + " keys successful");
+
+      case MDELETE:
+        this.deleteAll(request.getKeys());
+        return Response.success("Delete of " + request.getKeys().size() + " keys successful");
+
+      case CAS:
+        this.compareAndSet(request.getKey(), request.getExpectedValue(), request.getValue());
+        return Response.success("Compare-and-set successful");
+
+      case INCR:
+        this.increment(request.getKey(), Long.parseLong(request.getValue()));
+        return Response.success("Increment successful");
+
+      case APPEND:
+        this.append(request.getKey(), request.getValue());
+        return Response.success("Append successful");
+
+      case SCAN:
+      case PREFIX:
+        return Response.success(this.scanAll(request.getRangeStart(), request.getRangeEnd()));
+
+      case STOP:
+        return Response.success("Disconnected client");
+
+      default:
+        throw new IllegalArgumentException("Unsupported operation " + request.getOperation());
+    }
+  }
+
+  @Override
+  public Vote askPrepare(long transactionId, List<Mutation> mutations) throws RemoteException {
+    Vote vote;
+    List<Mutation> staged = new ArrayList<>();
+    synchronized (stagedTransactions) {
+      // the abort decision can overtake a prepare that the coordinator stopped waiting for
+      if (abortedTransactions.remove(transactionId) != null) {
+        return Vote.REJECTED;
+      }
+      vote = this.stageAll(transactionId, mutations, staged);
+      if (vote == Vote.YES) {
+        stagedTransactions.put(transactionId, staged);
+        preparedNanos.put(transactionId, System.nanoTime());
+      }
+    }
+
+    if (vote == Vote.YES) {
+      try {
+        log.logPrepare(transactionId, staged);
+      } catch (IOException e) {
+        Logger.showError(e.getMessage());
+        vote = Vote.REJECTED;
+      }
+    }
+
+    if (!votePolicy.votePrepare(describe(mutations), vote == Vote.YES) && vote == Vote.YES) {
+      vote = Vote.REJECTED;
+    }
+    if (vote != Vote.YES && this.release(transactionId) != null) {
+      log.logAbort(transactionId);
+    }
+    return vote;
+  }
+
+  private Vote stageAll(long transactionId, List<Mutation> mutations, List<Mutation> staged) {
+    for (Mutation mutation : mutations) {
+      Vote vote = this.stage(transactionId, mutation, staged);
+      if (vote != Vote.YES) {
+        // all or nothing, so undo the versions that were already staged
+        for (Mutation stagedMutation : staged) {
+          store.discard(transactionId, stagedMutation.getKey());
         }
-        break;
+        staged.clear();
+        return vote;
+      }
+    }
+    return Vote.YES;
+  }
 
-      case "DELETE":
-        validateRequest(req, 2);
-        shouldProceed = coordinator.broadcastPrepare(req[1]);
-        if (shouldProceed) {
-//          Logger.showRequest(command);
-          coordinator.broadcastDelete(req[1]);
-          res = "Delete successful";
-        } else {
-          throw new RuntimeException("Request aborted. 1 or more participants failed to prepare/commit.");
+  private Vote stage(long transactionId, Mutation mutation, List<Mutation> staged) {
+    String key = mutation.getKey();
+    // the value of a key that hasn't been copied yet is unknown, so the change has to wait
+    if (store.isStaged(key) || (!mutation.isResolved() && isCatchingUp())) {
+      return Vote.CONFLICT;
+    }
+
+    // commits are applied while holding the lock on the staged transactions like this is called,
+    // so the value can't change before the resolved mutation is staged
+    Mutation resolved = mutation;
+    if (!mutation.isResolved()) {
+      String currentValue = store.get(key);
+      // a key that has expired but is not removed yet starts over without a time
+      resolved = mutation.resolve(currentValue,
+              currentValue == null ? 0 : store.getExpiresAt(key));
+    }
+    // a key may not have been copied yet while catching up
+    if (resolved == null || (resolved.isDelete() && !store.contains(key) && !isCatchingUp())) {
+      return Vote.REJECTED;
+    }
+    if (!store.stage(transactionId, resolved)) {
+      return Vote.CONFLICT;
+    }
+    staged.add(resolved);
+    return Vote.YES;
+  }
+
+  private static String describe(List<Mutation> mutations) {
+    if (mutations.size() == 1) {
+      return mutations.get(0).getKey();
+    }
+    return mutations.size() + " keys";
+  }
+
+  @Override
+  public void commit(long transactionId) throws RemoteException {
+    List<Mutation> mutations;
+    CompletableFuture<Void> applied = new CompletableFuture<>();
+    CompletableFuture<Void> running;
+    synchronized (stagedTransactions) {
+      mutations = stagedTransactions.get(transactionId);
+      // the prepare is logged before voting yes, so a committed transaction that isn't prepared
+      // here anymore has already been applied
+      if (mutations == null) {
+        return;
+      }
+      // the coordinator and the in-doubt resolver can both deliver the same commit. The later one
+      // waits for the first, so that it isn't logged again after a newer commit of the same keys
+      running = committing.putIfAbsent(transactionId, applied);
+    }
+    if (running != null) {
+      running.join();
+      return;
+    }
+
+    checkpointLock.readLock().lock();
+    try {
+      try {
+        log.logCommit(transactionId, mutations);
+      } catch (IOException e) {
+        // the coordinator has already decided, so the commit still has to be applied
+        Logger.showError(e.getMessage());
+      }
+      synchronized (stagedTransactions) {
+        stagedTransactions.remove(transactionId);
+        preparedNanos.remove(transactionId);
+        for (Mutation mutation : mutations) {
+          store.commit(transactionId, mutation.getKey());
+          if (isCatchingUp()) {
+            keysWrittenWhileCatchingUp.add(mutation.getKey());
+          }
         }
-        break;
+      }
+    } finally {
+      checkpointLock.readLock().unlock();
+      committing.remove(transactionId);
+      applied.complete(null);
+    }
 
-      case "STOP":
-        validateRequest(req, 1);
-//        Logger.showRequest(command);
-        this.writeToFile();
-        res = "Disconnected client";
+    List<String> keys = new ArrayList<>();
+    for (Mutation mutation : mutations) {
+      keys.add(mutation.getKey());
+    }
+    invalidator.invalidate(keys);
+  }
+
+  @Override
+  public void abort(long transactionId) throws RemoteException {
+    synchronized (stagedTransactions) {
+      if (this.release(transactionId) == null) {
+        this.rememberEarlyAbort(transactionId);
+        return;
+      }
+    }
+    log.logAbort(transactionId);
+  }
+
+  private void rememberEarlyAbort(long transactionId) {
+    // the prepare that this abort overtook may never come, for example because this server voted
+    // no or the prepare was lost, so the abort is only kept for a while. A prepare that comes even
+    // later is resolved as aborted by asking the coordinator
+    long now = System.nanoTime();
+    Iterator<Long> addedNanos = abortedTransactions.values().iterator();
+    while (addedNanos.hasNext()) {
+      long added = addedNanos.next();
+      if (now - added < ABORT_RETENTION_NANOS && abortedTransactions.size() < MAX_EARLY_ABORTS) {
         break;
+      }
+      addedNanos.remove();
+    }
+    abortedTransactions.put(transactionId, now);
+  }
 
-      default:
-        Logger.showError("Invalid request");
-        throw new IllegalArgumentException("Invalid request. Must be GET, PUT, DELETE or STOP only.");
+  private List<Mutation> release(long transactionId) {
+    synchronized (stagedTransactions) {
+      List<Mutation> mutations = stagedTransactions.remove(transactionId);
+      preparedNanos.remove(transactionId);
+      if (mutations != null) {
+        for (Mutation mutation : mutations) {
+          store.discard(transactionId, mutation.getKey());
+        }
+      }
+      return mutations;
+    }
+  }
+
+  @Override
+  public String get(String key) throws RemoteException {
+    HashRing<RequestHandler> ring = this.ring;
+    if (!isServedLocally(ring, key)) {
+      String value = getFromReplicas(ring, List.of(key)).get(key);
+      if (value == null) {
+        throw new IllegalArgumentException("Can't get key that doesn't exist");
+      }
+      return value;
     }
 
-    return res;
+    // keys of prepared transactions are tracked locally, so reads never have to ask the coordinator
+    if (readMode == ReadMode.REJECT_PENDING && store.isStaged(key)) {
+      throw new RuntimeException("Request aborted. There is an ongoing transaction that deals with the specified key.");
+    }
+    String value = store.get(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Can't get key that doesn't exist");
+    }
+    return value;
   }
 
   @Override
-  public boolean isBusy() throws RemoteException {
-    return this.state == State.BUSY;
+  public Map<String, String> getAll(List<String> keys) throws RemoteException {
+    HashRing<RequestHandler> ring = this.ring;
+    if (ring == null) {
+      return getLocal(keys);
+    }
+
+    // keys that are stored elsewhere are read in one call per primary owner
+    List<String> localKeys = new ArrayList<>();
+    Map<String, List<String>> keysByOwner = new LinkedHashMap<>();
+    for (String key : keys) {
+      List<String> owners = ring.getOwners(key);
+      if (owners.isEmpty() || (!isCatchingUp() && owners.contains(name))) {
+        localKeys.add(key);
+      } else {
+        keysByOwner.computeIfAbsent(owners.get(0), owner -> new ArrayList<>()).add(key);
+      }
+    }
+
+    Map<String, String> found = new HashMap<>(getLocal(localKeys));
+    for (List<String> ownerKeys : keysByOwner.values()) {
+      found.putAll(getFromReplicas(ring, ownerKeys));
+    }
+
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String key : keys) {
+      String value = found.get(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  private Map<String, String> getFromReplicas(HashRing<RequestHandler> ring, List<String> keys)
+          throws RemoteException {
+    RemoteException failure = null;
+    for (RequestHandler replica : ring.getReplicas(keys.get(0))) {
+      try {
+        return replica.getLocal(keys);
+      } catch (RemoteException e) {
+        failure = e;
+      }
+    }
+    if (failure == null || keys.size() == 1) {
+      throw new RemoteException("No participant that stores the key " + keys.get(0) + " is reachable.", failure);
+    }
+
+    // the keys only share their primary owner, so look for each of them on its own replicas
+    Map<String, String> values = new HashMap<>();
+    for (String key : keys) {
+      values.putAll(getFromReplicas(ring, List.of(key)));
+    }
+    return values;
   }
 
   @Override
-  public void setIdleState() throws RemoteException {
-    this.state = State.IDLE;
+  public Map<String, String> getLocal(List<String> keys) throws RemoteException {
+    if (isCatchingUp()) {
+      // callers move on to the next replica
+      throw new RemoteException("Participant " + name + " is catching up.");
+    }
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String key : keys) {
+      if (readMode == ReadMode.REJECT_PENDING && store.isStaged(key)) {
+        throw new RuntimeException("Request aborted. There is an ongoing transaction that deals with the key " + key + ".");
+      }
+      String value = store.get(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  private Map<String, String> scanAll(String start, String end) throws RemoteException {
+    // callers that can't ask for pages themselves get all of them at once
+    Map<String, String> values = new LinkedHashMap<>();
+    String pageStart = start;
+    while (pageStart != null) {
+      Map<String, String> page = this.scan(pageStart, end, SCAN_PAGE_SIZE);
+      values.putAll(page);
+      pageStart = null;
+      if (page.size() == SCAN_PAGE_SIZE) {
+        List<String> keys = new ArrayList<>(page.keySet());
+        pageStart = Request.nextKey(keys.get(keys.size() - 1));
+      }
+    }
+    return values;
   }
 
   @Override
-  public void setBusyState() throws RemoteException {
-    this.state = State.BUSY;
+  public Map<String, String> scan(String start, String end, int limit) throws RemoteException {
+    HashRing<RequestHandler> ring = this.ring;
+    if (ring == null) {
+      return scanLocal(start, end, limit);
+    }
+
+    // this server's own part is read without going through the transport
+    Map<String, RequestHandler> members = new LinkedHashMap<>();
+    members.put(name, this);
+    for (Map.Entry<String, RequestHandler> member : ring.getMembers().entrySet()) {
+      members.putIfAbsent(member.getKey(), member.getValue());
+    }
+    RemoteException failure = null;
+    if (ring.getReplicationFactor() >= ring.getMembers().size()) {
+      // every participant stores every key, so any one of them can serve the whole range
+      for (RequestHandler member : members.values()) {
+        try {
+          return member.scanLocal(start, end, limit);
+        } catch (RemoteException e) {
+          failure = e;
+        }
+      }
+      throw new RemoteException("No participant is reachable to scan the keys.", failure);
+    }
+
+    // every participant stores a part of the range, so the smallest keys of each part are merged.
+    // Each key is stored on several participants, so the range is still complete as long as fewer
+    // of them than the replication factor can't be reached.
+    TreeMap<String, String> merged = new TreeMap<>();
+    int failures = 0;
+    for (RequestHandler member : members.values()) {
+      try {
+        merged.putAll(member.scanLocal(start, end, limit));
+      } catch (RemoteException e) {
+        failure = e;
+        failures++;
+      }
+    }
+    if (failures >= Math.min(ring.getReplicationFactor(), ring.getMembers().size())) {
+      throw new RemoteException("Too many participants are unreachable to scan the keys.", failure);
+    }
+
+    Map<String, String> values = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : merged.entrySet()) {
+      if (values.size() == limit) {
+        break;
+      }
+      values.put(entry.getKey(), entry.getValue());
+    }
+    return values;
   }
 
   @Override
-  public boolean askPrepare() throws RemoteException {
-    if (isBusy()) {
-      return false;
+  public Map<String, String> scanLocal(String start, String end, int limit)
+          throws RemoteException {
+    if (isCatchingUp()) {
+      // callers move on to the next participant
+      throw new RemoteException("Participant " + name + " is catching up.");
     }
-    setBusyState();
-    Logger.showInfo("New transaction started. Are you prepared? (yes/no) : ");
-    return sc.nextLine().trim().equalsIgnoreCase("yes");
+    Map<String, String> values = store.scan(start, end, limit);
+    if (readMode == ReadMode.REJECT_PENDING) {
+      for (String key : values.keySet()) {
+        if (store.isStaged(key)) {
+          throw new RuntimeException("Request aborted. There is an ongoing transaction that deals with the key " + key + ".");
+        }
+      }
+    }
+    return values;
   }
 
   @Override
-  public boolean askCommit() throws RemoteException {
-    Logger.showInfo("Are you ready to commit? (yes/no) : ");
-    return sc.nextLine().trim().equalsIgnoreCase("yes");
+  public void put(String key, String value) throws RemoteException, InterruptedException {
+    this.runTransaction(List.of(Mutation.put(key, value)));
   }
 
   @Override
-  public String get(String key) {
-    if (!map.containsKey(key)) {
-      throw new IllegalArgumentException("Can't get key that doesn't exist");
+  public void put(String key, String value, long ttlSeconds)
+          throws RemoteException, InterruptedException {
+    if (ttlSeconds <= 0) {
+      throw new IllegalArgumentException("Time to live must be at least 1 second.");
     }
-    return map.get(key);
+    // every replica gets the same time, so they all drop the key at about the same moment
+    long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+    this.runTransaction(List.of(Mutation.put(key, value, expiresAt)));
+  }
+
+  @Override
+  public void compareAndSet(String key, String expectedValue, String value)
+          throws RemoteException, InterruptedException {
+    this.runTransaction(List.of(Mutation.compareAndSet(key, expectedValue, value)));
+  }
+
+  @Override
+  public void increment(String key, long delta) throws RemoteException, InterruptedException {
+    this.runUpdate(Mutation.increment(key, delta));
   }
 
   @Override
-  public void put(String key, String value) throws RuntimeException {
-    map.put(key, value);
+  public void append(String key, String value) throws RemoteException, InterruptedException {
+    this.runUpdate(Mutation.append(key, value));
   }
 
   @Override
-  public void delete(String key) {
-    if (!map.containsKey(key)) {
+  public void putAll(Map<String, String> entries) throws RemoteException, InterruptedException {
+    List<Mutation> mutations = new ArrayList<>();
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      mutations.add(Mutation.put(entry.getKey(), entry.getValue()));
+    }
+    this.runTransaction(mutations);
+  }
+
+  @Override
+  public void delete(String key) throws RemoteException, InterruptedException {
+    if (!findMissing(List.of(key)).isEmpty()) {
       throw new IllegalArgumentException("Can't delete key that doesn't exist");
     }
-    map.remove(key);
+    this.runTransaction(List.of(Mutation.delete(key)));
   }
 
-  private void writeToFile() throws IOException {
-    // write to file and disconnect client
-    JSONObject jsonObject = new JSONObject();
-    JSONArray data = new JSONArray();
-    for (String key : map.keySet()) {
-      JSONObject details = new JSONObject();
-      details.put("key", key);
-      details.put("value", map.get(key));
-      data.add(details);
+  @Override
+  public void deleteAll(List<String> keys) throws RemoteException, InterruptedException {
+    List<String> missing = findMissing(keys);
+    if (!missing.isEmpty()) {
+      throw new IllegalArgumentException("Can't delete key " + missing.get(0) + " that doesn't exist");
     }
-    jsonObject.put("data", data);
+    List<Mutation> mutations = new ArrayList<>();
+    for (String key : keys) {
+      mutations.add(Mutation.delete(key));
+    }
+    this.runTransaction(mutations);
+  }
 
-    FileWriter writer = new FileWriter(filePath);
-    writer.write(jsonObject.toJSONString());
-    writer.flush();
-    writer.close();
+  private List<String> findMissing(List<String> keys) throws RemoteException {
+    HashRing<RequestHandler> ring = this.ring;
+    List<String> missing = new ArrayList<>();
+    List<String> remoteKeys = new ArrayList<>();
+    for (String key : keys) {
+      if (isServedLocally(ring, key)) {
+        if (!store.contains(key)) {
+          missing.add(key);
+        }
+      } else {
+        remoteKeys.add(key);
+      }
+    }
+
+    if (!remoteKeys.isEmpty()) {
+      Map<String, String> found = getAll(remoteKeys);
+      for (String key : remoteKeys) {
+        if (!found.containsKey(key)) {
+          missing.add(key);
+        }
+      }
+    }
+    return missing;
+  }
+
+  private void runTransaction(List<Mutation> mutations)
+          throws RemoteException, InterruptedException {
+    if (mutations.isEmpty()) {
+      throw new IllegalArgumentException("A transaction needs at least one key.");
+    }
+    this.checkOutcome(mutations, executeOnCoordinator(mutations));
+  }
+
+  private void runUpdate(Mutation mutation) throws RemoteException, InterruptedException {
+    // an update doesn't depend on a value that the client has read and an aborted attempt changes
+    // nothing, so an update that lost the race for its key to another transaction is tried again
+    // here instead of by every client
+    List<Mutation> mutations = List.of(mutation);
+    Outcome outcome = executeOnCoordinator(mutations);
+    for (int attempt = 1; outcome == Outcome.CONFLICT && attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(1, UPDATE_BACKOFF_MILLIS * attempt + 1));
+      outcome = executeOnCoordinator(mutations);
+    }
+    this.checkOutcome(mutations, outcome);
   }
 
-  private void validateRequest(String[] req, int len) {
-    if (req.length != len) {
-      String msg = "Invalid number of arguments with " + req[0] + " request. Must be exactly " + (len - 1);
-      throw new IllegalArgumentException(msg);
+  private void checkOutcome(List<Mutation> mutations, Outcome outcome) {
+    switch (outcome) {
+      case COMMITTED:
+        return;
+
+      case CONFLICT:
+        throw new RuntimeException("Request aborted. There is an ongoing transaction that deals with the specified key.");
+
+      case REJECTED:
+        if (!mutations.get(0).isResolved()) {
+          throw new RuntimeException("Request aborted. The current value of the key doesn't allow the change.");
+        }
+        throw new RuntimeException("Request aborted. 1 or more participants refused to prepare.");
+
+      default:
+        throw new RuntimeException("Request aborted. 1 or more participants failed to prepare/commit.");
+    }
+  }
+
+  private Outcome executeOnCoordinator(List<Mutation> mutations)
+          throws RemoteException, InterruptedException {
+    RemoteException failure = null;
+    for (Coordinator coordinator : coordinators.getReplicas(mutations.get(0).getKey())) {
+      try {
+        return coordinator.executeTransaction(mutations);
+      } catch (ConnectException | ConnectIOException e) {
+        // the call never reached this coordinator, so it is safe to try the next one
+        Logger.showError("Coordinator can't be reached. Trying the next one.");
+        failure = e;
+      }
     }
+    throw new RemoteException("No coordinator can be reached.", failure);
   }
 }
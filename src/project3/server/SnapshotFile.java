@@ -0,0 +1,213 @@
+package project3.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class that reads and writes the snapshot file of a participant. A snapshot holds every key-value
+ * pair of the store along with the number of the first write-ahead log segment that is not covered
+ * by it, so that recovery only has to replay the log from that segment onwards.
+ *
+ * <p>The file starts with a header (magic number, version, first segment and number of entries)
+ * which is followed by the entries, each stored as the length and UTF-8 bytes of the key and then
+ * of the value, followed by the time at which the key expires (0 if never). Snapshots of the first
+ * version have no times, and are still loaded with keys that never expire.
+ */
+public class SnapshotFile {
+  private static final int MAGIC = 0x534e4150;
+  private static final int VERSION = 2;
+  private static final int VERSION_WITHOUT_EXPIRY = 1;
+  private static final long COUNT_OFFSET = 16;
+  private static final int HEADER_SIZE = 24;
+  private static final long REGION_SIZE = 256 * 1024 * 1024;
+
+  /**
+   * Method that streams the given key-value pairs to a snapshot file. The pairs are written to a
+   * temporary file first which then replaces the old snapshot in one step, so a crash while
+   * writing never leaves a broken snapshot behind. The pairs are read one by one and can keep
+   * changing while they are written. A key that is written more than once is loaded with the
+   * value that comes last.
+   *
+   * @param path         Path of the snapshot file.
+   * @param firstSegment Number of the first log segment that is not covered by the snapshot.
+   * @param entries      The key-value pairs to write, along with the times at which they expire.
+   * @throws IOException in case the snapshot can't be written.
+   */
+  public static void write(Path path, long firstSegment, Iterable<StorageEngine.Entry> entries)
+          throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(firstSegment);
+      out.writeLong(0);
+
+      long count = 0;
+      for (StorageEngine.Entry entry : entries) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+        out.writeLong(entry.getExpiresAt());
+        count++;
+      }
+      out.flush();
+
+      // the number of entries is only known once they have all been gone through
+      ByteBuffer countBuffer = ByteBuffer.allocate(Long.BYTES).putLong(0, count);
+      channel.write(countBuffer, COUNT_OFFSET);
+      channel.force(true);
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Method that reads the header of a snapshot file.
+   *
+   * @param path Path of the snapshot file.
+   * @return The header of the snapshot.
+   * @throws IOException in case the snapshot can't be read or is not a snapshot file.
+   */
+  public static Header readHeader(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) == -1) {
+          throw new IOException(path + " is not a snapshot file.");
+        }
+      }
+      header.flip();
+      int magic = header.getInt();
+      int version = header.getInt();
+      if (magic != MAGIC || (version != VERSION && version != VERSION_WITHOUT_EXPIRY)) {
+        throw new IOException(path + " is not a snapshot file.");
+      }
+      return new Header(version, header.getLong(), header.getLong());
+    }
+  }
+
+  /**
+   * Method that loads all the entries of a snapshot file into the given store. The file is memory
+   * mapped one region at a time and the entries are decoded straight out of the mapped memory, so
+   * loading is limited by how fast the disk can be read.
+   *
+   * @param path  Path of the snapshot file.
+   * @param store The key-value store to fill. It should already be sized for the number of entries
+   *              in the header so that it does not have to grow while loading.
+   * @throws IOException in case the snapshot can't be read.
+   */
+  public static void load(Path path, MultiVersionStore store) throws IOException {
+    Header header = readHeader(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedReader reader = new MappedReader(channel, HEADER_SIZE);
+      boolean hasExpiry = header.version != VERSION_WITHOUT_EXPIRY;
+      for (long i = 0; i < header.count; i++) {
+        String key = reader.readString();
+        String value = reader.readString();
+        store.load(key, value, hasExpiry ? reader.readLong() : 0);
+      }
+    }
+  }
+
+  /**
+   * Class that holds the header of a snapshot file.
+   */
+  public static class Header {
+    private final int version;
+    private final long firstSegment;
+    private final long count;
+
+    private Header(int version, long firstSegment, long count) {
+      this.version = version;
+      this.firstSegment = firstSegment;
+      this.count = count;
+    }
+
+    /**
+     * Method to get the number of the first log segment that is not covered by the snapshot.
+     *
+     * @return The number of the segment.
+     */
+    public long getFirstSegment() {
+      return firstSegment;
+    }
+
+    /**
+     * Method to get the number of entries in the snapshot.
+     *
+     * @return The number of entries.
+     */
+    public long getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Reader that goes through a file by memory mapping it one region at a time, since a single
+   * mapping can't be larger than 2 GB.
+   */
+  private static class MappedReader {
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private byte[] scratch;
+
+    private MappedReader(FileChannel channel, long position) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+      this.scratch = new byte[256];
+      map(position, 0);
+    }
+
+    private String readString() throws IOException {
+      ensure(Integer.BYTES);
+      int length = region.getInt();
+      ensure(length);
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      region.get(scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private long readLong() throws IOException {
+      ensure(Long.BYTES);
+      return region.getLong();
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (region.remaining() < bytes) {
+        // entries can cross the end of a region, so the next region starts where this one stopped
+        map(regionStart + region.position(), bytes);
+      }
+    }
+
+    private void map(long position, int minimum) throws IOException {
+      long length = Math.min(size - position, Math.max(REGION_SIZE, minimum));
+      if (length < minimum) {
+        throw new EOFException("Snapshot file ends in the middle of an entry.");
+      }
+      region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      regionStart = position;
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,89 @@
+package project3.server;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import project3.Logger;
+
+/**
+ * Class that takes snapshots of a participant's key-value store in the background. A snapshot is
+ * taken once the configured interval has passed since the last one, or earlier if the write-ahead
+ * log has grown past the configured size. Snapshots are taken on their own thread so that they
+ * never hold up the requests of the clients.
+ */
+public class Snapshotter {
+  private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+  private final long intervalMillis;
+  private final long logBytes;
+  private final Task task;
+  private final ScheduledExecutorService scheduler;
+  private long lastSnapshotMillis;
+
+  /**
+   * Interface for the work that needs to be done to take a snapshot.
+   */
+  public interface Task {
+    /**
+     * Method that takes a snapshot.
+     *
+     * @throws IOException in case the snapshot can't be written.
+     */
+    void takeSnapshot() throws IOException;
+
+    /**
+     * Method to get the number of bytes written to the log since the last snapshot.
+     *
+     * @return The number of bytes.
+     * @throws IOException in case the size of the log can't be read.
+     */
+    long getLogSize() throws IOException;
+  }
+
+  /**
+   * Constructor to initialize when snapshots should be taken.
+   *
+   * @param intervalMillis Time in milliseconds after which a new snapshot is taken.
+   * @param logBytes       Number of bytes written to the log after which a new snapshot is taken
+   *                       even if the interval has not passed yet.
+   * @param task           The work that needs to be done to take a snapshot.
+   */
+  public Snapshotter(long intervalMillis, long logBytes, Task task) {
+    this.intervalMillis = intervalMillis;
+    this.logBytes = logBytes;
+    this.task = task;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "snapshotter");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Method that starts checking in the background whether a snapshot needs to be taken.
+   */
+  public void start() {
+    lastSnapshotMillis = System.currentTimeMillis();
+    scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
+  }
+
+  private void check() {
+    try {
+      long now = System.currentTimeMillis();
+      long logSize = task.getLogSize();
+      boolean isDue = now - lastSnapshotMillis >= intervalMillis || logSize >= logBytes;
+      // nothing has been written since the last snapshot
+      if (!isDue || logSize == 0) {
+        return;
+      }
+      task.takeSnapshot();
+      lastSnapshotMillis = now;
+    } catch (IOException | RuntimeException e) {
+      // keep the schedule going, the next check will try again
+      Logger.showError("Failed to take snapshot. " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package project3.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Interface for the structure that holds the committed key-value pairs of a participant. Reads can
+ * happen at the same time as each other and as writes, and the pairs can be gone through while
+ * they keep changing, which is needed to take snapshots and to send the pairs to a participant
+ * that is catching up. Next to its value, every key has the time at which it expires, which every
+ * engine keeps in memory so that it can be read without reading the value.
+ */
+public interface StorageEngine extends Iterable<StorageEngine.Entry> {
+  /**
+   * Class that holds a key along with its value and the time at which it expires.
+   */
+  final class Entry {
+    private final String key;
+    private final String value;
+    private final long expiresAt;
+
+    /**
+     * Constructor to initialize the entry.
+     *
+     * @param key       The key.
+     * @param value     The value.
+     * @param expiresAt Time in milliseconds since the epoch at which the key expires, or 0 if it
+     *                  never expires.
+     */
+    public Entry(String key, String value, long expiresAt) {
+      this.key = key;
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Method to get the key.
+     *
+     * @return The key.
+     */
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * Method to get the value.
+     *
+     * @return The value.
+     */
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * Method to get the time at which the key expires.
+     *
+     * @return Time in milliseconds since the epoch, or 0 if the key never expires.
+     */
+    public long getExpiresAt() {
+      return expiresAt;
+    }
+  }
+
+  /**
+   * Method to get the value of a key along with the time at which it expires.
+   *
+   * @param key The key.
+   * @return The entry of the key, or null if the key does not exist.
+   */
+  Entry get(String key);
+
+  /**
+   * Method to get the time at which a key expires, without reading its value.
+   *
+   * @param key The key.
+   * @return Time in milliseconds since the epoch, or 0 if the key never expires or does not exist.
+   */
+  long getExpiresAt(String key);
+
+  /**
+   * Method to check whether a key exists.
+   *
+   * @param key The key.
+   * @return true if the key exists, false otherwise.
+   */
+  boolean contains(String key);
+
+  /**
+   * Method to set the value of a key, replacing the old value if there is one.
+   *
+   * @param key       The key.
+   * @param value     The value.
+   * @param expiresAt Time in milliseconds since the epoch at which the key expires, or 0 if it
+   *                  never expires.
+   */
+  void put(String key, String value, long expiresAt);
+
+  /**
+   * Method to remove a key. Nothing happens if the key does not exist.
+   *
+   * @param key The key.
+   */
+  void remove(String key);
+
+  /**
+   * Method to get the number of keys.
+   *
+   * @return The number of keys.
+   */
+  long size();
+
+  /**
+   * Method to go through all the key-value pairs. Pairs that are added, changed or removed while
+   * going through them may or may not be seen, but every pair that stays unchanged is seen, more
+   * than once if the engine reorganizes itself meanwhile.
+   *
+   * @return An iterator over the entries of the keys.
+   */
+  @Override
+  Iterator<Entry> iterator();
+
+  /**
+   * Method to go through all the keys without reading their values, which the disk engine keeps
+   * in memory. Keys that are added or removed while going through them may or may not be seen,
+   * but every key that stays is seen.
+   *
+   * @return The keys.
+   */
+  Iterable<String> keys();
+
+  /**
+   * Method to get the first write-ahead log segment that is not covered by the pairs that the
+   * engine kept from before the participant was restarted. Engines that keep their pairs in memory
+   * lose them on a restart, so they are always filled from the snapshot instead.
+   *
+   * @return The number of the segment, or 0 if the engine has kept nothing.
+   */
+  default long getCheckpoint() {
+    return 0;
+  }
+
+  /**
+   * Method that makes every pair that has been written so far survive a restart, so that the
+   * write-ahead log only has to be replayed from the given segment onwards. Engines that keep
+   * their pairs in memory do nothing, and a snapshot has to be written for them instead.
+   *
+   * @param firstSegment Number of the first segment of the log whose writes may not be covered.
+   * @return true if the engine has made the pairs survive a restart, false otherwise.
+   * @throws IOException in case the pairs can't be written to disk.
+   */
+  default boolean checkpoint(long firstSegment) throws IOException {
+    return false;
+  }
+
+  /**
+   * Method to create a storage engine from its name on the cli.
+   *
+   * @param name         heap for a map on the Java heap, offheap for a hash table in memory
+   *                     outside of the Java heap or disk for values in files on disk.
+   * @param expectedKeys Number of keys the engine is expected to hold, so that it does not have to
+   *                     grow while it is being filled.
+   * @param directory    Directory in which the disk engine keeps its files.
+   * @return The storage engine.
+   * @throws IOException              in case the files of the disk engine can't be opened.
+   * @throws IllegalArgumentException if the name is not a known storage engine, or if the store
+   *                                  was kept on disk before and another engine is asked for.
+   */
+  static StorageEngine create(String name, int expectedKeys, Path directory) throws IOException {
+    String engine = name.toLowerCase();
+    // the log segments before the disk engine's checkpoint are gone, so its files are the only
+    // full copy of the store
+    if (!engine.equals("disk") && Files.isDirectory(directory)) {
+      throw new IllegalArgumentException(
+              "This participant's store is kept on disk, so the storage engine must be disk.");
+    }
+
+    switch (engine) {
+      case "heap":
+        return new HeapStorageEngine(expectedKeys);
+
+      case "offheap":
+        return new OffHeapStorageEngine(expectedKeys);
+
+      case "disk":
+        return new LogStructuredStorageEngine(directory, expectedKeys);
+
+      default:
+        throw new IllegalArgumentException("Invalid storage engine. Must be heap, offheap or disk.");
+    }
+  }
+}
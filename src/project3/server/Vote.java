@@ -0,0 +1,25 @@
+package project3.server;
+
+/**
+ * Enum of the votes that a participant gives in the prepare phase of the 2 phase commit protocol.
+ * A no vote says why the participant can't prepare, so that a transaction that only lost the race
+ * for a key can be tried again while one that can never be carried out fails right away.
+ */
+public enum Vote {
+  /**
+   * The participant has staged the mutations and is ready to commit them.
+   */
+  YES,
+
+  /**
+   * A key is part of another ongoing transaction, or its value is not known yet, so the
+   * transaction may succeed if it is tried again later.
+   */
+  CONFLICT,
+
+  /**
+   * The transaction can't be carried out, for example because the current value of a key doesn't
+   * allow the change or the key to delete doesn't exist.
+   */
+  REJECTED
+}
@@ -0,0 +1,19 @@
+package project3.server;
+
+/**
+ * Interface that defines how a participant votes in the prepare phase of the 2 phase commit
+ * protocol. The participant first checks its own resources for the transaction (for eg: whether
+ * the key is free to be locked) and then hands the result to the vote policy which makes the final
+ * decision. There is no vote in the commit phase since the participant only carries out the
+ * decision of the coordinator there.
+ */
+public interface VotePolicy {
+  /**
+   * Method that decides the participant's vote in the prepare phase of a transaction.
+   *
+   * @param key            The key that the transaction deals with.
+   * @param resourcesReady true if all the local checks for the transaction passed.
+   * @return true to vote yes, false to vote no.
+   */
+  boolean votePrepare(String key, boolean resourcesReady);
+}
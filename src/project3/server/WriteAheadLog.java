@@ -0,0 +1,489 @@
+package project3.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+
+import project3.Logger;
+import project3.Mutation;
+
+/**
+ * Class that represents the append-only log that a participant writes its prepare, commit and
+ * abort decisions to before acting on them, so that they survive a crash. The coordinator writes
+ * its commit decisions to one too, and a forget record once a commit has been acknowledged.
+ * Records are appended by a single flusher thread which writes all the records that are waiting
+ * at that time and forces them to disk together (group commit), so concurrent transactions share
+ * one fsync.
+ *
+ * <p>Each record is stored as its length, a CRC32 checksum and the payload. A record that was only
+ * partly written when the participant crashed fails the checksum and is cut off during recovery.
+ * Commit records carry the mutations of the transaction, so they can be replayed without the
+ * prepare record. Each mutation is its key, one byte for whether it deletes the key, puts a value
+ * or puts a value that expires, and then the value and the time at which it expires. The commit
+ * records of the coordinator carry a delete of the name of each participant that has yet to
+ * acknowledge the commit instead.
+ *
+ * <p>The log is split into numbered segment files (wal-1.log, wal-2.log, ...). New records are
+ * always appended to the latest segment. Once a snapshot covers everything before a segment, the
+ * older segments can be deleted, which keeps the log from growing forever.
+ */
+public class WriteAheadLog implements Closeable {
+  private static final byte PREPARE = 1;
+  private static final byte COMMIT = 2;
+  private static final byte ABORT = 3;
+  private static final byte FORGET = 4;
+  private static final byte PUT_MUTATION = 0;
+  private static final byte DELETE_MUTATION = 1;
+  private static final byte EXPIRING_PUT_MUTATION = 2;
+  private static final int HEADER_SIZE = 8;
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Path directory;
+  private final List<PendingRecord> queue;
+  private final Thread flusher;
+  private final Object channelLock;
+  private FileChannel channel;
+  private long currentSegment;
+  private boolean empty;
+  private ByteBuffer buffer;
+  private boolean closed;
+
+  /**
+   * Interface that is used to go through all the records of the log during recovery.
+   */
+  public interface Visitor {
+    /**
+     * Method that is called for every prepare record in the log.
+     *
+     * @param transactionId The id of the transaction.
+     * @param mutations     The mutations that the transaction carries out.
+     */
+    void onPrepare(long transactionId, List<Mutation> mutations);
+
+    /**
+     * Method that is called for every commit record in the log.
+     *
+     * @param transactionId The id of the transaction.
+     * @param mutations     The mutations that the transaction carries out.
+     */
+    void onCommit(long transactionId, List<Mutation> mutations);
+
+    /**
+     * Method that is called for every abort record in the log.
+     *
+     * @param transactionId The id of the transaction.
+     */
+    void onAbort(long transactionId);
+
+    /**
+     * Method that is called for every forget record in the log.
+     *
+     * @param transactionId The id of the transaction.
+     */
+    void onForget(long transactionId);
+  }
+
+  private static class PendingRecord {
+    private final byte[] bytes;
+    private final CompletableFuture<Void> written;
+
+    private PendingRecord(byte[] bytes) {
+      this.bytes = bytes;
+      this.written = new CompletableFuture<>();
+    }
+  }
+
+  /**
+   * Constructor that opens the log in the given directory, replays all the records that are in it
+   * starting from the given segment and then starts the flusher thread so that new records can be
+   * appended. Segments before the given one are already covered by a snapshot and are deleted.
+   *
+   * @param directory    Directory that holds the segment files of the log.
+   * @param firstSegment Number of the first segment that is not covered by a snapshot.
+   * @param visitor      Visitor that is called for every record that is already in the log.
+   * @throws IOException in case the log can't be read or opened for writing.
+   */
+  public WriteAheadLog(Path directory, long firstSegment, Visitor visitor) throws IOException {
+    this.directory = directory;
+    this.queue = new ArrayList<>();
+    this.channelLock = new Object();
+    this.buffer = ByteBuffer.allocateDirect(64 * 1024);
+    this.empty = true;
+
+    TreeMap<Long, Path> segments = listSegments();
+    this.currentSegment = Math.max(firstSegment, segments.isEmpty() ? 1 : segments.lastKey());
+    for (Path segment : segments.headMap(firstSegment).values()) {
+      Files.delete(segment);
+    }
+    for (Path segment : segments.tailMap(firstSegment).values()) {
+      try (FileChannel replayChannel = FileChannel.open(segment, StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        long validLength = replay(replayChannel, visitor);
+        if (validLength < replayChannel.size()) {
+          Logger.showError("Discarding incomplete record at the end of " + segment);
+          replayChannel.truncate(validLength);
+        }
+        empty = empty && validLength == 0;
+      }
+    }
+    this.channel = openSegment(currentSegment);
+
+    this.flusher = new Thread(this::flushLoop, "wal-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Method to check whether the log had any records when it was opened.
+   *
+   * @return true if the log had no records, false otherwise.
+   */
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  /**
+   * Method to get the number of bytes in the segment that records are currently appended to.
+   *
+   * @return The size of the current segment in bytes.
+   * @throws IOException in case the size of the segment can't be read.
+   */
+  public long getCurrentSegmentSize() throws IOException {
+    synchronized (channelLock) {
+      return channel.size();
+    }
+  }
+
+  /**
+   * Method that closes the current segment and starts a new one. Records that are appended after
+   * this method returns go to the new segment.
+   *
+   * @return The number of the new segment.
+   * @throws IOException in case the new segment can't be created.
+   */
+  public long rotate() throws IOException {
+    synchronized (channelLock) {
+      channel.force(false);
+      channel.close();
+      currentSegment++;
+      channel = openSegment(currentSegment);
+      return currentSegment;
+    }
+  }
+
+  /**
+   * Method that deletes all the segments before the given one. It is called once a snapshot
+   * covers all the records in those segments.
+   *
+   * @param segment Number of the first segment to keep.
+   * @throws IOException in case a segment can't be deleted.
+   */
+  public void deleteSegmentsBefore(long segment) throws IOException {
+    for (Path path : listSegments().headMap(segment).values()) {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * Method that durably records that a participant has prepared a transaction. It returns only
+   * after the record is on disk.
+   *
+   * @param transactionId The id of the transaction.
+   * @param mutations     The mutations that the transaction carries out.
+   * @throws IOException in case the record could not be written.
+   */
+  public void logPrepare(long transactionId, List<Mutation> mutations) throws IOException {
+    await(append(encode(PREPARE, transactionId, mutations)));
+  }
+
+  /**
+   * Method that durably records that a participant has committed a transaction. It returns only
+   * after the record is on disk.
+   *
+   * @param transactionId The id of the transaction.
+   * @param mutations     The mutations that the transaction carries out.
+   * @throws IOException in case the record could not be written.
+   */
+  public void logCommit(long transactionId, List<Mutation> mutations) throws IOException {
+    await(append(encode(COMMIT, transactionId, mutations)));
+  }
+
+  /**
+   * Method that records that a participant has aborted a transaction. It does not wait for the
+   * record to reach the disk since a transaction without a commit record is treated as aborted
+   * anyway.
+   *
+   * @param transactionId The id of the transaction.
+   */
+  public void logAbort(long transactionId) {
+    append(encode(ABORT, transactionId, List.of()));
+  }
+
+  /**
+   * Method that records that a committed transaction no longer needs its commit record, because
+   * every participant has acknowledged it. It does not wait for the record to reach the disk since
+   * a commit that is not forgotten is only sent to the participants again.
+   *
+   * @param transactionId The id of the transaction.
+   */
+  public void logForget(long transactionId) {
+    append(encode(FORGET, transactionId, List.of()));
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (queue) {
+      closed = true;
+      queue.notifyAll();
+    }
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (channelLock) {
+      channel.close();
+    }
+  }
+
+  private CompletableFuture<Void> append(byte[] bytes) {
+    PendingRecord record = new PendingRecord(bytes);
+    synchronized (queue) {
+      if (closed) {
+        record.written.completeExceptionally(new IOException("Log is closed"));
+      } else {
+        queue.add(record);
+        queue.notifyAll();
+      }
+    }
+    return record.written;
+  }
+
+  private void await(CompletableFuture<Void> written) throws IOException {
+    try {
+      written.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to write to log. " + e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing to log.", e);
+    }
+  }
+
+  private void flushLoop() {
+    List<PendingRecord> batch = new ArrayList<>();
+    while (true) {
+      synchronized (queue) {
+        while (queue.isEmpty() && !closed) {
+          try {
+            queue.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (queue.isEmpty()) {
+          return;
+        }
+        batch.addAll(queue);
+        queue.clear();
+      }
+
+      try {
+        synchronized (channelLock) {
+          write(batch);
+          channel.force(false);
+        }
+        for (PendingRecord record : batch) {
+          record.written.complete(null);
+        }
+      } catch (IOException e) {
+        Logger.showError("Failed to write to log. " + e.getMessage());
+        for (PendingRecord record : batch) {
+          record.written.completeExceptionally(e);
+        }
+      }
+      batch.clear();
+    }
+  }
+
+  private void write(List<PendingRecord> batch) throws IOException {
+    int size = 0;
+    for (PendingRecord record : batch) {
+      size += record.bytes.length;
+    }
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+    }
+
+    buffer.clear();
+    for (PendingRecord record : batch) {
+      buffer.put(record.bytes);
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static byte[] encode(byte type, long transactionId, List<Mutation> mutations) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeByte(type);
+      out.writeLong(transactionId);
+      out.writeInt(mutations.size());
+      for (Mutation mutation : mutations) {
+        writeString(out, mutation.getKey());
+        if (mutation.isDelete()) {
+          out.writeByte(DELETE_MUTATION);
+        } else if (mutation.getExpiresAt() == 0) {
+          out.writeByte(PUT_MUTATION);
+          writeString(out, mutation.getValue());
+        } else {
+          out.writeByte(EXPIRING_PUT_MUTATION);
+          writeString(out, mutation.getValue());
+          out.writeLong(mutation.getExpiresAt());
+        }
+      }
+
+      ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+      record.putInt(0, record.capacity() - HEADER_SIZE);
+      record.putInt(4, (int) crc.getValue());
+      return record.array();
+    } catch (IOException e) {
+      // writing to a byte array never fails
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private FileChannel openSegment(long segment) throws IOException {
+    FileChannel segmentChannel = FileChannel.open(
+            directory.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    segmentChannel.position(segmentChannel.size());
+    return segmentChannel;
+  }
+
+  private TreeMap<Long, Path> listSegments() throws IOException {
+    TreeMap<Long, Path> segments = new TreeMap<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path path : paths) {
+        String name = path.getFileName().toString();
+        String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+        try {
+          segments.put(Long.parseLong(number), path);
+        } catch (NumberFormatException ignored) {
+          // not a segment of this log
+        }
+      }
+    }
+    return segments;
+  }
+
+  private static long replay(FileChannel channel, Visitor visitor) throws IOException {
+    long validLength = 0;
+    InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+    DataInputStream data = new DataInputStream(in);
+    CRC32 crc = new CRC32();
+    while (true) {
+      byte[] payload;
+      try {
+        int length = data.readInt();
+        int checksum = data.readInt();
+        if (length <= 0 || length > channel.size() - validLength - HEADER_SIZE) {
+          return validLength;
+        }
+        payload = new byte[length];
+        data.readFully(payload);
+        crc.reset();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+          return validLength;
+        }
+      } catch (EOFException e) {
+        return validLength;
+      }
+
+      decode(ByteBuffer.wrap(payload), visitor);
+      validLength += HEADER_SIZE + payload.length;
+    }
+  }
+
+  private static void decode(ByteBuffer payload, Visitor visitor) {
+    byte type = payload.get();
+    long transactionId = payload.getLong();
+    int count = payload.getInt();
+    List<Mutation> mutations = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String key = readString(payload);
+      // the values of the type byte that were written before keys could expire are still valid
+      byte mutationType = payload.get();
+      if (mutationType == DELETE_MUTATION) {
+        mutations.add(Mutation.delete(key));
+      } else if (mutationType == EXPIRING_PUT_MUTATION) {
+        String value = readString(payload);
+        mutations.add(Mutation.put(key, value, payload.getLong()));
+      } else {
+        mutations.add(Mutation.put(key, readString(payload)));
+      }
+    }
+
+    switch (type) {
+      case PREPARE:
+        visitor.onPrepare(transactionId, mutations);
+        break;
+
+      case COMMIT:
+        visitor.onCommit(transactionId, mutations);
+        break;
+
+      case ABORT:
+        visitor.onAbort(transactionId);
+        break;
+
+      case FORGET:
+        visitor.onForget(transactionId);
+        break;
+
+      default:
+        throw new IllegalStateException("Unknown log record type " + type);
+    }
+  }
+
+  private static String readString(ByteBuffer payload) {
+    byte[] bytes = new byte[payload.getInt()];
+    payload.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,73 @@
+package project3.transport;
+
+import java.nio.ByteBuffer;
+
+import project3.RequestCodec;
+
+/**
+ * Class that builds one length-prefixed frame. The buffer grows as values are written and the
+ * length of the frame is filled in once it is finished.
+ */
+class FrameWriter {
+  private static final int INITIAL_CAPACITY = 256;
+
+  private ByteBuffer buffer;
+
+  FrameWriter() {
+    this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    buffer.position(Integer.BYTES);
+  }
+
+  /**
+   * Method to make sure that at least the given number of bytes can still be written.
+   *
+   * @param bytes Number of bytes.
+   * @return The buffer to write to.
+   */
+  ByteBuffer ensure(int bytes) {
+    if (buffer.remaining() < bytes) {
+      int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+      ByteBuffer larger = ByteBuffer.allocate(capacity);
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+    return buffer;
+  }
+
+  void putByte(int b) {
+    ensure(1).put((byte) b);
+  }
+
+  void putShort(int s) {
+    ensure(Short.BYTES).putShort((short) s);
+  }
+
+  void putInt(int i) {
+    ensure(Integer.BYTES).putInt(i);
+  }
+
+  void putLong(long l) {
+    ensure(Long.BYTES).putLong(l);
+  }
+
+  void putBytes(byte[] bytes) {
+    putInt(bytes.length);
+    ensure(bytes.length).put(bytes);
+  }
+
+  void putString(String s) {
+    RequestCodec.putString(ensure(RequestCodec.sizeOf(s)), s);
+  }
+
+  /**
+   * Method to finish the frame.
+   *
+   * @return The frame, ready to be written to a channel.
+   */
+  ByteBuffer finish() {
+    buffer.putInt(0, buffer.position() - Integer.BYTES);
+    buffer.flip();
+    return buffer;
+  }
+}
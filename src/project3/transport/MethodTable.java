@@ -0,0 +1,48 @@
+package project3.transport;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that numbers the methods of a remote interface, so a call can name its method with a
+ * short instead of its signature. Both sides build the same table from the interface, and it is
+ * built only once per interface.
+ */
+class MethodTable {
+  private static final Map<Class<?>, MethodTable> TABLES = new ConcurrentHashMap<>();
+
+  private final Method[] methods;
+  private final Map<Method, Integer> indexes;
+
+  private MethodTable(Class<?> type) {
+    this.methods = type.getMethods();
+    Arrays.sort(methods, Comparator.comparing(Method::toGenericString));
+    this.indexes = new HashMap<>();
+    for (int i = 0; i < methods.length; i++) {
+      indexes.put(methods[i], i);
+    }
+  }
+
+  static MethodTable of(Class<?> type) {
+    return TABLES.computeIfAbsent(type, MethodTable::new);
+  }
+
+  Method get(int index) {
+    if (index < 0 || index >= methods.length) {
+      throw new IllegalArgumentException("Unknown method " + index);
+    }
+    return methods[index];
+  }
+
+  int indexOf(Method method) {
+    Integer index = indexes.get(method);
+    if (index == null) {
+      throw new IllegalArgumentException("Not a remote method " + method);
+    }
+    return index;
+  }
+}
@@ -0,0 +1,634 @@
+package project3.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import project3.Logger;
+import project3.RequestCodec;
+
+/**
+ * Class that implements the Transport interface with non-blocking sockets. A single selector
+ * thread accepts connections and does all the reading and writing, and the calls themselves run
+ * on a bounded pool of worker threads so that a slow call never holds up the others. Calls that
+ * arrive while all the workers are busy wait in a bounded queue, and a call that finds the queue
+ * full fails right away instead of starting one more thread.
+ *
+ * <p>Every message is a frame that starts with its length. A call carries a correlation id, the
+ * name of the object, the number of the method in its interface and the arguments, and the
+ * response carries the same correlation id, so many calls can be in progress on one connection at
+ * the same time. Each connection has a direct buffer for reading and one for writing that are
+ * reused for every frame, and all the frames that are waiting to be sent on a connection are
+ * written with a single call to the socket.
+ */
+public class NioTransport implements Transport {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+  private static final int DEFAULT_WORKER_THREADS = 64;
+  private static final int DEFAULT_QUEUED_CALLS = 1024;
+  private static final byte STATUS_OK = 0;
+  private static final byte STATUS_ERROR = 1;
+  // the same setting as for rmi, so that a call that hangs fails the same way on both transports
+  private static final String RESPONSE_TIMEOUT_PROPERTY = "sun.rmi.transport.tcp.responseTimeout";
+
+  private final Map<Integer, ServerSocketChannel> servers;
+  private final Map<String, Exported> exported;
+  private final Map<Remote, Reference> references;
+  private final Map<String, Connection> connections;
+  private final Queue<Runnable> selectorTasks;
+  private final AtomicLong correlationIds;
+  private final ThreadPoolExecutor workers;
+  private final long responseTimeoutMillis;
+  private Selector selector;
+  private Thread selectorThread;
+  private volatile boolean closed;
+
+  private static class Exported {
+    private final Object target;
+    private final MethodTable methods;
+
+    private Exported(Object target, MethodTable methods) {
+      this.target = target;
+      this.methods = methods;
+    }
+  }
+
+  /**
+   * Constructor to initialize the transport. The selector thread is started on first use. Like
+   * with rmi, a call waits for its response for as long as the sun.rmi.transport.tcp.responseTimeout
+   * system property says in milliseconds, or forever if it is not set or 0.
+   */
+  public NioTransport() {
+    this(Long.getLong(RESPONSE_TIMEOUT_PROPERTY, 0), DEFAULT_WORKER_THREADS, DEFAULT_QUEUED_CALLS);
+  }
+
+  /**
+   * Constructor to initialize the transport with the given limits.
+   *
+   * @param responseTimeoutMillis Time in milliseconds that a call waits for its response, or 0 to
+   *                              wait forever.
+   * @param workerThreads         Maximum number of calls to exported objects that run at the same
+   *                              time.
+   * @param queuedCalls           Maximum number of calls that wait for a worker thread.
+   */
+  NioTransport(long responseTimeoutMillis, int workerThreads, int queuedCalls) {
+    this.servers = new HashMap<>();
+    this.exported = new ConcurrentHashMap<>();
+    this.references = new IdentityHashMap<>();
+    this.connections = new HashMap<>();
+    this.selectorTasks = new ConcurrentLinkedQueue<>();
+    this.correlationIds = new AtomicLong();
+    this.responseTimeoutMillis = responseTimeoutMillis;
+
+    AtomicInteger threadCount = new AtomicInteger();
+    this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queuedCalls), runnable -> {
+              Thread thread = new Thread(runnable, "nio-worker-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.workers.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public <T extends Remote> T export(String name, T object, Class<T> type, String host, int port)
+          throws IOException {
+    start();
+    synchronized (servers) {
+      if (port == 0 || !servers.containsKey(port)) {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        servers.put(port, server);
+        runOnSelector(() -> server.register(selector, SelectionKey.OP_ACCEPT));
+      }
+    }
+
+    exported.put(port + "/" + name, new Exported(object, MethodTable.of(type)));
+    Reference reference = new Reference(type, host, port, name);
+    synchronized (references) {
+      references.put(object, reference);
+    }
+    return reference.toProxy();
+  }
+
+  @Override
+  public <T extends Remote> T lookup(String name, Class<T> type, String host, int port) {
+    return new Reference(type, host, port, name).toProxy();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (selector != null) {
+      selector.wakeup();
+    }
+    workers.shutdown();
+  }
+
+  Reference getReference(Remote object) {
+    if (Proxy.isProxyClass(object.getClass())
+            && Proxy.getInvocationHandler(object) instanceof Reference) {
+      return (Reference) Proxy.getInvocationHandler(object);
+    }
+    synchronized (references) {
+      Reference reference = references.get(object);
+      if (reference == null) {
+        throw new IllegalArgumentException("Remote object must be exported before it is sent.");
+      }
+      return reference;
+    }
+  }
+
+  private synchronized void start() throws IOException {
+    if (closed) {
+      throw new IOException("Transport is closed.");
+    }
+    if (selectorThread == null) {
+      selector = Selector.open();
+      // not a daemon, so that a server keeps running once its main method returns
+      selectorThread = new Thread(this::selectLoop, "nio-selector");
+      selectorThread.start();
+    }
+  }
+
+  private interface SelectorTask {
+    void run() throws IOException;
+  }
+
+  private void runOnSelector(SelectorTask task) {
+    selectorTasks.add(() -> {
+      try {
+        task.run();
+      } catch (IOException e) {
+        Logger.showError("nio transport: " + e.getMessage());
+      }
+    });
+    selector.wakeup();
+  }
+
+  private void selectLoop() {
+    try {
+      while (!closed) {
+        selector.select();
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+          task.run();
+        }
+
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            continue;
+          }
+
+          Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.write();
+            }
+          } catch (IOException | RuntimeException e) {
+            connection.close(new IOException(e.getMessage(), e));
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException e) {
+      Logger.showError("nio transport stopped: " + e.getMessage());
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Connection) {
+          ((Connection) key.attachment()).close(new IOException("Transport is closed."));
+        } else {
+          try {
+            key.channel().close();
+          } catch (IOException e) {
+            // nothing more to do
+          }
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // nothing more to do
+      }
+    }
+  }
+
+  private void accept(ServerSocketChannel server) {
+    try {
+      SocketChannel channel = server.accept();
+      if (channel == null) {
+        return;
+      }
+      int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+      Connection connection = new Connection(channel, port, null);
+      connection.register();
+    } catch (IOException e) {
+      Logger.showError("nio transport failed to accept a connection: " + e.getMessage());
+    }
+  }
+
+  private Connection connect(String host, int port) throws RemoteException {
+    String address = host + ":" + port;
+    synchronized (connections) {
+      Connection connection = connections.get(address);
+      if (connection != null && connection.open) {
+        return connection;
+      }
+    }
+
+    // connecting can take long, so a host that is down must not hold up the calls to other hosts
+    Connection connection;
+    try {
+      start();
+      SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+      connection = new Connection(channel, -1, address);
+    } catch (IOException e) {
+      throw new ConnectException("Connection refused to host: " + address, e);
+    }
+
+    synchronized (connections) {
+      Connection existing = connections.get(address);
+      if (existing != null && existing.open) {
+        // another call connected to the same host in the meantime
+        connection.close(null);
+        return existing;
+      }
+      connections.put(address, connection);
+    }
+    runOnSelector(connection::register);
+    return connection;
+  }
+
+  /**
+   * Class that holds one socket and its buffers. A connection that was accepted serves calls to
+   * the objects exported on its port, and a connection that was opened by this process sends calls
+   * and waits for their responses.
+   */
+  private class Connection {
+    private final SocketChannel channel;
+    private final int exportedPort;
+    private final String address;
+    private final Queue<ByteBuffer> outgoing;
+    private final AtomicBoolean writeScheduled;
+    private final Map<Long, CompletableFuture<Object>> pending;
+    private ByteBuffer readBuffer;
+    private final ByteBuffer writeBuffer;
+    private SelectionKey key;
+    private volatile boolean open;
+
+    private Connection(SocketChannel channel, int exportedPort, String address) throws IOException {
+      this.channel = channel;
+      this.exportedPort = exportedPort;
+      this.address = address;
+      this.outgoing = new ConcurrentLinkedQueue<>();
+      this.writeScheduled = new AtomicBoolean();
+      this.pending = new ConcurrentHashMap<>();
+      this.readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      this.writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      this.open = true;
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    private void register() throws IOException {
+      int ops = SelectionKey.OP_READ | (outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+      key = channel.register(selector, ops, this);
+    }
+
+    private void send(ByteBuffer frame) {
+      outgoing.add(frame);
+      if (writeScheduled.compareAndSet(false, true)) {
+        runOnSelector(() -> {
+          if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          }
+        });
+      }
+    }
+
+    private void write() throws IOException {
+      ByteBuffer frame;
+      while (writeBuffer.hasRemaining() && (frame = outgoing.peek()) != null) {
+        int length = Math.min(frame.remaining(), writeBuffer.remaining());
+        ByteBuffer part = frame.duplicate();
+        part.limit(part.position() + length);
+        writeBuffer.put(part);
+        frame.position(frame.position() + length);
+        if (!frame.hasRemaining()) {
+          outgoing.poll();
+        }
+      }
+
+      writeBuffer.flip();
+      channel.write(writeBuffer);
+      writeBuffer.compact();
+
+      if (writeBuffer.position() == 0 && outgoing.isEmpty()) {
+        key.interestOps(SelectionKey.OP_READ);
+        writeScheduled.set(false);
+        // a frame can be added after the check but before the flag is cleared
+        if (!outgoing.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+      }
+    }
+
+    private void read() throws IOException {
+      if (channel.read(readBuffer) == -1) {
+        close(new IOException("Connection closed by peer."));
+        return;
+      }
+
+      readBuffer.flip();
+      int needed = 0;
+      while (readBuffer.remaining() >= Integer.BYTES) {
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+          throw new IOException("Invalid frame length " + length);
+        }
+        if (readBuffer.remaining() < Integer.BYTES + length) {
+          needed = Integer.BYTES + length;
+          break;
+        }
+
+        int end = readBuffer.position() + Integer.BYTES + length;
+        int limit = readBuffer.limit();
+        readBuffer.position(readBuffer.position() + Integer.BYTES);
+        readBuffer.limit(end);
+        if (exportedPort == -1) {
+          onResponse(readBuffer);
+        } else {
+          onCall(readBuffer);
+        }
+        readBuffer.limit(limit);
+        readBuffer.position(end);
+      }
+      readBuffer.compact();
+
+      if (needed > readBuffer.capacity()) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(needed, readBuffer.capacity() * 2));
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+      }
+    }
+
+    private void onCall(ByteBuffer frame) {
+      long correlationId = frame.getLong();
+      Exported target;
+      Method method;
+      Object[] args;
+      try {
+        String name = RequestCodec.getString(frame);
+        target = exported.get(exportedPort + "/" + name);
+        if (target == null) {
+          throw new NoSuchObjectException("No object exported under the name " + name);
+        }
+        method = target.methods.get(frame.getShort());
+        args = new Object[frame.getInt()];
+        if (args.length != method.getParameterCount()) {
+          throw new IOException("Invalid number of arguments for " + method.getName());
+        }
+        for (int i = 0; i < args.length; i++) {
+          args[i] = ValueCodec.getValue(frame, NioTransport.this);
+        }
+      } catch (IOException | RuntimeException e) {
+        reply(correlationId, STATUS_ERROR, new RemoteException("Invalid call", e));
+        return;
+      }
+
+      try {
+        workers.execute(() -> {
+          try {
+            reply(correlationId, STATUS_OK, method.invoke(target.target, args));
+          } catch (InvocationTargetException e) {
+            reply(correlationId, STATUS_ERROR, e.getCause());
+          } catch (IllegalAccessException | IllegalArgumentException e) {
+            reply(correlationId, STATUS_ERROR, new RemoteException("Invalid call", e));
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        reply(correlationId, STATUS_ERROR,
+                new RemoteException("Too many calls in progress on port " + exportedPort));
+      }
+    }
+
+    private void reply(long correlationId, byte status, Object value) {
+      FrameWriter writer = new FrameWriter();
+      writer.putLong(correlationId);
+      try {
+        writer.putByte(status);
+        ValueCodec.putValue(writer, value, NioTransport.this);
+      } catch (IOException | IllegalArgumentException e) {
+        writer = new FrameWriter();
+        writer.putLong(correlationId);
+        writer.putByte(STATUS_ERROR);
+        writer.putByte(0);
+        Logger.showError("nio transport failed to encode a response: " + e.getMessage());
+      }
+      send(writer.finish());
+    }
+
+    private void onResponse(ByteBuffer frame) throws IOException {
+      long correlationId = frame.getLong();
+      byte status = frame.get();
+      CompletableFuture<Object> result = pending.remove(correlationId);
+      Object value;
+      try {
+        value = ValueCodec.getValue(frame, NioTransport.this);
+      } catch (IOException e) {
+        if (result != null) {
+          result.completeExceptionally(new RemoteException("Invalid response", e));
+        }
+        return;
+      }
+      if (result == null) {
+        return;
+      }
+
+      if (status == STATUS_OK) {
+        result.complete(value);
+      } else if (value instanceof Throwable) {
+        result.completeExceptionally((Throwable) value);
+      } else {
+        result.completeExceptionally(new RemoteException("Remote call failed."));
+      }
+    }
+
+    private void close(IOException cause) {
+      open = false;
+      if (address != null) {
+        synchronized (connections) {
+          connections.remove(address, this);
+        }
+      }
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing more to do
+      }
+
+      for (Long correlationId : new ArrayList<>(pending.keySet())) {
+        CompletableFuture<Object> result = pending.remove(correlationId);
+        if (result != null) {
+          result.completeExceptionally(
+                  new RemoteException("Connection to " + address + " was lost", cause));
+        }
+      }
+    }
+  }
+
+  /**
+   * Class that is behind every reference to a remote object. Calling a method of the reference
+   * sends the call over a connection to the process that exported the object and waits for the
+   * response.
+   */
+  class Reference implements InvocationHandler {
+    private final Class<? extends Remote> type;
+    private final String host;
+    private final int port;
+    private final String name;
+
+    private Reference(Class<? extends Remote> type, String host, int port, String name) {
+      this.type = type;
+      this.host = host;
+      this.port = port;
+      this.name = name;
+    }
+
+    Class<? extends Remote> getType() {
+      return type;
+    }
+
+    String getHost() {
+      return host;
+    }
+
+    int getPort() {
+      return port;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    private <T> T toProxy() {
+      @SuppressWarnings("unchecked")
+      T proxy = (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, this);
+      return proxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (method.getDeclaringClass() == Object.class) {
+        return invokeObjectMethod(proxy, method, args);
+      }
+
+      int methodIndex = MethodTable.of(type).indexOf(method);
+      args = args == null ? new Object[0] : args;
+      FrameWriter writer = new FrameWriter();
+      long correlationId = correlationIds.incrementAndGet();
+      writer.putLong(correlationId);
+      writer.putString(name);
+      writer.putShort(methodIndex);
+      writer.putInt(args.length);
+      for (Object arg : args) {
+        ValueCodec.putValue(writer, arg, NioTransport.this);
+      }
+
+      Connection connection = connect(host, port);
+      CompletableFuture<Object> result = new CompletableFuture<>();
+      connection.pending.put(correlationId, result);
+      if (!connection.open) {
+        connection.pending.remove(correlationId);
+        throw new ConnectException("Connection to " + connection.address + " was lost");
+      }
+      connection.send(writer.finish());
+
+      try {
+        return responseTimeoutMillis > 0
+                ? result.get(responseTimeoutMillis, TimeUnit.MILLISECONDS) : result.get();
+      } catch (ExecutionException e) {
+        throw e.getCause();
+      } catch (TimeoutException e) {
+        connection.pending.remove(correlationId);
+        // a late response finds no pending call and is dropped
+        throw new UnmarshalException("Error unmarshaling return header",
+                new SocketTimeoutException("Read timed out"));
+      } catch (InterruptedException e) {
+        connection.pending.remove(correlationId);
+        if (Arrays.asList(method.getExceptionTypes()).contains(InterruptedException.class)) {
+          throw e;
+        }
+        Thread.currentThread().interrupt();
+        throw new RemoteException("Interrupted while waiting for " + method.getName(), e);
+      }
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "equals":
+          Object other = args[0];
+          return other != null && Proxy.isProxyClass(other.getClass())
+                  && Proxy.getInvocationHandler(other) instanceof Reference
+                  && toString().equals(Proxy.getInvocationHandler(other).toString());
+
+        case "hashCode":
+          return toString().hashCode();
+
+        default:
+          return toString();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return type.getSimpleName() + "[" + host + ":" + port + "/" + name + "]";
+    }
+  }
+}
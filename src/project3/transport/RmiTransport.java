@@ -0,0 +1,69 @@
+package project3.transport;
+
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that implements the Transport interface with Java RMI. Objects are exported with
+ * UnicastRemoteObject and bound in an rmi registry that is created on the same port.
+ */
+public class RmiTransport implements Transport {
+  private final Map<Integer, Registry> registries;
+  private final List<Remote> exported;
+
+  /**
+   * Constructor to initialize the transport.
+   */
+  public RmiTransport() {
+    this.registries = new HashMap<>();
+    this.exported = new ArrayList<>();
+  }
+
+  @Override
+  public synchronized <T extends Remote> T export(String name, T object, Class<T> type, String host,
+                                                  int port) throws IOException {
+    System.setProperty("java.rmi.server.hostname", host);
+    T stub = type.cast(UnicastRemoteObject.exportObject(object, port));
+    exported.add(object);
+
+    Registry registry = registries.get(port);
+    if (registry == null) {
+      registry = LocateRegistry.createRegistry(port);
+      registries.put(port, registry);
+    }
+    registry.rebind(name, stub);
+    return stub;
+  }
+
+  @Override
+  public <T extends Remote> T lookup(String name, Class<T> type, String host, int port)
+          throws RemoteException, NotBoundException {
+    Registry registry = LocateRegistry.getRegistry(host, port);
+    return type.cast(registry.lookup(name));
+  }
+
+  @Override
+  public synchronized void close() {
+    List<Remote> objects = new ArrayList<>(exported);
+    objects.addAll(registries.values());
+    for (Remote object : objects) {
+      try {
+        UnicastRemoteObject.unexportObject(object, true);
+      } catch (NoSuchObjectException e) {
+        // already unexported
+      }
+    }
+    exported.clear();
+    registries.clear();
+  }
+}
@@ -0,0 +1,70 @@
+package project3.transport;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+
+/**
+ * Interface for the layer that carries the calls between clients, participants and the
+ * coordinator. A server exports its objects on a port under a name, and the other side looks them
+ * up by host, port and name to get a reference whose methods are called remotely. The same
+ * transport has to be used by all the processes that talk to each other.
+ */
+public interface Transport extends AutoCloseable {
+  /**
+   * Method to make an object callable by other processes.
+   *
+   * @param name   Name under which the object can be looked up.
+   * @param object The object to export.
+   * @param type   The remote interface of the object, whose methods can be called.
+   * @param host   Host ip that the other processes use to reach this process.
+   * @param port   Port to export the object on.
+   * @param <T>    Type of the remote interface.
+   * @return A reference to the exported object that can be passed to other processes.
+   * @throws IOException in case the object can't be exported on the port.
+   */
+  <T extends Remote> T export(String name, T object, Class<T> type, String host, int port)
+          throws IOException;
+
+  /**
+   * Method to get a reference to an object that was exported by another process.
+   *
+   * @param name Name under which the object was exported.
+   * @param type The remote interface of the object.
+   * @param host Host ip of the process that exported the object.
+   * @param port Port that the object was exported on.
+   * @param <T>  Type of the remote interface.
+   * @return A reference whose methods are called on the remote object.
+   * @throws IOException       in case the other process can't be reached.
+   * @throws NotBoundException in case no object is exported under the name.
+   */
+  <T extends Remote> T lookup(String name, Class<T> type, String host, int port)
+          throws IOException, NotBoundException;
+
+  /**
+   * Method that stops the transport. Exported objects can't be called anymore and the threads of
+   * the transport are stopped.
+   */
+  @Override
+  void close();
+
+  /**
+   * Method to create a transport from its name on the cli.
+   *
+   * @param name rmi for Java RMI or nio for the non-blocking socket transport.
+   * @return The transport.
+   * @throws IllegalArgumentException if the name is not a known transport.
+   */
+  static Transport create(String name) {
+    switch (name.toLowerCase()) {
+      case "rmi":
+        return new RmiTransport();
+
+      case "nio":
+        return new NioTransport();
+
+      default:
+        throw new IllegalArgumentException("Invalid transport. Must be rmi or nio.");
+    }
+  }
+}
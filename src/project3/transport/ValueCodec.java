@@ -0,0 +1,280 @@
+package project3.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import project3.CacheListener;
+import project3.Mutation;
+import project3.Request;
+import project3.RequestCodec;
+import project3.RequestHandler;
+import project3.Response;
+import project3.server.Coordinator;
+import project3.server.Decision;
+import project3.server.Outcome;
+import project3.server.Vote;
+
+/**
+ * Helper class that encodes the arguments and results of remote calls for the nio transport. Each
+ * value starts with a tag byte. The types that are sent on every request have their own compact
+ * encoding, remote objects are sent as a reference to their host, port and name, and anything else
+ * falls back to Java serialization (which in practice is only used for exceptions and enums).
+ * Since the values come from the network, serialized values may only hold the types of the protocol
+ * and the exceptions that its calls throw, and references may only name the remote interfaces of
+ * the protocol.
+ */
+class ValueCodec {
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte LONG = 2;
+  private static final byte INT = 3;
+  private static final byte BOOLEAN = 4;
+  private static final byte LIST = 5;
+  private static final byte MAP = 6;
+  private static final byte MUTATION = 7;
+  private static final byte REQUEST = 8;
+  private static final byte RESPONSE = 9;
+  private static final byte REFERENCE = 10;
+  private static final byte SERIALIZED = 11;
+
+  private static final Set<Class<?>> SERIALIZED_TYPES = Set.of(String.class, StackTraceElement.class,
+          Enum.class, Mutation.class, Request.class, Response.class, Decision.class, Vote.class,
+          Outcome.class);
+  private static final Set<Class<?>> EXCEPTION_TYPES = Set.of(Throwable.class, Exception.class,
+          RuntimeException.class, IOException.class, RemoteException.class,
+          IllegalArgumentException.class, IllegalStateException.class, InterruptedException.class);
+  private static final List<Class<?>> CAUSE_TYPES = List.of(IOException.class,
+          RuntimeException.class, InterruptedException.class);
+  private static final Set<Class<? extends Remote>> REMOTE_TYPES = Set.of(RequestHandler.class,
+          Coordinator.class, CacheListener.class);
+  private static final ObjectInputFilter SERIALIZED_FILTER = ValueCodec::checkSerialized;
+  private static final int MAX_SERIALIZED_DEPTH = 32;
+  private static final int MAX_SERIALIZED_REFERENCES = 10000;
+
+  static void putValue(FrameWriter writer, Object value, NioTransport transport)
+          throws IOException {
+    if (value == null) {
+      writer.putByte(NULL);
+    } else if (value instanceof String) {
+      writer.putByte(STRING);
+      writer.putString((String) value);
+    } else if (value instanceof Long) {
+      writer.putByte(LONG);
+      writer.putLong((Long) value);
+    } else if (value instanceof Integer) {
+      writer.putByte(INT);
+      writer.putInt((Integer) value);
+    } else if (value instanceof Boolean) {
+      writer.putByte(BOOLEAN);
+      writer.putByte((Boolean) value ? 1 : 0);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      writer.putByte(LIST);
+      writer.putInt(list.size());
+      for (Object element : list) {
+        putValue(writer, element, transport);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      writer.putByte(MAP);
+      writer.putInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        putValue(writer, entry.getKey(), transport);
+        putValue(writer, entry.getValue(), transport);
+      }
+    } else if (value instanceof Mutation) {
+      Mutation mutation = (Mutation) value;
+      writer.putByte(MUTATION);
+      writer.putByte((byte) mutation.getKind().ordinal());
+      writer.putString(mutation.getKey());
+      writer.putString(mutation.getValue());
+      writer.putString(mutation.getExpectedValue());
+      writer.putLong(mutation.getExpiresAt());
+    } else if (value instanceof Request) {
+      Request request = (Request) value;
+      writer.putByte(REQUEST);
+      RequestCodec.encode(request, writer.ensure(RequestCodec.sizeOf(request)));
+    } else if (value instanceof Response) {
+      Response response = (Response) value;
+      writer.putByte(RESPONSE);
+      RequestCodec.encode(response, writer.ensure(RequestCodec.sizeOf(response)));
+    } else if (value instanceof Remote) {
+      NioTransport.Reference reference = transport.getReference((Remote) value);
+      writer.putByte(REFERENCE);
+      writer.putString(reference.getType().getName());
+      writer.putString(reference.getHost());
+      writer.putInt(reference.getPort());
+      writer.putString(reference.getName());
+    } else if (value instanceof Serializable) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(value);
+      }
+      writer.putByte(SERIALIZED);
+      writer.putBytes(bytes.toByteArray());
+    } else {
+      throw new IllegalArgumentException("Can't send a " + value.getClass().getName());
+    }
+  }
+
+  static Object getValue(ByteBuffer buffer, NioTransport transport) throws IOException {
+    try {
+      byte tag = buffer.get();
+      switch (tag) {
+        case NULL:
+          return null;
+
+        case STRING:
+          return RequestCodec.getString(buffer);
+
+        case LONG:
+          return buffer.getLong();
+
+        case INT:
+          return buffer.getInt();
+
+        case BOOLEAN:
+          return buffer.get() == 1;
+
+        case LIST:
+          int size = getCount(buffer);
+          List<Object> list = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            list.add(getValue(buffer, transport));
+          }
+          return list;
+
+        case MAP:
+          int entries = getCount(buffer);
+          Map<Object, Object> map = new LinkedHashMap<>();
+          for (int i = 0; i < entries; i++) {
+            map.put(getValue(buffer, transport), getValue(buffer, transport));
+          }
+          return map;
+
+        case MUTATION:
+          return getMutation(buffer);
+
+        case REQUEST:
+          return RequestCodec.decode(buffer);
+
+        case RESPONSE:
+          return RequestCodec.decodeResponse(buffer);
+
+        case REFERENCE:
+          Class<? extends Remote> type = getRemoteType(RequestCodec.getString(buffer));
+          String host = RequestCodec.getString(buffer);
+          int port = buffer.getInt();
+          String name = RequestCodec.getString(buffer);
+          return transport.lookup(name, type, host, port);
+
+        case SERIALIZED:
+          byte[] bytes = new byte[getCount(buffer)];
+          buffer.get(bytes);
+          try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(SERIALIZED_FILTER);
+            return in.readObject();
+          } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class " + e.getMessage());
+          }
+
+        default:
+          throw new IOException("Unknown value tag " + tag);
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Invalid frame: " + e.getMessage());
+    }
+  }
+
+  private static int getCount(ByteBuffer buffer) throws IOException {
+    int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IOException("Invalid count " + count);
+    }
+    return count;
+  }
+
+  private static Mutation getMutation(ByteBuffer buffer) throws IOException {
+    int kind = buffer.get();
+    Mutation.Kind[] kinds = Mutation.Kind.values();
+    if (kind < 0 || kind >= kinds.length) {
+      throw new IOException("Unknown mutation kind " + kind);
+    }
+    String key = RequestCodec.getString(buffer);
+    String value = RequestCodec.getString(buffer);
+    String expectedValue = RequestCodec.getString(buffer);
+    long expiresAt = buffer.getLong();
+    switch (kinds[kind]) {
+      case DELETE:
+        return Mutation.delete(key);
+
+      case COMPARE_AND_SET:
+        return Mutation.compareAndSet(key, expectedValue, value);
+
+      case INCREMENT:
+        return Mutation.increment(key, Long.parseLong(value));
+
+      case APPEND:
+        return Mutation.append(key, value);
+
+      default:
+        return Mutation.put(key, value, expiresAt);
+    }
+  }
+
+  private static ObjectInputFilter.Status checkSerialized(ObjectInputFilter.FilterInfo info) {
+    if (info.depth() > MAX_SERIALIZED_DEPTH || info.references() > MAX_SERIALIZED_REFERENCES) {
+      return ObjectInputFilter.Status.REJECTED;
+    }
+    Class<?> type = info.serialClass();
+    // arrays are checked by the length limit of the stream, and each element is checked on its own
+    if (type == null || type.isArray()) {
+      return ObjectInputFilter.Status.UNDECIDED;
+    }
+    // exceptions hold their causes and suppressed exceptions in the lists of java.util
+    boolean isAllowed = SERIALIZED_TYPES.contains(type) || isAllowedException(type)
+            || ((List.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))
+            && type.getName().startsWith("java.util."));
+    return isAllowed ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+  }
+
+  private static boolean isAllowedException(Class<?> type) {
+    // the exceptions that the remote interfaces throw, and the exceptions of the JDK that may be
+    // their causes
+    if (EXCEPTION_TYPES.contains(type)) {
+      return true;
+    }
+    if (!Throwable.class.isAssignableFrom(type) || !type.getName().startsWith("java.")) {
+      return false;
+    }
+    for (Class<?> causeType : CAUSE_TYPES) {
+      if (causeType.isAssignableFrom(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Class<? extends Remote> getRemoteType(String name) throws IOException {
+    for (Class<? extends Remote> type : REMOTE_TYPES) {
+      if (type.getName().equals(name)) {
+        return type;
+      }
+    }
+    throw new IOException("Unknown remote interface " + name);
+  }
+}
@@ -0,0 +1,115 @@
+package project3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the consistent-hash ring gives every key the right number of owners, and that adding
+ * or removing a member only moves the keys that have to move.
+ */
+class HashRingTest {
+  private static final int KEYS = 10000;
+
+  private static Map<String, String> members(int count) {
+    Map<String, String> members = new LinkedHashMap<>();
+    for (int i = 1; i <= count; i++) {
+      members.put("127.0.0.1:" + (5000 + i), "participant " + i);
+    }
+    return members;
+  }
+
+  @Test
+  void givesEveryKeyDistinctOwners() {
+    HashRing<String> ring = new HashRing<>(members(5), 3);
+    for (int i = 0; i < KEYS; i++) {
+      List<String> owners = ring.getOwners("key" + i);
+      assertEquals(3, owners.size());
+      assertEquals(3, new HashSet<>(owners).size());
+      assertTrue(ring.isOwner("key" + i, owners.get(0)));
+    }
+  }
+
+  @Test
+  void givesEveryKeyAllMembersWhenThereAreFewerThanReplicas() {
+    HashRing<String> ring = new HashRing<>(members(2), 3);
+    assertEquals(Set.copyOf(members(2).values()), Set.copyOf(ring.getReplicas("key")));
+    assertTrue(new HashRing<String>(Map.of(), 1).getOwners("key").isEmpty());
+  }
+
+  @Test
+  void doesNotDependOnOrderOfMembers() {
+    Map<String, String> reversed = new LinkedHashMap<>();
+    List<String> names = List.copyOf(members(5).keySet());
+    for (int i = names.size() - 1; i >= 0; i--) {
+      reversed.put(names.get(i), "");
+    }
+    HashRing<String> ring = new HashRing<>(members(5), 2);
+    HashRing<String> other = new HashRing<>(reversed, 2);
+    for (int i = 0; i < KEYS; i++) {
+      assertEquals(ring.getOwners("key" + i), other.getOwners("key" + i));
+    }
+  }
+
+  @Test
+  void movesKeysOnlyToAddedMember() {
+    HashRing<String> before = new HashRing<>(members(4), 2);
+    HashRing<String> after = new HashRing<>(members(5), 2);
+    String added = "127.0.0.1:5005";
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      List<String> oldOwners = before.getOwners("key" + i);
+      List<String> newOwners = after.getOwners("key" + i);
+      for (String owner : newOwners) {
+        assertTrue(owner.equals(added) || oldOwners.contains(owner));
+      }
+      if (newOwners.contains(added)) {
+        moved++;
+      }
+    }
+    // the new member should take over about 2 of every 5 keys
+    assertTrue(moved > KEYS * 2 / 5 / 2 && moved < KEYS * 2 / 5 * 3 / 2, "moved " + moved);
+  }
+
+  @Test
+  void keepsOwnersOfKeysOfOtherMembersWhenMemberIsRemoved() {
+    Map<String, String> members = members(5);
+    HashRing<String> before = new HashRing<>(members, 1);
+    String removed = "127.0.0.1:5003";
+    members.remove(removed);
+    HashRing<String> after = new HashRing<>(members, 1);
+    for (int i = 0; i < KEYS; i++) {
+      String owner = before.getOwners("key" + i).get(0);
+      if (!owner.equals(removed)) {
+        assertEquals(owner, after.getOwners("key" + i).get(0));
+      }
+    }
+  }
+
+  @Test
+  void spreadsKeysEvenly() {
+    HashRing<String> ring = new HashRing<>(members(5), 1);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < KEYS; i++) {
+      counts.merge(ring.getOwners("key" + i).get(0), 1, Integer::sum);
+    }
+    assertEquals(5, counts.size());
+    for (int count : counts.values()) {
+      assertTrue(count > KEYS / 5 / 2 && count < KEYS / 5 * 2, "count " + count);
+    }
+  }
+
+  @Test
+  void rejectsReplicationFactorBelowOne() {
+    assertThrows(IllegalArgumentException.class, () -> new HashRing<>(members(3), 0));
+  }
+}
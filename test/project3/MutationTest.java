@@ -0,0 +1,66 @@
+package project3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that compare-and-set, increment and append mutations resolve to the put that has the same
+ * effect on the current value of the key, or to nothing if they can't be applied to it.
+ */
+class MutationTest {
+  private static void assertPut(String key, String value, long expiresAt, Mutation mutation) {
+    assertEquals(Mutation.Kind.PUT, mutation.getKind());
+    assertEquals(key, mutation.getKey());
+    assertEquals(value, mutation.getValue());
+    assertEquals(expiresAt, mutation.getExpiresAt());
+    assertTrue(mutation.isResolved());
+  }
+
+  @Test
+  void leavesPutsAndDeletesAsTheyAre() {
+    Mutation put = Mutation.put("a", "1", 1234);
+    Mutation delete = Mutation.delete("a");
+    assertTrue(put.isResolved());
+    assertTrue(delete.isResolved());
+    assertSame(put, put.resolve("old", 99));
+    assertSame(delete, delete.resolve(null, 0));
+  }
+
+  @Test
+  void resolvesCompareAndSetOnlyForExpectedValue() {
+    Mutation cas = Mutation.compareAndSet("a", "old", "new");
+    assertFalse(cas.isResolved());
+    // the key is replaced like by a put, so it stops expiring
+    assertPut("a", "new", 0, cas.resolve("old", 1234));
+    assertNull(cas.resolve("other", 0));
+    assertNull(cas.resolve(null, 0));
+  }
+
+  @Test
+  void resolvesIncrementOfNumbers() {
+    assertFalse(Mutation.increment("n", 5).isResolved());
+    assertPut("n", "5", 0, Mutation.increment("n", 5).resolve(null, 0));
+    assertPut("n", "8", 1234, Mutation.increment("n", 5).resolve("3", 1234));
+    assertPut("n", "-2", 0, Mutation.increment("n", -5).resolve("3", 0));
+  }
+
+  @Test
+  void refusesIncrementOfOtherValuesAndOverflow() {
+    assertNull(Mutation.increment("n", 1).resolve("abc", 0));
+    assertNull(Mutation.increment("n", 1).resolve("", 0));
+    assertNull(Mutation.increment("n", 1).resolve(Long.toString(Long.MAX_VALUE), 0));
+    assertNull(Mutation.increment("n", -1).resolve(Long.toString(Long.MIN_VALUE), 0));
+  }
+
+  @Test
+  void resolvesAppendKeepingExpiry() {
+    assertFalse(Mutation.append("s", "x").isResolved());
+    assertPut("s", "x", 0, Mutation.append("s", "x").resolve(null, 0));
+    assertPut("s", "abx", 1234, Mutation.append("s", "x").resolve("ab", 1234));
+  }
+}
@@ -0,0 +1,118 @@
+package project3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that requests and responses come out of the binary codec the same as they went in, and
+ * that sizeOf matches the number of bytes that are written.
+ */
+class RequestCodecTest {
+  private static Request roundTrip(Request request) {
+    ByteBuffer buffer = ByteBuffer.allocate(RequestCodec.sizeOf(request));
+    RequestCodec.encode(request, buffer);
+    assertEquals(0, buffer.remaining());
+    buffer.flip();
+    Request decoded = RequestCodec.decode(buffer);
+    assertEquals(0, buffer.remaining());
+    return decoded;
+  }
+
+  private static Response roundTrip(Response response) {
+    ByteBuffer buffer = ByteBuffer.allocate(RequestCodec.sizeOf(response));
+    RequestCodec.encode(response, buffer);
+    assertEquals(0, buffer.remaining());
+    buffer.flip();
+    Response decoded = RequestCodec.decodeResponse(buffer);
+    assertEquals(0, buffer.remaining());
+    return decoded;
+  }
+
+  private static void assertSameRequest(Request expected, Request actual) {
+    assertEquals(expected.getOperation(), actual.getOperation());
+    assertEquals(expected.getKeys(), actual.getKeys());
+    assertEquals(expected.getValues(), actual.getValues());
+  }
+
+  @Test
+  void roundTripsEveryParsedRequest() {
+    List<String> commands = List.of("GET\tkey", "PUT\tkey\tvalue", "PUT\tkey\tvalue\t60",
+            "DELETE\tkey", "MGET\ta\tb\tc", "MPUT\ta\t1\tb\t2", "MDELETE\ta\tb",
+            "CAS\tkey\told\tnew", "INCR\tkey\t5", "APPEND\tkey\tmore", "SCAN\ta\tm", "SCAN\ta",
+            "PREFIX\tuser:", "STOP");
+    for (String command : commands) {
+      Request request = Request.parse(command);
+      assertSameRequest(request, roundTrip(request));
+    }
+  }
+
+  @Test
+  void keepsTabsAndNonAsciiCharacters() {
+    Request request = Request.put("tab\tkey", "caf\u00e9 \u20ac \ud83d\ude00");
+    Request decoded = roundTrip(request);
+    assertSameRequest(request, decoded);
+    assertEquals("tab\tkey", decoded.getKey());
+  }
+
+  @Test
+  void roundTripsEmptyStrings() {
+    Request request = Request.put("", "");
+    assertSameRequest(request, roundTrip(request));
+  }
+
+  @Test
+  void roundTripsResponses() {
+    Response text = roundTrip(Response.success("Put successful"));
+    assertTrue(text.isSuccess());
+    assertEquals("Put successful", text.getText());
+    assertTrue(text.getValues().isEmpty());
+
+    Map<String, String> values = new LinkedHashMap<>();
+    values.put("b", "2");
+    values.put("a", "caf\u00e9");
+    Response found = roundTrip(Response.success(values));
+    assertTrue(found.isSuccess());
+    assertEquals("Found 2 keys", found.getText());
+    assertEquals(values, found.getValues());
+    assertEquals(List.of("b", "a"), List.copyOf(found.getValues().keySet()));
+
+    Response failure = roundTrip(Response.failure("Can't get key that doesn't exist"));
+    assertFalse(failure.isSuccess());
+    assertEquals("Can't get key that doesn't exist", failure.getText());
+  }
+
+  @Test
+  void roundTripsNullStrings() {
+    ByteBuffer buffer = ByteBuffer.allocate(RequestCodec.sizeOf((String) null));
+    RequestCodec.putString(buffer, null);
+    buffer.flip();
+    assertNull(RequestCodec.getString(buffer));
+  }
+
+  @Test
+  void rejectsTruncatedRequest() {
+    Request request = Request.parse("MPUT\ta\t1\tb\t2");
+    ByteBuffer buffer = ByteBuffer.allocate(RequestCodec.sizeOf(request));
+    RequestCodec.encode(request, buffer);
+    buffer.flip();
+    buffer.limit(buffer.limit() - 1);
+    assertThrows(IllegalArgumentException.class, () -> RequestCodec.decode(buffer));
+  }
+
+  @Test
+  void rejectsUnknownOperation() {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    buffer.put((byte) 100).putInt(0).putInt(0).flip();
+    assertThrows(IllegalArgumentException.class, () -> RequestCodec.decode(buffer));
+  }
+}
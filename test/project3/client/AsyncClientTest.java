@@ -0,0 +1,220 @@
+package project3.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import project3.Request;
+import project3.RequestHandler;
+import project3.Response;
+
+/**
+ * Tests of the requests that the async client coalesces, with a stub server that records the calls
+ * it gets and can hold them until the test has queued the requests that it wants coalesced.
+ */
+class AsyncClientTest {
+  private final Map<String, String> values = new ConcurrentHashMap<>();
+  private final List<String> calls = new CopyOnWriteArrayList<>();
+  private final CountDownLatch released = new CountDownLatch(1);
+  private volatile boolean rejectsBatches;
+  private final RequestHandler server = (RequestHandler) Proxy.newProxyInstance(
+          RequestHandler.class.getClassLoader(), new Class<?>[] {RequestHandler.class},
+          (proxy, method, args) -> this.call(method, args));
+  private AsyncClient client;
+
+  @AfterEach
+  void close() {
+    released.countDown();
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object call(Method method, Object[] args) throws InterruptedException {
+    String name = method.getName();
+    calls.add(name.equals("handle") ? ((Request) args[0]).getOperation() + " "
+            + ((Request) args[0]).getKeys() : name + " " + args[0]);
+    released.await();
+    switch (name) {
+      case "handle":
+        return this.handle((Request) args[0]);
+
+      case "getAll":
+        if (rejectsBatches) {
+          throw new IllegalStateException("Batch refused");
+        }
+        Map<String, String> found = new LinkedHashMap<>();
+        for (String key : (List<String>) args[0]) {
+          if (values.containsKey(key)) {
+            found.put(key, values.get(key));
+          }
+        }
+        return found;
+
+      case "putAll":
+        if (rejectsBatches) {
+          throw new IllegalArgumentException("Batch refused");
+        }
+        values.putAll((Map<String, String>) args[0]);
+        return null;
+
+      case "deleteAll":
+        List<String> keys = (List<String>) args[0];
+        if (rejectsBatches || !values.keySet().containsAll(keys)) {
+          throw new IllegalArgumentException("Can't delete key that doesn't exist");
+        }
+        values.keySet().removeAll(keys);
+        return null;
+
+      default:
+        throw new UnsupportedOperationException(name);
+    }
+  }
+
+  private Response handle(Request request) {
+    String key = request.getKey();
+    switch (request.getOperation()) {
+      case GET:
+        return values.containsKey(key) ? Response.success(values.get(key))
+                : Response.failure("Can't get key that doesn't exist");
+
+      case PUT:
+        values.put(key, request.getValue());
+        return Response.success("Put successful");
+
+      case DELETE:
+        return values.remove(key) != null ? Response.success("Delete successful")
+                : Response.failure("Can't delete key that doesn't exist");
+
+      default:
+        throw new UnsupportedOperationException(request.getOperation().toString());
+    }
+  }
+
+  private void startHeldClient() throws InterruptedException {
+    // the server holds the only call in flight until the test releases it, so that the requests
+    // that are sent next wait in the queue
+    client = new AsyncClient(server, 1, 16);
+    client.put("held", "1");
+    waitForCalls(1);
+  }
+
+  private void waitForCalls(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (calls.size() < count) {
+      assertTrue(System.nanoTime() < deadline, "Calls not made in time");
+      Thread.sleep(10);
+    }
+  }
+
+  private static void assertFails(CompletableFuture<?> result) {
+    assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void coalescesConsecutiveGets() throws Exception {
+    values.put("a", "1");
+    values.put("b", "2");
+    this.startHeldClient();
+    CompletableFuture<String> a = client.get("a");
+    CompletableFuture<String> missing = client.get("missing");
+    CompletableFuture<String> b = client.get("b");
+    released.countDown();
+
+    assertEquals("1", a.get(10, TimeUnit.SECONDS));
+    assertEquals("2", b.get(10, TimeUnit.SECONDS));
+    assertFails(missing);
+    assertEquals(List.of("getAll [a, missing, b]"), calls.subList(1, calls.size()));
+  }
+
+  @Test
+  void coalescesNeitherPutsWithTimeToLiveNorTwoWritesOfOneKey() throws Exception {
+    this.startHeldClient();
+    List<CompletableFuture<Response>> results = new ArrayList<>();
+    results.add(client.send(Request.put("a", "1")));
+    results.add(client.send(Request.put("a", "2")));
+    results.add(client.send(Request.parse("PUT\tb\t3\t60")));
+    results.add(client.send(Request.put("c", "4")));
+    results.add(client.send(Request.put("d", "5")));
+    released.countDown();
+
+    for (CompletableFuture<Response> result : results) {
+      assertTrue(result.get(10, TimeUnit.SECONDS).isSuccess());
+    }
+    assertEquals(List.of("PUT [a]", "PUT [a]", "PUT [b]", "putAll {c=4, d=5}"),
+            calls.subList(1, calls.size()));
+    assertEquals("2", values.get("a"));
+    assertEquals("3", values.get("b"));
+  }
+
+  @Test
+  void sendsRequestsAloneWhenServerRefusesBatch() throws Exception {
+    values.put("a", "1");
+    values.put("c", "3");
+    this.startHeldClient();
+    CompletableFuture<Void> a = client.delete("a");
+    CompletableFuture<Void> missing = client.delete("missing");
+    CompletableFuture<Void> c = client.delete("c");
+    released.countDown();
+
+    a.get(10, TimeUnit.SECONDS);
+    c.get(10, TimeUnit.SECONDS);
+    assertFails(missing);
+    assertEquals(List.of("deleteAll [a, missing, c]", "DELETE [a]", "DELETE [missing]",
+            "DELETE [c]"), calls.subList(1, calls.size()));
+    assertFalse(values.containsKey("a"));
+    assertFalse(values.containsKey("c"));
+  }
+
+  @Test
+  void sendsPutsAndGetsAloneWhenServerRefusesBatch() throws Exception {
+    rejectsBatches = true;
+    this.startHeldClient();
+    CompletableFuture<Void> first = client.put("a", "1");
+    CompletableFuture<Void> second = client.put("b", "2");
+    CompletableFuture<String> a = client.get("a");
+    CompletableFuture<String> b = client.get("b");
+    released.countDown();
+
+    first.get(10, TimeUnit.SECONDS);
+    second.get(10, TimeUnit.SECONDS);
+    assertEquals("1", a.get(10, TimeUnit.SECONDS));
+    assertEquals("2", b.get(10, TimeUnit.SECONDS));
+    assertEquals(List.of("putAll {a=1, b=2}", "PUT [a]", "PUT [b]", "getAll [a, b]", "GET [a]",
+            "GET [b]"), calls.subList(1, calls.size()));
+  }
+
+  @Test
+  void readsWaitForWritesOfTheSameKey() throws Exception {
+    client = new AsyncClient(server, 4, 16);
+    client.put("a", "new");
+    waitForCalls(1);
+    CompletableFuture<String> read = client.get("a");
+    // there are calls to spare, but the read must not overtake the write
+    Thread.sleep(200);
+    assertEquals(1, calls.size());
+    assertFalse(read.isDone());
+
+    released.countDown();
+    assertEquals("new", read.get(10, TimeUnit.SECONDS));
+    assertEquals(List.of("PUT [a]", "GET [a]"), calls);
+  }
+}
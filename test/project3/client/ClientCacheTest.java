@@ -0,0 +1,84 @@
+package project3.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import project3.CacheListener;
+
+/**
+ * Tests that the client cache only serves values that no commit it was told about has changed,
+ * and only while its subscription with the participants lasts.
+ */
+class ClientCacheTest {
+  private final ClientCache cache = new ClientCache(2);
+
+  private void read(String key, String value) {
+    cache.endRead(key, cache.beginRead(key), value);
+  }
+
+  @Test
+  void servesNothingWithoutLease() {
+    this.read("a", "1");
+    assertNull(cache.get("a"));
+    cache.renew(System.nanoTime(), true);
+    assertEquals("1", cache.get("a"));
+  }
+
+  @Test
+  void dropsValuesOfInvalidatedKeys() {
+    cache.renew(System.nanoTime(), true);
+    this.read("a", "1");
+    this.read("b", "2");
+    cache.invalidate(List.of("a", "missing"));
+    assertNull(cache.get("a"));
+    assertEquals("2", cache.get("b"));
+  }
+
+  @Test
+  void stopsServingValuesOnceLeaseRunsOut() {
+    long leaseNanos = TimeUnit.MILLISECONDS.toNanos(CacheListener.LEASE_MILLIS);
+    cache.renew(System.nanoTime() - leaseNanos - 1, true);
+    this.read("a", "1");
+    assertNull(cache.get("a"));
+
+    // a renewal that was dropped by the participants in between may have missed commits
+    cache.renew(System.nanoTime(), true);
+    assertEquals("1", cache.get("a"));
+    cache.renew(System.nanoTime(), false);
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  void refusesValueReadBeforeInvalidation() {
+    cache.renew(System.nanoTime(), true);
+    long read = cache.beginRead("a");
+    cache.invalidate(List.of("a"));
+    cache.endRead("a", read, "old");
+    assertNull(cache.get("a"));
+
+    // only the value of the latest read is cached
+    long first = cache.beginRead("a");
+    long second = cache.beginRead("a");
+    cache.endRead("a", first, "1");
+    assertNull(cache.get("a"));
+    cache.endRead("a", second, "2");
+    assertEquals("2", cache.get("a"));
+  }
+
+  @Test
+  void dropsValueThatWasReadLeastRecently() {
+    cache.renew(System.nanoTime(), true);
+    this.read("a", "1");
+    this.read("b", "2");
+    assertEquals("1", cache.get("a"));
+    this.read("c", "3");
+    assertNull(cache.get("b"));
+    assertEquals("1", cache.get("a"));
+    assertEquals("3", cache.get("c"));
+  }
+}
@@ -0,0 +1,76 @@
+package project3.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import project3.Request;
+import project3.RequestHandler;
+import project3.Response;
+
+/**
+ * Tests that the router moves on to another server when one can't be reached, and that it sends
+ * fewer requests to a server that answers slowly.
+ */
+class ReplicaRouterTest {
+  private final List<AtomicInteger> requests = new ArrayList<>();
+
+  private RequestHandler server(String name, long delayMillis, boolean isReachable) {
+    AtomicInteger count = new AtomicInteger();
+    requests.add(count);
+    return (RequestHandler) Proxy.newProxyInstance(RequestHandler.class.getClassLoader(),
+            new Class<?>[] {RequestHandler.class}, (proxy, method, args) -> {
+              if (!method.getName().equals("handle")) {
+                throw new UnsupportedOperationException(method.getName());
+              }
+              count.incrementAndGet();
+              Thread.sleep(delayMillis);
+              if (!isReachable) {
+                throw new RemoteException("Server " + name + " can't be reached.");
+              }
+              return Response.success(name);
+            });
+  }
+
+  @Test
+  void movesOnToAnotherServerWhenOneFails() throws Exception {
+    ReplicaRouter router = new ReplicaRouter(List.of(this.server("first", 0, true),
+            this.server("down", 0, false), this.server("third", 0, true)));
+    for (int i = 0; i < 50; i++) {
+      String name = router.handle(Request.get("a")).getText();
+      assertTrue(name.equals("first") || name.equals("third"));
+    }
+    // the server that failed is left out for a while after its failure
+    assertEquals(1, requests.get(1).get());
+  }
+
+  @Test
+  void failsOnlyWhenNoServerCanBeReached() throws Exception {
+    ReplicaRouter router = new ReplicaRouter(List.of(this.server("first", 0, false),
+            this.server("second", 0, false)));
+    assertThrows(RemoteException.class, () -> router.handle(Request.get("a")));
+    assertEquals(1, requests.get(0).get());
+    assertEquals(1, requests.get(1).get());
+    // servers that are all failing are still tried rather than giving up on the request
+    assertThrows(RemoteException.class, () -> router.handle(Request.get("a")));
+    assertEquals(2, requests.get(0).get());
+  }
+
+  @Test
+  void sendsFewerRequestsToSlowServer() throws Exception {
+    ReplicaRouter router = new ReplicaRouter(List.of(this.server("slow", 20, true),
+            this.server("second", 0, true), this.server("third", 0, true)));
+    for (int i = 0; i < 60; i++) {
+      router.handle(Request.get("a"));
+    }
+    assertTrue(requests.get(0).get() < 10, "Slow server got " + requests.get(0) + " requests");
+  }
+}
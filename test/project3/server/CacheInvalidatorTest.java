@@ -0,0 +1,85 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import project3.CacheListener;
+
+/**
+ * Tests of the subscriptions of caching clients and of the keys that are sent to them.
+ */
+class CacheInvalidatorTest {
+  private final CacheInvalidator invalidator = new CacheInvalidator();
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void tellsWhetherClientWasSubscribedTheWholeTime() {
+    CacheListener first = keys -> { };
+    CacheListener second = keys -> { };
+    assertFalse(invalidator.subscribe("client", first));
+    assertTrue(invalidator.subscribe("client", first));
+    // another cache under the same name replaces the old one, which may have missed keys
+    assertFalse(invalidator.subscribe("client", second));
+    assertEquals(Map.of("client", second), invalidator.getListeners());
+  }
+
+  @Test
+  void sendsKeysCommittedDuringCallInNextOne() throws Exception {
+    CountDownLatch released = new CountDownLatch(1);
+    List<List<String>> calls = new CopyOnWriteArrayList<>();
+    invalidator.subscribe("client", keys -> {
+      calls.add(keys);
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    invalidator.invalidate(List.of("a"));
+    waitFor(() -> calls.size() == 1);
+    invalidator.invalidate(List.of("b", "c"));
+    invalidator.invalidate(List.of("c", "d"));
+    released.countDown();
+    waitFor(() -> calls.size() == 2);
+    assertEquals(List.of(List.of("a"), List.of("b", "c", "d")), calls);
+  }
+
+  @Test
+  void dropsClientThatFails() throws Exception {
+    Set<String> received = ConcurrentHashMap.newKeySet();
+    CacheListener failing = keys -> {
+      throw new RemoteException("Client can't be reached.");
+    };
+    CacheListener working = received::addAll;
+    invalidator.subscribe("failing", failing);
+    invalidator.subscribe("working", working);
+
+    invalidator.invalidate(List.of("a"));
+    waitFor(() -> !invalidator.getListeners().containsKey("failing"));
+    waitFor(() -> received.contains("a"));
+    assertEquals(Map.of("working", working), invalidator.getListeners());
+    // the client finds out that it was dropped when it renews
+    assertFalse(invalidator.subscribe("failing", failing));
+  }
+}
@@ -0,0 +1,204 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import project3.Mutation;
+
+/**
+ * Tests of the coordinator running the 2 phase commit protocol on participants in the same
+ * process. A restart of the coordinator is simulated by starting a new one on a copy of its log,
+ * since the old one can't be stopped.
+ */
+class CoordinatorImplTest {
+  private static final long PREPARE_TIMEOUT_MILLIS = 1000;
+  private static final long COMMIT_TIMEOUT_MILLIS = 300;
+
+  @TempDir
+  Path directory;
+
+  private CoordinatorImpl coordinator;
+  private TestParticipant first;
+  private TestParticipant second;
+  private int restarts;
+
+  @BeforeEach
+  void start() throws IOException {
+    coordinator = this.startCoordinator(directory.resolve("coordinator"));
+    first = new TestParticipant("first", directory);
+    second = new TestParticipant("second", directory);
+    TestParticipant.join(coordinator, first, second);
+  }
+
+  private CoordinatorImpl startCoordinator(Path dataDirectory) throws IOException {
+    // participants in tests send no heartbeats, so they must never be considered dead
+    return new CoordinatorImpl(0, 8, Integer.MAX_VALUE, PREPARE_TIMEOUT_MILLIS,
+            COMMIT_TIMEOUT_MILLIS, TimeUnit.MINUTES.toMillis(10), dataDirectory);
+  }
+
+  private CoordinatorImpl restart() throws IOException {
+    Path copy = Files.createDirectories(directory.resolve("coordinator-" + ++restarts));
+    try (Stream<Path> files = Files.list(directory.resolve("coordinator"))) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.copy(file, copy.resolve(file.getFileName()));
+      }
+    }
+    return this.startCoordinator(copy);
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+      Thread.sleep(50);
+    }
+  }
+
+  private Outcome execute(Mutation... mutations) throws InterruptedException {
+    return coordinator.executeTransaction(List.of(mutations));
+  }
+
+  @Test
+  void commitsOnEveryReplica() throws Exception {
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.put("a", "1"), Mutation.put("b", "2")));
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.increment("a", 5),
+            Mutation.append("b", "x"), Mutation.put("c", "3")));
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.delete("c")));
+    for (TestParticipant participant : List.of(first, second)) {
+      assertEquals("6", participant.get("a"));
+      assertEquals("2x", participant.get("b"));
+      assertThrows(IllegalArgumentException.class, () -> participant.get("c"));
+    }
+    assertTrue(first.aborted.isEmpty());
+    assertTrue(second.aborted.isEmpty());
+  }
+
+  @Test
+  void refusesKeyThatAppearsTwice() {
+    assertThrows(IllegalArgumentException.class,
+            () -> this.execute(Mutation.put("a", "1"), Mutation.delete("a")));
+  }
+
+  @Test
+  void abortsOnlyReplicasThatMayHavePrepared() throws Exception {
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.put("a", "1")));
+    // another transaction holds the key on the first participant only
+    assertEquals(Vote.YES, first.askPrepare(1, List.of(Mutation.put("a", "other"))));
+
+    assertEquals(Outcome.CONFLICT, this.execute(Mutation.put("a", "2")));
+    long transactionId = second.prepared.get(1);
+    // the first participant voted no and has dropped the transaction already, while the second
+    // voted yes or hadn't answered yet
+    assertFalse(first.aborted.contains(transactionId));
+    assertTrue(second.aborted.contains(transactionId));
+    assertEquals(Decision.ABORT, coordinator.getDecision(transactionId));
+
+    first.abort(1);
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.put("a", "3")));
+    assertEquals("3", first.get("a"));
+    assertEquals("3", second.get("a"));
+  }
+
+  @Test
+  void rejectsMutationThatCantBeApplied() throws Exception {
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.put("a", "text")));
+    assertEquals(Outcome.REJECTED, this.execute(Mutation.increment("a", 1)));
+    assertEquals(Outcome.REJECTED, this.execute(Mutation.compareAndSet("a", "other", "new")));
+    assertEquals(Outcome.REJECTED, this.execute(Mutation.delete("missing")));
+    assertEquals("text", first.get("a"));
+    assertEquals("text", second.get("a"));
+  }
+
+  @Test
+  void rejectsWhenVotePolicySaysNo() throws Exception {
+    TestParticipant refusing = new TestParticipant("refusing", directory, (key, ready) -> false);
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.put("a", "1")));
+    TestParticipant.join(coordinator, refusing);
+    assertEquals(Outcome.REJECTED, this.execute(Mutation.put("a", "2")));
+    assertEquals("1", first.get("a"));
+  }
+
+  @Test
+  void failsWhenReplicaDoesNotVoteInTime() throws Exception {
+    second.prepareDelayMillis = 2 * PREPARE_TIMEOUT_MILLIS;
+    CompletableFuture<Outcome> outcome = CompletableFuture.supplyAsync(() -> {
+      try {
+        return this.execute(Mutation.put("a", "1"));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    waitFor(() -> !second.prepared.isEmpty());
+    long transactionId = second.prepared.get(0);
+    assertEquals(Decision.PENDING, coordinator.getDecision(transactionId));
+    assertTrue(coordinator.isPartOfOngoingTransaction("a"));
+    assertEquals(Outcome.CONFLICT, this.execute(Mutation.put("a", "2")));
+
+    assertEquals(Outcome.FAILED, outcome.get());
+    assertFalse(coordinator.isPartOfOngoingTransaction("a"));
+    assertEquals(Decision.ABORT, coordinator.getDecision(transactionId));
+    assertTrue(first.aborted.contains(transactionId));
+    // the abort reached the second participant before its prepare, which then stages nothing
+    assertTrue(second.aborted.contains(transactionId));
+    second.prepareDelayMillis = 0;
+    Thread.sleep(2 * PREPARE_TIMEOUT_MILLIS);
+    assertEquals(Outcome.COMMITTED, this.execute(Mutation.put("a", "3")));
+    assertEquals("3", second.get("a"));
+  }
+
+  @Test
+  void answersDecisionsOfItsOwnTransactionsOnly() {
+    // a transaction that the coordinator has no commit for is aborted
+    assertEquals(Decision.ABORT, coordinator.getDecision(12345));
+    assertEquals(Decision.UNKNOWN, coordinator.getDecision((1L << 55) | 12345));
+  }
+
+  @Test
+  void sendsCommitAgainUntilEveryReplicaAcknowledgesIt() throws Exception {
+    second.commitsToFail = 2;
+    assertEquals(Outcome.COMMITTED, coordinator.executeTransaction(List.of(Mutation.put("a", "1"))));
+    long transactionId = first.prepared.get(0);
+    assertEquals("1", first.get("a"));
+    assertEquals(Decision.COMMIT, coordinator.getDecision(transactionId));
+
+    // the commit is forgotten once the second participant has it too
+    waitFor(() -> coordinator.getDecision(transactionId) == Decision.ABORT);
+    assertEquals(0, second.commitsToFail);
+    assertEquals("1", second.get("a"));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (this.restart().getDecision(transactionId) != Decision.ABORT) {
+      // the forget record is written in the background
+      assertTrue(System.nanoTime() < deadline, "Forget record not written in time");
+      Thread.sleep(50);
+    }
+  }
+
+  @Test
+  void recoversUnacknowledgedCommitAndItsReplicas() throws Exception {
+    second.commitsToFail = Integer.MAX_VALUE;
+    assertEquals(Outcome.COMMITTED, coordinator.executeTransaction(List.of(Mutation.put("a", "1"))));
+    long transactionId = first.prepared.get(0);
+
+    CoordinatorImpl restarted = this.restart();
+    assertEquals(Decision.COMMIT, restarted.getDecision(transactionId));
+    TestParticipant.join(restarted, first, second);
+    second.commitsToFail = 0;
+    waitFor(() -> restarted.getDecision(transactionId) == Decision.ABORT);
+    assertEquals("1", second.get("a"));
+  }
+}
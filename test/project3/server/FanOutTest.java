@@ -0,0 +1,127 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import project3.RequestHandler;
+
+/**
+ * Tests that the fan-out returns as soon as the outcome of the calls is known, and that it counts
+ * calls that fail or don't return in time against the outcome.
+ */
+class FanOutTest {
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final FanOut fanOut = new FanOut(4);
+  private final CountDownLatch released = new CountDownLatch(1);
+  private final RequestHandler first = participant();
+  private final RequestHandler second = participant();
+  private final RequestHandler third = participant();
+
+  private static RequestHandler participant() {
+    // the calls under test are made by the test itself, so the participants are only names
+    return (RequestHandler) Proxy.newProxyInstance(RequestHandler.class.getClassLoader(),
+            new Class<?>[] {RequestHandler.class}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+
+                case "equals":
+                  return proxy == args[0];
+
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  @AfterEach
+  void release() {
+    released.countDown();
+  }
+
+  private Vote block() {
+    try {
+      released.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return Vote.YES;
+  }
+
+  @Test
+  void agreesWhenAllVoteYes() throws Exception {
+    Map<RequestHandler, Vote> votes = new ConcurrentHashMap<>();
+    assertTrue(fanOut.allAgree(List.of(first, second, third), participant -> Vote.YES,
+            TIMEOUT_MILLIS, votes));
+    assertEquals(Map.of(first, Vote.YES, second, Vote.YES, third, Vote.YES), votes);
+    assertTrue(fanOut.allAgree(List.of(), participant -> Vote.REJECTED, TIMEOUT_MILLIS, votes));
+  }
+
+  @Test
+  void stopsAtFirstVoteThatIsNotYes() throws Exception {
+    Map<RequestHandler, Vote> votes = new ConcurrentHashMap<>();
+    long start = System.nanoTime();
+    assertFalse(fanOut.allAgree(List.of(first, second, third),
+            participant -> participant == second ? Vote.CONFLICT : this.block(), TIMEOUT_MILLIS,
+            votes));
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS / 2));
+    // the others have not voted yet
+    assertEquals(Map.of(second, Vote.CONFLICT), votes);
+  }
+
+  @Test
+  void countsFailedCallAsNo() throws Exception {
+    Map<RequestHandler, Vote> votes = new ConcurrentHashMap<>();
+    assertFalse(fanOut.allAgree(List.of(first, second), participant -> {
+      if (participant == first) {
+        throw new RemoteException("Participant can't be reached.");
+      }
+      return Vote.YES;
+    }, TIMEOUT_MILLIS, votes));
+    assertFalse(votes.containsKey(first));
+  }
+
+  @Test
+  void disagreesWhenVotesDoNotComeInTime() throws Exception {
+    Map<RequestHandler, Vote> votes = new ConcurrentHashMap<>();
+    assertFalse(fanOut.allAgree(List.of(first, second),
+            participant -> participant == first ? Vote.YES : this.block(), 200, votes));
+    assertEquals(Map.of(first, Vote.YES), votes);
+  }
+
+  @Test
+  void runsCallOnAllParticipants() throws Exception {
+    Map<RequestHandler, Boolean> called = new ConcurrentHashMap<>();
+    assertTrue(fanOut.runOnAll(List.of(first, second, third),
+            participant -> called.put(participant, true), TIMEOUT_MILLIS));
+    assertEquals(3, called.size());
+
+    assertFalse(fanOut.runOnAll(List.of(first, second), participant -> {
+      if (participant == second) {
+        throw new RemoteException("Participant can't be reached.");
+      }
+      return null;
+    }, TIMEOUT_MILLIS));
+  }
+
+  @Test
+  void failsCallsThatDoNotFinishInTime() throws Exception {
+    long start = System.nanoTime();
+    assertFalse(fanOut.runOnAll(List.of(first, second),
+            participant -> participant == first ? null : this.block(), 200));
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS / 2));
+  }
+}
@@ -0,0 +1,18 @@
+package project3.server;
+
+import java.io.IOException;
+
+/**
+ * Tests of the storage engine that keeps the pairs in a map on the Java heap.
+ */
+class HeapStorageEngineTest extends StorageEngineTest {
+  @Override
+  StorageEngine create() {
+    return new HeapStorageEngine(16);
+  }
+
+  @Override
+  StorageEngine restart(StorageEngine engine) throws IOException {
+    return restartFromSnapshot(engine, new HeapStorageEngine(16));
+  }
+}
@@ -0,0 +1,96 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the storage engine that keeps the values in data files on disk, which is restarted by
+ * opening its files again after a checkpoint.
+ */
+class LogStructuredStorageEngineTest extends StorageEngineTest {
+  private Path store() {
+    return directory.resolve("store");
+  }
+
+  @Override
+  StorageEngine create() throws IOException {
+    return new LogStructuredStorageEngine(store(), 16);
+  }
+
+  @Override
+  StorageEngine restart(StorageEngine engine) throws IOException {
+    assertTrue(engine.checkpoint(1));
+    StorageEngine restarted = new LogStructuredStorageEngine(store(), 16);
+    assertEquals(1, restarted.getCheckpoint());
+    return restarted;
+  }
+
+  private long countFiles(String suffix) throws IOException {
+    try (Stream<Path> paths = Files.list(store())) {
+      return paths.filter(path -> path.toString().endsWith(suffix)).count();
+    }
+  }
+
+  @Test
+  void cutsOffPartlyWrittenRecord() throws IOException {
+    engine.put("a", "1", 0);
+    engine.put("b", "2", 0);
+    engine.checkpoint(1);
+    Path file = store().resolve("data-1.log");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    StorageEngine restarted = new LogStructuredStorageEngine(store(), 16);
+    assertEquals("1", restarted.get("a").getValue());
+    assertNull(restarted.get("b"));
+    restarted.put("c", "3", 0);
+    assertEquals("3", new LogStructuredStorageEngine(store(), 16).get("c").getValue());
+  }
+
+  @Test
+  void mergesOldFilesAndRebuildsIndexFromHints() throws IOException {
+    long expiresAt = System.currentTimeMillis() + 60000;
+    for (int i = 0; i < 10; i++) {
+      engine.put("key" + i, "value" + i, i % 2 == 0 ? expiresAt : 0);
+    }
+    // enough replaced values to fill more than two data files with old records
+    String large = "x".repeat(512 * 1024);
+    for (int i = 0; i < 300; i++) {
+      engine.put("large", i + large, 0);
+    }
+    long filesBefore = countFiles(".log");
+    assertTrue(engine.checkpoint(1));
+    assertTrue(countFiles(".log") < filesBefore);
+    assertEquals(1, countFiles(".hint"));
+
+    StorageEngine restarted = new LogStructuredStorageEngine(store(), 16);
+    assertEquals(11, restarted.size());
+    assertEquals(299 + large, restarted.get("large").getValue());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("value" + i, restarted.get("key" + i).getValue());
+      assertEquals(i % 2 == 0 ? expiresAt : 0, restarted.getExpiresAt("key" + i));
+    }
+  }
+
+  @Test
+  void refusesDataFilesOfOlderFormat() throws IOException {
+    engine.put("a", "1", 0);
+    engine.checkpoint(1);
+    Files.delete(store().resolve("format"));
+    assertThrows(IOException.class, () -> new LogStructuredStorageEngine(store(), 16));
+    assertFalse(Files.exists(store().resolve("format")));
+  }
+}
@@ -0,0 +1,65 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import project3.RequestHandler;
+
+/**
+ * Tests that participants are considered dead once they miss their heartbeats, and alive again
+ * only once they join again.
+ */
+class MembershipTest {
+  private static final long FAILURE_TIMEOUT_MILLIS = 300;
+
+  private final Membership membership = new Membership(FAILURE_TIMEOUT_MILLIS);
+
+  private static RequestHandler participant() {
+    // the membership never calls its participants
+    return (RequestHandler) Proxy.newProxyInstance(RequestHandler.class.getClassLoader(),
+            new Class<?>[] {RequestHandler.class}, (proxy, method, args) -> {
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private void sendHeartbeats(String name, long millis) throws InterruptedException {
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    while (System.nanoTime() - end < 0) {
+      assertTrue(membership.heartbeat(name));
+      Thread.sleep(FAILURE_TIMEOUT_MILLIS / 10);
+    }
+  }
+
+  @Test
+  void marksParticipantDeadAfterMissedHeartbeatsUntilItJoinsAgain() throws Exception {
+    RequestHandler first = participant();
+    RequestHandler second = participant();
+    assertFalse(membership.heartbeat("first"));
+    membership.join("first", first);
+    membership.join("second", second);
+    membership.start();
+
+    // only the first participant keeps sending heartbeats
+    this.sendHeartbeats("first", 3 * FAILURE_TIMEOUT_MILLIS);
+    assertTrue(membership.isAlive("first"));
+    assertFalse(membership.isAlive("second"));
+    assertEquals(List.of("first"), List.copyOf(membership.getAlive().keySet()));
+    assertEquals(List.of("first", "second"), List.copyOf(membership.getMembers().keySet()));
+    // a participant that was dead has to join again, since it missed transactions
+    assertFalse(membership.heartbeat("second"));
+
+    RequestHandler restarted = participant();
+    membership.join("second", restarted);
+    assertTrue(membership.heartbeat("second"));
+    assertEquals(List.of("first", "second"), List.copyOf(membership.getAlive().keySet()));
+    assertSame(restarted, membership.getAlive().get("second"));
+  }
+}
@@ -0,0 +1,146 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import project3.Mutation;
+
+/**
+ * Tests that staged versions stay invisible until they are committed, and that the sorted keys
+ * and the times at which keys expire follow every change of the committed versions.
+ */
+class MultiVersionStoreTest {
+  private static final long FUTURE = Long.MAX_VALUE / 2;
+
+  private final HeapStorageEngine engine = new HeapStorageEngine(16);
+  private final MultiVersionStore store = new MultiVersionStore(engine, true);
+
+  @Test
+  void hidesStagedVersionsUntilCommit() {
+    store.load("a", "1", 0);
+    assertTrue(store.stage(1, Mutation.put("a", "2")));
+    assertTrue(store.stage(1, Mutation.put("b", "3")));
+    assertTrue(store.isStaged("a"));
+    assertEquals("1", store.get("a"));
+    assertNull(store.get("b"));
+    assertFalse(store.contains("b"));
+    assertEquals(Map.of("a", "1"), store.scan("", null, 10));
+    assertFalse(store.stage(2, Mutation.put("a", "4")));
+    assertThrows(IllegalStateException.class, () -> store.commit(2, "a"));
+
+    store.commit(1, "a");
+    store.commit(1, "b");
+    assertFalse(store.isStaged("a"));
+    assertEquals("2", store.get("a"));
+    assertEquals("3", store.get("b"));
+    assertEquals(Map.of("a", "2", "b", "3"), store.scan("", null, 10));
+
+    assertTrue(store.stage(3, Mutation.delete("a")));
+    assertEquals("2", store.get("a"));
+    store.commit(3, "a");
+    assertNull(store.get("a"));
+  }
+
+  @Test
+  void dropsStagedVersionsOnAbort() {
+    store.load("a", "1", 0);
+    assertTrue(store.stage(1, Mutation.put("a", "2")));
+    // only the transaction that staged the version can drop it
+    store.discard(2, "a");
+    assertTrue(store.isStaged("a"));
+
+    store.discard(1, "a");
+    assertFalse(store.isStaged("a"));
+    assertEquals("1", store.get("a"));
+    assertTrue(store.stage(3, Mutation.put("a", "3")));
+  }
+
+  @Test
+  void removesExpiredKeysInOrderOfTime() {
+    store.load("a", "1", 3000);
+    store.load("b", "2", 1000);
+    store.load("c", "3", 2000);
+    store.load("d", "4", 0);
+    store.load("e", "5", FUTURE);
+    assertNull(store.get("b"));
+    assertFalse(store.contains("b"));
+    assertEquals(Map.of("d", "4", "e", "5"), store.scan("", null, 10));
+
+    assertEquals(List.of("b", "c"), store.removeExpired(2500, 10));
+    assertFalse(engine.contains("b"));
+    assertTrue(engine.contains("a"));
+    assertEquals(List.of("a"), store.removeExpired(FUTURE - 1, 1));
+    assertEquals(List.of(), store.removeExpired(FUTURE - 1, 10));
+    assertEquals(List.of("e"), store.removeExpired(FUTURE, 10));
+    assertEquals("4", store.get("d"));
+  }
+
+  @Test
+  void forgetsOldTimesOfChangedKeys() {
+    store.load("a", "1", 1000);
+    store.apply(Mutation.put("a", "2"));
+    store.load("b", "1", 1000);
+    store.apply(Mutation.put("b", "2", 2000));
+    store.load("c", "1", 1000);
+    store.apply(Mutation.delete("c"));
+    store.apply(Mutation.put("c", "2"));
+
+    assertEquals(List.of("b"), store.removeExpired(5000, 10));
+    assertEquals("2", store.get("a"));
+    assertEquals("2", store.get("c"));
+  }
+
+  @Test
+  void leavesExpiredKeysOfPreparedTransactions() {
+    store.load("a", "1", 1000);
+    assertTrue(store.stage(1, Mutation.put("a", "2")));
+    assertEquals(List.of(), store.removeExpired(5000, 10));
+    store.discard(1, "a");
+    assertEquals(List.of("a"), store.removeExpired(5000, 10));
+  }
+
+  @Test
+  void keepsSortedKeysLikeStorageEngine() {
+    MultiVersionStore unordered = new MultiVersionStore(new HeapStorageEngine(16), false);
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      String key = "key" + random.nextInt(300);
+      int choice = random.nextInt(4);
+      Mutation mutation = choice == 0 ? Mutation.delete(key)
+              : Mutation.put(key, "value" + i, choice == 1 ? 1000 + random.nextInt(1000) : 0);
+      store.apply(mutation);
+      unordered.apply(mutation);
+      if (i % 500 == 0) {
+        assertEquals(unordered.removeExpired(1500, 1000), store.removeExpired(1500, 1000));
+      }
+    }
+    assertEquals(unordered.removeExpired(5000, 1000), store.removeExpired(5000, 1000));
+
+    for (String start : List.of("", "key1", "key15", "key2", "key299")) {
+      for (String end : new String[] {null, "key2", "key3"}) {
+        for (int limit : new int[] {1, 7, 1000}) {
+          assertEquals(unordered.scan(start, end, limit), store.scan(start, end, limit));
+        }
+      }
+    }
+
+    // values that get into the engine behind the store's back are only found by a scan if their
+    // keys are still sorted, which they must not be once they are deleted or expired
+    Map<String, String> live = unordered.scan("", null, 1000);
+    for (int i = 0; i < 300; i++) {
+      if (!live.containsKey("key" + i)) {
+        engine.put("key" + i, "stale", 0);
+      }
+    }
+    assertEquals(live, store.scan("", null, 1000));
+  }
+}
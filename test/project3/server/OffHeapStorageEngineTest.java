@@ -0,0 +1,69 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the storage engine that keeps the pairs in memory outside of the Java heap, including
+ * while its old records are being compacted.
+ */
+class OffHeapStorageEngineTest extends StorageEngineTest {
+  @Override
+  StorageEngine create() {
+    return new OffHeapStorageEngine(16);
+  }
+
+  @Override
+  StorageEngine restart(StorageEngine engine) throws IOException {
+    return restartFromSnapshot(engine, new OffHeapStorageEngine(16));
+  }
+
+  @Test
+  void keepsPairsWhileCompacting() {
+    // enough replaced values to fill several chunks with old records
+    Map<String, String> expected = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      engine.put("key" + i, "value" + i, i);
+      expected.put("key" + i, "value" + i);
+    }
+    Iterator<StorageEngine.Entry> iterator = engine.iterator();
+    Set<String> seen = new HashSet<>();
+    Set<String> changed = new HashSet<>();
+
+    String large = "x".repeat(256 * 1024);
+    for (int i = 0; i < 1200; i++) {
+      String key = "key" + (i % 50);
+      String value = i + large;
+      engine.put(key, value, 0);
+      expected.put(key, value);
+      changed.add(key);
+      if (iterator.hasNext()) {
+        seen.add(iterator.next().getKey());
+      }
+    }
+    while (iterator.hasNext()) {
+      seen.add(iterator.next().getKey());
+    }
+
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), engine.get(entry.getKey()).getValue());
+    }
+    assertEquals(expected.size(), engine.size());
+    for (int i = 50; i < 100; i++) {
+      assertEquals(i, engine.getExpiresAt("key" + i));
+    }
+    // the iterator returns every key that existed when it was created and was left unchanged
+    Set<String> unchanged = new HashSet<>(expected.keySet());
+    unchanged.removeAll(changed);
+    assertTrue(seen.containsAll(unchanged));
+  }
+}
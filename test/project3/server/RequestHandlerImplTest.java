@@ -0,0 +1,163 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import project3.Mutation;
+import project3.Request;
+
+/**
+ * Tests of the participant side of the 2 phase commit protocol: staging and locking keys in the
+ * prepare phase, aborts that arrive before their prepare, and prepared transactions that are
+ * staged again from the write-ahead log after a restart. Also tests scans of ranges that are
+ * stored on several participants.
+ */
+class RequestHandlerImplTest {
+  @TempDir
+  Path directory;
+
+  private TestParticipant participant;
+
+  @BeforeEach
+  void start() throws Exception {
+    participant = new TestParticipant("participant", directory);
+    participant.askPrepare(1, List.of(Mutation.put("a", "1"), Mutation.put("b", "2")));
+    participant.commit(1);
+  }
+
+  @Test
+  void locksKeysUntilDecision() throws Exception {
+    assertEquals(Vote.YES, participant.askPrepare(2, List.of(Mutation.put("a", "new"))));
+    // reads see the committed value while the new one is staged
+    assertEquals("1", participant.get("a"));
+    assertEquals(Vote.CONFLICT, participant.askPrepare(3, List.of(Mutation.delete("a"))));
+
+    participant.commit(2);
+    assertEquals("new", participant.get("a"));
+    // a commit that is delivered again changes nothing
+    participant.commit(2);
+    assertEquals(Vote.YES, participant.askPrepare(3, List.of(Mutation.delete("a"))));
+  }
+
+  @Test
+  void stagesAllMutationsOrNone() throws Exception {
+    assertEquals(Vote.YES, participant.askPrepare(2, List.of(Mutation.put("b", "other"))));
+    assertEquals(Vote.CONFLICT,
+            participant.askPrepare(3, List.of(Mutation.put("c", "3"), Mutation.put("b", "3"))));
+    // the key that was staged before the conflict was released again
+    assertEquals(Vote.YES, participant.askPrepare(4, List.of(Mutation.put("c", "4"))));
+    participant.abort(2);
+    assertEquals("2", participant.get("b"));
+  }
+
+  @Test
+  void resolvesMutationsCarriedInPrepare() throws Exception {
+    assertEquals(Vote.YES, participant.askPrepare(2, List.of(Mutation.compareAndSet("a", "1", "x"),
+            Mutation.increment("n", 5), Mutation.append("b", "!"))));
+    participant.commit(2);
+    assertEquals("x", participant.get("a"));
+    assertEquals("5", participant.get("n"));
+    assertEquals("2!", participant.get("b"));
+
+    assertEquals(Vote.REJECTED,
+            participant.askPrepare(3, List.of(Mutation.compareAndSet("a", "1", "y"))));
+    assertEquals(Vote.REJECTED, participant.askPrepare(4, List.of(Mutation.increment("b", 1))));
+    assertEquals(Vote.REJECTED, participant.askPrepare(5, List.of(Mutation.delete("missing"))));
+    // a rejected transaction holds no keys
+    assertEquals(Vote.YES, participant.askPrepare(6, List.of(Mutation.put("a", "z"))));
+  }
+
+  @Test
+  void rejectsPrepareThatArrivesAfterItsAbort() throws Exception {
+    participant.abort(2);
+    assertEquals(Vote.REJECTED, participant.askPrepare(2, List.of(Mutation.put("a", "new"))));
+    assertEquals(Vote.YES, participant.askPrepare(3, List.of(Mutation.put("a", "other"))));
+  }
+
+  @Test
+  void stagesPreparedTransactionsAgainAfterRestart() throws Exception {
+    assertEquals(Vote.YES, participant.askPrepare(2, List.of(Mutation.put("a", "new"))));
+    assertEquals(Vote.YES, participant.askPrepare(3, List.of(Mutation.delete("b"))));
+    participant.abort(3);
+    // aborts aren't waited for, but a later commit is only on disk once the abort is as well
+    assertEquals(Vote.YES, participant.askPrepare(4, List.of(Mutation.put("d", "4"))));
+    participant.commit(4);
+
+    TestParticipant restarted = new TestParticipant("participant", directory);
+    assertEquals("1", restarted.get("a"));
+    assertEquals("2", restarted.get("b"));
+    assertEquals("4", restarted.get("d"));
+    assertEquals(Vote.CONFLICT, restarted.askPrepare(5, List.of(Mutation.put("a", "other"))));
+    assertEquals(Vote.YES, restarted.askPrepare(6, List.of(Mutation.put("b", "other"))));
+    restarted.commit(2);
+    assertEquals("new", restarted.get("a"));
+  }
+
+  @Test
+  void abortsInDoubtTransactionThatCoordinatorHasNoCommitFor() throws Exception {
+    CoordinatorImpl coordinator = new CoordinatorImpl(0, 8, Integer.MAX_VALUE, 1000, 1000,
+            TimeUnit.MINUTES.toMillis(10), directory.resolve("coordinator"));
+    TestParticipant.join(coordinator, participant);
+    assertEquals(Vote.YES, participant.askPrepare(2, List.of(Mutation.put("a", "new"))));
+
+    participant.startInDoubtResolver(0);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (participant.askPrepare(3, List.of(Mutation.put("a", "other"))) != Vote.YES) {
+      assertTrue(System.nanoTime() < deadline, "In-doubt transaction not resolved in time");
+      Thread.sleep(50);
+    }
+    assertEquals("1", participant.get("a"));
+  }
+
+  @Test
+  void scansKeysOfAllParticipantsPageByPage() throws Exception {
+    // each key is stored on 2 of the 3 participants, so no participant has the whole range
+    CoordinatorImpl coordinator = new CoordinatorImpl(0, 8, 2, 1000, 1000,
+            TimeUnit.MINUTES.toMillis(10), directory.resolve("coordinator"));
+    TestParticipant first = new TestParticipant("first", directory);
+    TestParticipant second = new TestParticipant("second", directory);
+    TestParticipant third = new TestParticipant("third", directory);
+    TestParticipant.join(coordinator, first, second, third);
+    Map<String, String> expected = new LinkedHashMap<>();
+    for (int batch = 0; batch < 5; batch++) {
+      List<Mutation> mutations = new ArrayList<>();
+      for (int i = batch * 50; i < batch * 50 + 50; i++) {
+        String key = String.format("k%03d", i);
+        mutations.add(Mutation.put(key, "v" + i));
+        if (i < 200) {
+          expected.put(key, "v" + i);
+        }
+      }
+      assertEquals(Outcome.COMMITTED, coordinator.executeTransaction(mutations));
+    }
+    assertTrue(first.scanLocal("k", "k200", 1000).size() < expected.size());
+
+    Map<String, String> scanned = new LinkedHashMap<>();
+    String start = "k";
+    while (start != null) {
+      Map<String, String> page = second.scan(start, "k200", 7);
+      for (Map.Entry<String, String> entry : page.entrySet()) {
+        assertNull(scanned.put(entry.getKey(), entry.getValue()));
+      }
+      List<String> keys = new ArrayList<>(page.keySet());
+      start = page.size() < 7 ? null : Request.nextKey(keys.get(keys.size() - 1));
+    }
+    assertEquals(List.copyOf(expected.entrySet()), List.copyOf(scanned.entrySet()));
+
+    // a SCAN request gets all the pages at once
+    Map<String, String> values = third.handle(Request.parse("SCAN\tk\tk200")).getValues();
+    assertEquals(List.copyOf(expected.entrySet()), List.copyOf(values.entrySet()));
+  }
+}
@@ -0,0 +1,75 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that snapshots keep the time at which each key expires, and that snapshots of the first
+ * version, which have no times, can still be loaded.
+ */
+class SnapshotFileTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  void keepsExpiryTimes() throws IOException {
+    long expiresAt = System.currentTimeMillis() + 60000;
+    HeapStorageEngine engine = new HeapStorageEngine(16);
+    engine.put("a", "1", 0);
+    engine.put("b", "2", expiresAt);
+    Path path = directory.resolve("snapshot.bin");
+    SnapshotFile.write(path, 7, engine);
+
+    SnapshotFile.Header header = SnapshotFile.readHeader(path);
+    assertEquals(7, header.getFirstSegment());
+    assertEquals(2, header.getCount());
+    MultiVersionStore store = new MultiVersionStore(new HeapStorageEngine(16), false);
+    SnapshotFile.load(path, store);
+    assertEquals("1", store.get("a"));
+    assertEquals(0, store.getExpiresAt("a"));
+    assertEquals("2", store.get("b"));
+    assertEquals(expiresAt, store.getExpiresAt("b"));
+  }
+
+  @Test
+  void loadsFirstVersionWithoutExpiryTimes() throws IOException {
+    Path path = directory.resolve("snapshot.bin");
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+      out.writeInt(0x534e4150);
+      out.writeInt(1);
+      out.writeLong(3);
+      out.writeLong(2);
+      for (String s : List.of("a", "1", "b", "2")) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    assertEquals(3, SnapshotFile.readHeader(path).getFirstSegment());
+    MultiVersionStore store = new MultiVersionStore(new HeapStorageEngine(16), false);
+    SnapshotFile.load(path, store);
+    assertEquals("1", store.get("a"));
+    assertEquals("2", store.get("b"));
+    assertEquals(0, store.getExpiresAt("b"));
+    assertNull(store.get("c"));
+  }
+
+  @Test
+  void refusesOtherFiles() throws IOException {
+    Path path = directory.resolve("snapshot.bin");
+    Files.write(path, "not a snapshot file at all".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> SnapshotFile.readHeader(path));
+  }
+}
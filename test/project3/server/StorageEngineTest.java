@@ -0,0 +1,174 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that every storage engine stores, replaces and removes pairs along with the times at which
+ * they expire, and still holds them after a restart. Each engine has a subclass that creates it
+ * and restarts it the way a participant does.
+ */
+abstract class StorageEngineTest {
+  @TempDir
+  Path directory;
+
+  StorageEngine engine;
+
+  /**
+   * Method to create an empty engine.
+   *
+   * @return The engine.
+   * @throws IOException in case the engine can't be created.
+   */
+  abstract StorageEngine create() throws IOException;
+
+  /**
+   * Method to restart an engine the way a participant does after it was stopped.
+   *
+   * @param engine The engine to restart.
+   * @return The engine after the restart.
+   * @throws IOException in case the engine can't be restarted.
+   */
+  abstract StorageEngine restart(StorageEngine engine) throws IOException;
+
+  /**
+   * Method to restart an engine that keeps its pairs in memory by writing a snapshot of it and
+   * loading the snapshot into a new engine.
+   *
+   * @param engine The engine to restart.
+   * @param fresh  The new, empty engine.
+   * @return The new engine.
+   * @throws IOException in case the snapshot can't be written or loaded.
+   */
+  StorageEngine restartFromSnapshot(StorageEngine engine, StorageEngine fresh) throws IOException {
+    Path snapshot = directory.resolve("snapshot.bin");
+    SnapshotFile.write(snapshot, 1, engine);
+    SnapshotFile.load(snapshot, new MultiVersionStore(fresh, false));
+    return fresh;
+  }
+
+  @BeforeEach
+  void createEngine() throws IOException {
+    engine = create();
+  }
+
+  private static Map<String, String> contents(StorageEngine engine) {
+    Map<String, String> contents = new HashMap<>();
+    for (StorageEngine.Entry entry : engine) {
+      contents.put(entry.getKey(), entry.getValue() + "@" + entry.getExpiresAt());
+    }
+    return contents;
+  }
+
+  @Test
+  void getsWhatWasPut() {
+    long expiresAt = System.currentTimeMillis() + 60000;
+    engine.put("a", "1", 0);
+    engine.put("b", "2", expiresAt);
+
+    StorageEngine.Entry entry = engine.get("a");
+    assertEquals("a", entry.getKey());
+    assertEquals("1", entry.getValue());
+    assertEquals(0, entry.getExpiresAt());
+    assertEquals(expiresAt, engine.get("b").getExpiresAt());
+    assertEquals(expiresAt, engine.getExpiresAt("b"));
+    assertTrue(engine.contains("a"));
+    assertEquals(2, engine.size());
+
+    assertNull(engine.get("c"));
+    assertFalse(engine.contains("c"));
+    assertEquals(0, engine.getExpiresAt("c"));
+  }
+
+  @Test
+  void replacesValueAndExpiry() {
+    engine.put("a", "1", System.currentTimeMillis() + 60000);
+    engine.put("a", "longer value", 0);
+    assertEquals("longer value", engine.get("a").getValue());
+    assertEquals(0, engine.getExpiresAt("a"));
+    assertEquals(1, engine.size());
+  }
+
+  @Test
+  void removesPairs() {
+    engine.put("a", "1", 0);
+    engine.put("b", "2", 0);
+    engine.remove("a");
+    engine.remove("missing");
+    assertNull(engine.get("a"));
+    assertFalse(engine.contains("a"));
+    assertEquals("2", engine.get("b").getValue());
+    assertEquals(1, engine.size());
+
+    engine.put("a", "3", 0);
+    assertEquals("3", engine.get("a").getValue());
+  }
+
+  @Test
+  void iteratesLivePairsAndKeys() {
+    Map<String, String> expected = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      engine.put("key" + i, "value" + i, i % 3 == 0 ? 1000L + i : 0);
+      expected.put("key" + i, "value" + i + "@" + (i % 3 == 0 ? 1000L + i : 0));
+    }
+    for (int i = 0; i < 1000; i += 7) {
+      engine.remove("key" + i);
+      expected.remove("key" + i);
+    }
+    for (int i = 1; i < 1000; i += 10) {
+      engine.put("key" + i, "new" + i, 0);
+      expected.put("key" + i, "new" + i + "@0");
+    }
+
+    assertEquals(expected, contents(engine));
+    Set<String> keys = new HashSet<>();
+    for (String key : engine.keys()) {
+      assertTrue(keys.add(key));
+    }
+    assertEquals(expected.keySet(), keys);
+  }
+
+  @Test
+  void keepsPairsAcrossRestart() throws IOException {
+    long expiresAt = System.currentTimeMillis() + 60000;
+    engine.put("a", "1", 0);
+    engine.put("b", "caf\u00e9 \t tab", expiresAt);
+    engine.put("c", "3", 0);
+    engine.put("c", "changed", expiresAt);
+    engine.put("d", "", 0);
+    engine.put("gone", "x", 0);
+    engine.remove("gone");
+    Map<String, String> expected = contents(engine);
+
+    StorageEngine restarted = restart(engine);
+    assertEquals(expected, contents(restarted));
+    assertEquals(4, restarted.size());
+    assertEquals(expiresAt, restarted.getExpiresAt("c"));
+    assertNull(restarted.get("gone"));
+
+    restarted.put("e", "5", 0);
+    assertEquals("5", restarted.get("e").getValue());
+  }
+
+  @Test
+  void storesLargeValues() {
+    String value = "v".repeat(1 << 20);
+    engine.put("big", value, 0);
+    engine.put("small", "s", 0);
+    assertEquals(value, engine.get("big").getValue());
+    assertEquals("s", engine.get("small").getValue());
+  }
+}
@@ -0,0 +1,96 @@
+package project3.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import project3.Mutation;
+
+/**
+ * Participant that runs in the same process as the test and its coordinator. It remembers the
+ * calls that the coordinator makes on it, and it can be made slow to prepare or to fail commits,
+ * like a participant that is overloaded or can't be reached for a while.
+ */
+class TestParticipant extends RequestHandlerImpl {
+  final String name;
+  final List<Long> prepared;
+  final List<Long> aborted;
+  volatile long prepareDelayMillis;
+  volatile int commitsToFail;
+
+  /**
+   * Constructor that starts an empty participant with its data in the given directory.
+   *
+   * @param name      Unique name of the participant.
+   * @param directory Directory that holds the participant's log.
+   * @throws IOException in case the log can't be opened.
+   */
+  TestParticipant(String name, Path directory) throws IOException {
+    this(name, directory, new AutomaticVotePolicy());
+  }
+
+  /**
+   * Constructor that starts an empty participant that votes with the given policy.
+   *
+   * @param name       Unique name of the participant.
+   * @param directory  Directory that holds the participant's log.
+   * @param votePolicy The policy that decides the participant's votes.
+   * @throws IOException in case the log can't be opened.
+   */
+  TestParticipant(String name, Path directory, VotePolicy votePolicy) throws IOException {
+    super(votePolicy, ReadMode.LAST_COMMITTED, name, "heap", true,
+            directory.resolve(name).toAbsolutePath().toString());
+    this.name = name;
+    this.prepared = new CopyOnWriteArrayList<>();
+    this.aborted = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * Method that adds participants to a coordinator and tells them about the coordinator, the way
+   * that they join when they are started.
+   *
+   * @param coordinator  The coordinator.
+   * @param participants The participants to add.
+   * @throws RemoteException in case a participant can't be added.
+   */
+  static void join(Coordinator coordinator, TestParticipant... participants)
+          throws RemoteException {
+    for (TestParticipant participant : participants) {
+      participant.setCoordinators(Map.of("coordinator", coordinator));
+      coordinator.addParticipant(participant.name, participant);
+    }
+  }
+
+  @Override
+  public Vote askPrepare(long transactionId, List<Mutation> mutations) throws RemoteException {
+    prepared.add(transactionId);
+    if (prepareDelayMillis > 0) {
+      try {
+        Thread.sleep(prepareDelayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return super.askPrepare(transactionId, mutations);
+  }
+
+  @Override
+  public void commit(long transactionId) throws RemoteException {
+    synchronized (this) {
+      if (commitsToFail > 0) {
+        commitsToFail--;
+        throw new RemoteException("Participant can't be reached.");
+      }
+    }
+    super.commit(transactionId);
+  }
+
+  @Override
+  public void abort(long transactionId) throws RemoteException {
+    aborted.add(transactionId);
+    super.abort(transactionId);
+  }
+}
@@ -0,0 +1,142 @@
+package project3.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import project3.Mutation;
+
+/**
+ * Tests that the write-ahead log replays its records in order after a restart, and that a record
+ * that was only partly written when the participant crashed is cut off.
+ */
+class WriteAheadLogTest {
+  @TempDir
+  Path directory;
+
+  /**
+   * Visitor that remembers every record it is called for.
+   */
+  private static class Recorder implements WriteAheadLog.Visitor {
+    private final List<String> records = new ArrayList<>();
+
+    @Override
+    public void onPrepare(long transactionId, List<Mutation> mutations) {
+      records.add("PREPARE " + transactionId + " " + mutations);
+    }
+
+    @Override
+    public void onCommit(long transactionId, List<Mutation> mutations) {
+      records.add("COMMIT " + transactionId + " " + mutations);
+    }
+
+    @Override
+    public void onAbort(long transactionId) {
+      records.add("ABORT " + transactionId);
+    }
+
+    @Override
+    public void onForget(long transactionId) {
+      records.add("FORGET " + transactionId);
+    }
+  }
+
+  @Test
+  void replaysAllRecordsInOrder() throws IOException {
+    List<Mutation> mutations = List.of(Mutation.put("a", "1"), Mutation.delete("b"),
+            Mutation.put("c", "3", 1234));
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, new Recorder())) {
+      assertTrue(log.isEmpty());
+      log.logPrepare(1, mutations);
+      log.logCommit(1, mutations);
+      log.logPrepare(2, List.of(Mutation.put("d", "4")));
+      log.logAbort(2);
+      log.logForget(1);
+    }
+
+    Recorder recorder = new Recorder();
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, recorder)) {
+      assertFalse(log.isEmpty());
+    }
+    assertEquals(List.of(
+            "PREPARE 1 [PUT a 1, DELETE b, PUT c 3 until 1234]",
+            "COMMIT 1 [PUT a 1, DELETE b, PUT c 3 until 1234]",
+            "PREPARE 2 [PUT d 4]",
+            "ABORT 2",
+            "FORGET 1"), recorder.records);
+  }
+
+  @Test
+  void cutsOffPartlyWrittenRecord() throws IOException {
+    Path segment = directory.resolve("wal-1.log");
+    long firstRecordEnd;
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, new Recorder())) {
+      log.logCommit(1, List.of(Mutation.put("a", "1")));
+      firstRecordEnd = Files.size(segment);
+      log.logCommit(2, List.of(Mutation.put("b", "2")));
+    }
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(segment) - 3);
+    }
+
+    Recorder recorder = new Recorder();
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, recorder)) {
+      assertEquals(firstRecordEnd, Files.size(segment));
+      log.logCommit(3, List.of(Mutation.put("c", "3")));
+    }
+    assertEquals(List.of("COMMIT 1 [PUT a 1]"), recorder.records);
+
+    // records that are appended after the cut are replayed as usual
+    recorder = new Recorder();
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, recorder)) {
+      assertFalse(log.isEmpty());
+    }
+    assertEquals(List.of("COMMIT 1 [PUT a 1]", "COMMIT 3 [PUT c 3]"), recorder.records);
+  }
+
+  @Test
+  void cutsOffRecordThatFailsChecksum() throws IOException {
+    Path segment = directory.resolve("wal-1.log");
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, new Recorder())) {
+      log.logCommit(1, List.of(Mutation.put("a", "1")));
+      log.logCommit(2, List.of(Mutation.put("b", "2")));
+    }
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {'x'}), Files.size(segment) - 1);
+    }
+
+    Recorder recorder = new Recorder();
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, recorder)) {
+      assertFalse(log.isEmpty());
+    }
+    assertEquals(List.of("COMMIT 1 [PUT a 1]"), recorder.records);
+  }
+
+  @Test
+  void replaysOnlySegmentsNotCoveredBySnapshot() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(directory, 1, new Recorder())) {
+      log.logCommit(1, List.of(Mutation.put("a", "1")));
+      assertEquals(2, log.rotate());
+      log.logCommit(2, List.of(Mutation.put("b", "2")));
+    }
+
+    Recorder recorder = new Recorder();
+    try (WriteAheadLog log = new WriteAheadLog(directory, 2, recorder)) {
+      assertFalse(log.isEmpty());
+    }
+    assertEquals(List.of("COMMIT 2 [PUT b 2]"), recorder.records);
+    assertFalse(Files.exists(directory.resolve("wal-1.log")));
+  }
+}
@@ -0,0 +1,195 @@
+package project3.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InvalidClassException;
+import java.net.SocketTimeoutException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the nio transport over loopback, with one transport that exports an object and another
+ * one that calls it, like a server and a client do.
+ */
+class NioTransportTest {
+  private static final String HOST = "127.0.0.1";
+
+  private final List<NioTransport> transports = new ArrayList<>();
+
+  /**
+   * Remote interface of the object that the tests call.
+   */
+  interface Echo extends Remote {
+    Object echo(Object value) throws RemoteException;
+
+    String sleep(long millis) throws RemoteException, InterruptedException;
+
+    String block() throws RemoteException, InterruptedException;
+
+    void fail(String message) throws RemoteException;
+  }
+
+  private static class EchoImpl implements Echo {
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @Override
+    public Object echo(Object value) {
+      return value;
+    }
+
+    @Override
+    public String sleep(long millis) throws InterruptedException {
+      Thread.sleep(millis);
+      return "awake";
+    }
+
+    @Override
+    public String block() throws InterruptedException {
+      released.await();
+      return "released";
+    }
+
+    @Override
+    public void fail(String message) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  @AfterEach
+  void close() {
+    for (NioTransport transport : transports) {
+      transport.close();
+    }
+  }
+
+  private NioTransport open(long responseTimeoutMillis, int workerThreads, int queuedCalls) {
+    NioTransport transport = new NioTransport(responseTimeoutMillis, workerThreads, queuedCalls);
+    transports.add(transport);
+    return transport;
+  }
+
+  private Echo connect(NioTransport server, EchoImpl echo, NioTransport client) throws Exception {
+    Echo exported = server.export("echo", echo, Echo.class, HOST, 0);
+    int port = server.getReference(exported).getPort();
+    return client.lookup("echo", Echo.class, HOST, port);
+  }
+
+  @Test
+  void carriesCallsAndResults() throws Exception {
+    Echo echo = this.connect(this.open(0, 4, 16), new EchoImpl(), this.open(0, 4, 16));
+    assertEquals("caf\u00e9", echo.echo("caf\u00e9"));
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("b", List.of(1L, 2));
+    map.put("a", null);
+    assertEquals(map, echo.echo(map));
+    assertEquals(null, echo.echo(null));
+  }
+
+  @Test
+  void matchesConcurrentCallsWithTheirResponses() throws Exception {
+    Echo echo = this.connect(this.open(0, 4, 1024), new EchoImpl(), this.open(0, 4, 16));
+    List<CompletableFuture<Void>> callers = new ArrayList<>();
+    for (int thread = 0; thread < 8; thread++) {
+      int first = thread * 1000;
+      callers.add(CompletableFuture.runAsync(() -> {
+        for (int i = first; i < first + 200; i++) {
+          try {
+            assertEquals("value" + i, echo.echo("value" + i));
+          } catch (RemoteException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      }));
+    }
+    for (CompletableFuture<Void> caller : callers) {
+      caller.get(30, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void failsCallThatTakesLongerThanResponseTimeout() throws Exception {
+    Echo echo = this.connect(this.open(0, 4, 16), new EchoImpl(), this.open(200, 4, 16));
+    UnmarshalException timeout = assertThrows(UnmarshalException.class, () -> echo.sleep(1000));
+    assertInstanceOf(SocketTimeoutException.class, timeout.getCause());
+    // the late response is dropped and the connection is still usable
+    assertEquals("awake", echo.sleep(0));
+    Thread.sleep(1000);
+    assertEquals("again", echo.echo("again"));
+  }
+
+  @Test
+  void passesOnExceptionsOfCalledObject() throws Exception {
+    Echo echo = this.connect(this.open(0, 4, 16), new EchoImpl(), this.open(0, 4, 16));
+    IllegalStateException failure = assertThrows(IllegalStateException.class,
+            () -> echo.fail("broken"));
+    assertEquals("broken", failure.getMessage());
+  }
+
+  @Test
+  void reportsRefusedClassesAndUnknownNames() throws Exception {
+    NioTransport server = this.open(0, 4, 16);
+    NioTransport client = this.open(0, 4, 16);
+    Echo echo = this.connect(server, new EchoImpl(), client);
+    RemoteException refused = assertThrows(RemoteException.class,
+            () -> echo.echo(new AtomicLong(3)));
+    assertInstanceOf(InvalidClassException.class, refused.getCause());
+
+    int port = server.getReference(echo).getPort();
+    Echo missing = client.lookup("missing", Echo.class, HOST, port);
+    RemoteException unknown = assertThrows(RemoteException.class, () -> missing.echo("a"));
+    assertInstanceOf(NoSuchObjectException.class, unknown.getCause());
+  }
+
+  @Test
+  void refusesCallsBeyondWorkersAndQueue() throws Exception {
+    EchoImpl impl = new EchoImpl();
+    Echo echo = this.connect(this.open(0, 1, 1), impl, this.open(0, 4, 16));
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      calls.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return echo.block();
+        } catch (RemoteException | InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }));
+    }
+
+    // one call runs and one waits, so the last one fails while the others are still blocked
+    ExecutionException busy = null;
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (busy == null) {
+      assertTrue(System.nanoTime() < deadline, "No call was refused");
+      for (CompletableFuture<String> call : calls) {
+        if (call.isCompletedExceptionally()) {
+          busy = assertThrows(ExecutionException.class, call::get);
+          calls.remove(call);
+          break;
+        }
+      }
+      Thread.sleep(10);
+    }
+    assertInstanceOf(RemoteException.class, busy.getCause().getCause());
+    impl.released.countDown();
+    for (CompletableFuture<String> call : calls) {
+      assertEquals("released", call.get(10, TimeUnit.SECONDS));
+    }
+  }
+}
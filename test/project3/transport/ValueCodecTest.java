@@ -0,0 +1,151 @@
+package project3.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import project3.Mutation;
+import project3.Request;
+import project3.Response;
+import project3.server.Decision;
+import project3.server.Vote;
+
+/**
+ * Tests that the values of remote calls come out of the nio codec the same as they went in, and
+ * that serialized values and references that are not part of the protocol are refused.
+ */
+class ValueCodecTest {
+  /**
+   * Exception that is not thrown by any remote interface.
+   */
+  private static class UnknownException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static Object roundTrip(Object value) throws IOException {
+    FrameWriter writer = new FrameWriter();
+    ValueCodec.putValue(writer, value, null);
+    return decode(writer);
+  }
+
+  private static Object decode(FrameWriter writer) throws IOException {
+    ByteBuffer frame = writer.finish();
+    assertEquals(frame.remaining() - Integer.BYTES, frame.getInt());
+    Object value = ValueCodec.getValue(frame, null);
+    assertEquals(0, frame.remaining());
+    return value;
+  }
+
+  @Test
+  void roundTripsPlainValues() throws IOException {
+    assertNull(roundTrip(null));
+    assertEquals("caf\u00e9", roundTrip("caf\u00e9"));
+    assertEquals(Long.MIN_VALUE, roundTrip(Long.MIN_VALUE));
+    assertEquals(-7, roundTrip(-7));
+    assertEquals(true, roundTrip(true));
+    assertEquals(false, roundTrip(false));
+  }
+
+  @Test
+  void roundTripsListsAndMapsInOrder() throws IOException {
+    List<Object> list = new ArrayList<>(List.of("a", 1L, 2));
+    list.add(null);
+    assertEquals(list, roundTrip(list));
+
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("z", "last");
+    map.put("a", List.of("nested"));
+    Object decoded = roundTrip(map);
+    assertEquals(map, decoded);
+    assertEquals(List.of("z", "a"), List.copyOf(((Map<?, ?>) decoded).keySet()));
+  }
+
+  @Test
+  void roundTripsMutations() throws IOException {
+    List<Mutation> mutations = List.of(Mutation.put("a", "1"), Mutation.put("b", "2", 1234),
+            Mutation.delete("c"), Mutation.compareAndSet("d", "old", "new"),
+            Mutation.increment("e", -5), Mutation.append("f", "tail"));
+    for (Mutation mutation : mutations) {
+      Mutation decoded = (Mutation) roundTrip(mutation);
+      assertEquals(mutation.getKind(), decoded.getKind());
+      assertEquals(mutation.getKey(), decoded.getKey());
+      assertEquals(mutation.getValue(), decoded.getValue());
+      assertEquals(mutation.getExpectedValue(), decoded.getExpectedValue());
+      assertEquals(mutation.getExpiresAt(), decoded.getExpiresAt());
+    }
+  }
+
+  @Test
+  void roundTripsRequestsAndResponses() throws IOException {
+    Request request = (Request) roundTrip(Request.parse("MPUT\ta\t1\tb\t2"));
+    assertEquals(Request.Operation.MPUT, request.getOperation());
+    assertEquals(Map.of("a", "1", "b", "2"), request.getEntries());
+
+    Response response = (Response) roundTrip(Response.success(Map.of("a", "1")));
+    assertTrue(response.isSuccess());
+    assertEquals(Map.of("a", "1"), response.getValues());
+  }
+
+  @Test
+  void roundTripsEnumsAndExceptions() throws IOException {
+    assertEquals(Vote.CONFLICT, roundTrip(Vote.CONFLICT));
+    assertEquals(Decision.COMMIT, roundTrip(Decision.COMMIT));
+
+    RemoteException exception = new RemoteException("remote", new IllegalStateException("cause"));
+    exception.addSuppressed(new IOException("suppressed"));
+    RemoteException decoded = assertInstanceOf(RemoteException.class, roundTrip(exception));
+    assertEquals(exception.getMessage(), decoded.getMessage());
+    assertInstanceOf(IllegalStateException.class, decoded.getCause());
+    assertEquals(1, decoded.getSuppressed().length);
+    assertArrayEquals(exception.getStackTrace(), decoded.getStackTrace());
+  }
+
+  @Test
+  void refusesSerializedTypesOutsideTheProtocol() {
+    assertThrows(InvalidClassException.class, () -> roundTrip(new HashSet<>(Set.of("a"))));
+    assertThrows(InvalidClassException.class, () -> roundTrip(new AtomicLong(3)));
+    assertThrows(InvalidClassException.class, () -> roundTrip(new UnknownException()));
+    assertThrows(InvalidClassException.class,
+            () -> roundTrip(new RemoteException("remote", new UnknownException())));
+  }
+
+  @Test
+  void refusesReferencesToOtherInterfaces() {
+    FrameWriter writer = new FrameWriter();
+    writer.putByte(10);
+    writer.putString(Runnable.class.getName());
+    writer.putString("127.0.0.1");
+    writer.putInt(5000);
+    writer.putString("handler");
+    assertThrows(IOException.class, () -> decode(writer));
+  }
+
+  @Test
+  void refusesInvalidFrames() {
+    FrameWriter unknownTag = new FrameWriter();
+    unknownTag.putByte(99);
+    assertThrows(IOException.class, () -> decode(unknownTag));
+
+    FrameWriter hugeList = new FrameWriter();
+    hugeList.putByte(5);
+    hugeList.putInt(Integer.MAX_VALUE);
+    assertThrows(IOException.class, () -> decode(hugeList));
+  }
+}